@@ -0,0 +1,956 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** Micro-benchmarks for gitlet's storage code. Each benchmark warms
+ *  up before it is timed and prints one line per measurement.
+ *  Usage: java gitlet.Benchmark NAME..., where each NAME is one of
+ *  the benchmarks listed in main, followed by its arguments, if any.
+ *  Benchmarks that store objects do so in a .gitlet directory under
+ *  the current directory, so run them in a scratch directory.
+ *  @author Chris Wang
+ */
+class Benchmark {
+
+    /** Run the benchmarks named in ARGS, or all of them. */
+    public static void main(String... args) {
+        String[] names = args.length == 0 ? new String[] {"codec"} : args;
+        for (int i = 0; i < names.length; i += 1) {
+            switch (names[i]) {
+            case "codec":
+                codec();
+                break;
+            case "compress":
+                i += 1;
+                compress(new File(names[i]));
+                break;
+            case "index":
+                index(1_000_000);
+                break;
+            case "graph":
+                graph(500_000);
+                break;
+            case "status":
+                status(100_000);
+                break;
+            case "tree":
+                tree(200_000);
+                break;
+            case "checkout":
+                checkout(50_000, 4 << 10);
+                break;
+            case "hash":
+                hash(2_000, 64 << 10);
+                break;
+            case "diff":
+                diff(1_000_000, 20_000);
+                break;
+            case "renames":
+                renames(5_000);
+                break;
+            case "blame":
+                blame(10_000, 2_000);
+                break;
+            case "find":
+                find(100_000);
+                break;
+            case "global-log":
+                globalLog(100_000);
+                break;
+            case "cache":
+                cache(10_000);
+                break;
+            case "daemon":
+                daemon(2_000, 20, 30);
+                break;
+            case "add":
+                add(5_000, 4 << 10);
+                break;
+            case "fsync":
+                fsync(200, 8);
+                break;
+            default:
+                System.out.printf("Unknown benchmark %s.%n", names[i]);
+            }
+        }
+    }
+
+    /** Compare the binary codec with java.io serialization on a commit
+     *  tracking 100 files and on a 4 KiB blob. */
+    static void codec() {
+        HashMap<String, String> reference = new HashMap<String, String>();
+        for (int i = 0; i < 100; i += 1) {
+            reference.put("src/file" + i + ".java", Utils.sha1("" + i));
+        }
+        Commit commit = new Commit("Benchmark commit message", reference,
+                Utils.sha1("parent"), Utils.sha1("merge"), new Date());
+        Blob blob = new Blob(new byte[4096]);
+        byte[] commitCodec = commit.encode();
+        byte[] commitJava = Utils.serialize(commit);
+        byte[] blobCodec = blob.encode();
+        byte[] blobJava = Utils.serialize(blob);
+        System.out.printf("commit size: codec %d B, java %d B%n",
+                commitCodec.length, commitJava.length);
+        System.out.printf("blob size:   codec %d B, java %d B%n",
+                blobCodec.length, blobJava.length);
+
+        time("commit encode codec", () -> commit.encode());
+        time("commit encode java", () -> Utils.serialize(commit));
+        time("commit decode codec", () -> Commit.decode(commitCodec));
+        time("commit decode java", () -> deserialize(commitJava));
+        time("blob encode codec", () -> blob.encode());
+        time("blob encode java", () -> Utils.serialize(blob));
+        time("blob decode codec", () -> Blob.decode(blobCodec));
+        time("blob decode java", () -> deserialize(blobJava));
+    }
+
+    /** Store every file under CORPUS as a blob and report the bytes
+     *  on disk and the time to check the blobs out again, against
+     *  keeping and copying the files uncompressed. */
+    static void compress(File corpus) {
+        Blob.BLOB_FOLDER.mkdirs();
+        List<File> files = walk(corpus);
+        HashMap<String, Long> sizes = new HashMap<String, Long>();
+        List<Blob> blobs = new ArrayList<Blob>();
+        long start = System.nanoTime();
+        for (File file : files) {
+            Blob blob = Blob.store(file);
+            blobs.add(blob);
+            sizes.put(blob.getSha1(), file.length());
+        }
+        long addTime = System.nanoTime() - start;
+        long raw = 0;
+        long stored = 0;
+        for (String id : sizes.keySet()) {
+            raw += sizes.get(id);
+            stored += Utils.join(Blob.BLOB_FOLDER, id).length();
+        }
+        System.out.printf("%d files, %d distinct: %,d bytes raw, "
+                + "%,d bytes stored (%.1f%%), added in %.0f ms%n",
+                files.size(), sizes.size(), raw, stored,
+                100.0 * stored / raw, addTime / 1e6);
+        File out = Utils.join(Main.MAIN_FOLDER, "bench-checkout");
+        out.mkdirs();
+        long checkout = Long.MAX_VALUE;
+        long copy = Long.MAX_VALUE;
+        try {
+            for (int round = 0; round < 5; round += 1) {
+                start = System.nanoTime();
+                for (int i = 0; i < blobs.size(); i += 1) {
+                    blobs.get(i).write(Utils.join(out, "f" + i));
+                }
+                checkout = Math.min(checkout, System.nanoTime() - start);
+                start = System.nanoTime();
+                for (int i = 0; i < files.size(); i += 1) {
+                    Files.copy(files.get(i).toPath(),
+                            Utils.join(out, "f" + i).toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+                copy = Math.min(copy, System.nanoTime() - start);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        System.out.printf("checkout %.1f ms, uncompressed copy %.1f ms%n",
+                checkout / 1e6, copy / 1e6);
+    }
+
+    /** Compare looking up full and abbreviated ids in an ObjectIndex
+     *  of COUNT random ids with scanning a sorted list of them, the
+     *  way abbreviated commit ids used to be resolved. */
+    static void index(int count) {
+        Random random = new Random(count);
+        ArrayList<byte[]> raw = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i += 1) {
+            byte[] id = new byte[Codec.ID_BYTES];
+            random.nextBytes(id);
+            raw.add(id);
+        }
+        raw.sort(Arrays::compareUnsigned);
+        List<String> ids = new ArrayList<String>(count);
+        for (byte[] id : raw) {
+            ids.add(Utils.hex(id));
+        }
+        Main.MAIN_FOLDER.mkdirs();
+        File file = Utils.join(Main.MAIN_FOLDER, "bench-index");
+        long start = System.nanoTime();
+        Utils.writeContents(file, ObjectIndex.encode(raw, new byte[0]));
+        System.out.printf("%,d ids: index of %,d bytes written in "
+                + "%.0f ms%n", count, file.length(),
+                (System.nanoTime() - start) / 1e6);
+        ObjectIndex index = new ObjectIndex(file);
+        int[] next = new int[1];
+        time("index full id", () ->
+            index.find(raw.get(next[0]++ % count)));
+        time("index 7-digit prefix", () ->
+            index.resolve(ids.get(next[0]++ % count).substring(0, 7), 2));
+        time("list scan 7-digit prefix", () -> {
+            String prefix = ids.get(next[0]++ % count).substring(0, 7);
+            for (String id : ids) {
+                if (id.substring(0, prefix.length()).equals(prefix)) {
+                    return id;
+                }
+            }
+            return null;
+        });
+        file.delete();
+    }
+
+    /** Time finding merge bases in a CommitGraph of COUNT commits: a
+     *  main line that merges in a side branch of 10 commits every 100
+     *  commits, and two heads that fork from it near the beginning.
+     *  Then time the same with Reachability bitmaps, and updating a
+     *  bitmap from that of a recent ancestor. */
+    static void graph(int count) {
+        Main.MAIN_FOLDER.mkdirs();
+        File file = Utils.join(Main.MAIN_FOLDER, "bench-graph");
+        int[] generation = new int[count];
+        try (BufferedOutputStream out = new BufferedOutputStream(
+                 new FileOutputStream(file))) {
+            out.write(CommitGraph.header());
+            int main = -1;
+            for (int i = 0; i < count; i += 1) {
+                int parent = i - 1;
+                int merge = -1;
+                if (i >= 2 && i < count - 1 && i % 100 < 10) {
+                    parent = i % 100 == 0 ? main : i - 1;
+                } else if (i >= 100 && i % 100 == 10) {
+                    parent = main;
+                    merge = i - 1;
+                }
+                if (i == count - 1) {
+                    parent = 1;
+                }
+                generation[i] = 1 + Math.max(
+                        parent < 0 ? 0 : generation[parent],
+                        merge < 0 ? 0 : generation[merge]);
+                out.write(CommitGraph.record(Utils.sha1("" + i), parent,
+                        merge, generation[i], i));
+                if (i % 100 >= 10 || i < 2) {
+                    main = i;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        CommitGraph graph = new CommitGraph(file);
+        int tip = count - 2;
+        int fork = count - 1;
+        long start = System.nanoTime();
+        int base = graph.mergeBase(tip, fork);
+        System.out.printf("%,d commits: merge base %d found in %.1f ms "
+                + "(first call)%n", graph.size(), base,
+                (System.nanoTime() - start) / 1e6);
+        time("merge base, old fork", () -> graph.mergeBase(tip, fork));
+        time("merge base, side branch", () ->
+            graph.mergeBase(tip, tip - 95));
+
+        HashMap<Integer, BitSet> known = new HashMap<Integer, BitSet>();
+        start = System.nanoTime();
+        BitSet forkBits = Reachability.reach(graph, fork, known);
+        BitSet tipBits = Reachability.reach(graph, tip, known);
+        System.out.printf("bitmaps of both heads built in %.1f ms; "
+                + "%,d bytes stored for the tip%n",
+                (System.nanoTime() - start) / 1e6,
+                Reachability.encode(graph, tip, tipBits).length);
+        known.put(tip - 100, Reachability.reach(graph, tip - 100, known));
+        time("bitmap after one commit", () ->
+            Reachability.reach(graph, tip, known));
+        time("bitmap merge base, old fork", () ->
+            graph.mergeBase(tip, forkBits));
+        time("bitmap ancestor test", () -> tipBits.get(fork));
+        file.delete();
+    }
+
+    /** Time the part of status that finds changed files, over a
+     *  directory of COUNT small files: once with an empty StatCache,
+     *  which hashes every file, and once with the cache that pass
+     *  wrote, which should hash none. */
+    static void status(int count) {
+        File dir = Utils.join(Main.MAIN_FOLDER, "bench-status");
+        dir.mkdirs();
+        for (int i = 0; i < count; i += 1) {
+            Utils.writeContents(Utils.join(dir, "f" + i), "file " + i);
+        }
+        StatCache.CACHE_FILE.delete();
+        for (int pass = 0; pass < 3; pass += 1) {
+            long start = System.nanoTime();
+            TreeMap<String, StatCache.Entry> files = StatCache.scan(dir);
+            StatCache cache = StatCache.read();
+            for (Map.Entry<String, StatCache.Entry> e : files.entrySet()) {
+                cache.id(dir, e.getKey(), e.getValue());
+            }
+            cache.write();
+            System.out.printf("status of %,d files, pass %d: %.0f ms%n",
+                    files.size(), pass + 1,
+                    (System.nanoTime() - start) / 1e6);
+        }
+        for (String name : Utils.plainFilenamesIn(dir)) {
+            Utils.join(dir, name).delete();
+        }
+        dir.delete();
+        StatCache.CACHE_FILE.delete();
+    }
+
+    /** Build the trees of COUNT files spread over three levels of
+     *  directories, then time a commit's tree update that changes
+     *  one file, report how many trees it stored, and time finding
+     *  that change with TreeDiff against comparing flattened maps. */
+    static void tree(int count) {
+        HashMap<String, String> files = new HashMap<String, String>();
+        for (int i = 0; i < count; i += 1) {
+            files.put("d" + i % 50 + "/s" + i / 50 % 40 + "/f" + i,
+                    Utils.sha1("" + i));
+        }
+        long start = System.nanoTime();
+        String root = Tree.write(files);
+        System.out.printf("trees of %,d files: %.0f ms, %d trees%n",
+                count, (System.nanoTime() - start) / 1e6,
+                Tree.TREE_FOLDER.list().length);
+        HashMap<String, String> change = new HashMap<String, String>();
+        int[] version = new int[1];
+        time("one-file tree update", () -> {
+            change.put("d7/s3/f7", Utils.sha1("v" + version[0]++));
+            return Tree.update(root, change);
+        });
+        int before = Tree.TREE_FOLDER.list().length;
+        change.put("d7/s3/f7", Utils.sha1("once more"));
+        String next = Tree.update(root, change);
+        System.out.printf("trees stored by one-file update: %d%n",
+                Tree.TREE_FOLDER.list().length - before);
+        time("diff after one-file update", () ->
+                TreeDiff.changes(root, next));
+        time("full map comparison", () -> {
+            HashMap<String, String> a = new HashMap<String, String>();
+            HashMap<String, String> b = new HashMap<String, String>();
+            Tree.flatten(root, "", a);
+            Tree.flatten(next, "", b);
+            return a.equals(b);
+        });
+        for (String name : Tree.TREE_FOLDER.list()) {
+            Utils.join(Tree.TREE_FOLDER, name).delete();
+        }
+    }
+
+    /** Report the time and memory taken to diff two logs of COUNT
+     *  lines of about 100 bytes each, the second made from the first
+     *  by EDITS scattered changes, with the histogram diff and with
+     *  the minimal one. Timestamps make most lines unique, but the
+     *  logs also repeat a few lines often, as real logs do. */
+    static void diff(int count, int edits) {
+        Random random = new Random(count);
+        ByteArrayOutputStream a = new ByteArrayOutputStream();
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i += 1) {
+            String line = i % 10 == 0 ? "---- checkpoint ----\n"
+                : String.format("%010d INFO worker-%02d handled request %08x"
+                        + " in %d ms from 10.0.%d.%d%n", i, i % 32,
+                        random.nextInt(), random.nextInt(500),
+                        random.nextInt(256), random.nextInt(256));
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            a.writeBytes(bytes);
+            int r = random.nextInt(count);
+            if (r >= edits) {
+                b.writeBytes(bytes);
+            } else if (r % 2 == 0) {
+                b.writeBytes(("edited " + line).getBytes(
+                        StandardCharsets.UTF_8));
+            }
+        }
+        LineDiff.Lines old = new LineDiff.Lines(a.toByteArray());
+        LineDiff.Lines now = new LineDiff.Lines(b.toByteArray());
+        a = null;
+        b = null;
+        System.out.printf("logs of %,d and %,d bytes%n",
+                old.data().length, now.data().length);
+        for (int round = 0; round < 3; round += 1) {
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            long base = runtime.totalMemory() - runtime.freeMemory();
+            long start = System.nanoTime();
+            int[][] ids = LineDiff.number(old, now);
+            long numbered = System.nanoTime();
+            List<LineDiff.Edit> histogram = LineDiff.diff(ids[0], ids[1]);
+            long diffed = System.nanoTime();
+            long used = runtime.totalMemory() - runtime.freeMemory() - base;
+            List<LineDiff.Edit> minimal = LineDiff.minimal(ids[0], ids[1]);
+            long end = System.nanoTime();
+            System.out.printf("number %.0f ms, histogram %.0f ms (%d hunks),"
+                    + " minimal %.0f ms (%d hunks), ~%d MB%n",
+                    (numbered - start) / 1e6, (diffed - numbered) / 1e6,
+                    histogram.size(), (end - diffed) / 1e6, minimal.size(),
+                    used >> 20);
+        }
+    }
+
+    /** Report the time taken to find COUNT renamed and edited files
+     *  among as many unrelated added ones, through the sketch index,
+     *  and the time a comparison of every pair of sketches would take
+     *  instead. Contents are kept in memory, so only the detection
+     *  itself is timed. */
+    static void renames(int count) {
+        Random random = new Random(count);
+        HashMap<String, byte[]> blobs = new HashMap<String, byte[]>();
+        ArrayList<TreeDiff.Change> changes = new ArrayList<TreeDiff.Change>();
+        for (int i = 0; i < 2 * count; i += 1) {
+            StringBuilder text = new StringBuilder();
+            for (int line = 0; line < 60; line += 1) {
+                text.append("    value").append(random.nextInt(1 << 20))
+                    .append(" = compute(").append(line).append(");\n");
+            }
+            blobs.put("o" + i, text.toString().getBytes());
+            text.insert(text.length() / 2, "    // an edit\n");
+            blobs.put("n" + i, text.toString().getBytes());
+            if (i < count) {
+                changes.add(new TreeDiff.Change("old/f" + i, "o" + i, null));
+                changes.add(new TreeDiff.Change("new/f" + i, null, "n" + i));
+            } else {
+                changes.add(new TreeDiff.Change("add/f" + i, null, "o" + i));
+            }
+        }
+        for (int round = 0; round < 3; round += 1) {
+            long start = System.nanoTime();
+            List<Renames.Rename> found = Renames.detect(changes, true,
+                    c -> blobs.get(c.oldId()), c -> blobs.get(c.newId()));
+            long detected = System.nanoTime();
+            int[][] sketches = new int[3 * count][];
+            for (int i = 0; i < count; i += 1) {
+                sketches[i] = Renames.sketch(blobs.get("o" + i));
+            }
+            for (int j = 0; j < 2 * count; j += 1) {
+                sketches[count + j] = Renames.sketch(
+                        blobs.get((j < count ? "n" : "o") + j));
+            }
+            int matches = 0;
+            for (int i = 0; i < count; i += 1) {
+                for (int j = count; j < 3 * count; j += 1) {
+                    if (Renames.score(sketches[i], sketches[j])
+                            >= Renames.MIN_SCORE) {
+                        matches += 1;
+                    }
+                }
+            }
+            long end = System.nanoTime();
+            System.out.printf("%,d renames among %,d adds: index %.0f ms;"
+                    + " all pairs %.0f ms (%d matches)%n", found.size(),
+                    2 * count, (detected - start) / 1e6,
+                    (end - detected) / 1e6, matches);
+        }
+    }
+
+    /** Report the time taken to blame a file of LINES lines at the
+     *  end of a linear history of COUNT commits, one in ten of which
+     *  rewrites a line of it and the rest another file. */
+    static void blame(int count, int lines) {
+        Blob.BLOB_FOLDER.mkdirs();
+        Commit.COMMIT_FOLDER.mkdirs();
+        Random random = new Random(count);
+        String[] text = new String[lines];
+        for (int i = 0; i < lines; i += 1) {
+            text[i] = "line " + i + " of the original file\n";
+        }
+        HashMap<String, String> files = new HashMap<String, String>();
+        String parent = null;
+        for (int c = 0; c < count; c += 1) {
+            String name = "other";
+            if (c % 10 == 0) {
+                text[random.nextInt(lines)] = "rewritten in " + c + "\n";
+                name = "file";
+            }
+            Blob blob = new Blob((name.equals("file")
+                    ? String.join("", text) : "v" + c).getBytes());
+            blob.saveBlob();
+            files.put(name, blob.getSha1());
+            Commit commit = new Commit("c" + c, files, parent, null,
+                    new Date(1000L * c));
+            Utils.writeContents(Utils.join(Commit.COMMIT_FOLDER,
+                    commit.getSha1()), commit.encode());
+            parent = commit.getSha1();
+        }
+        String head = parent;
+        for (int round = 0; round < 3; round += 1) {
+            ObjectCache.get().clear();
+            long start = System.nanoTime();
+            Blame blame = new Blame(head, "file");
+            System.out.printf("blame of %,d lines over %,d commits: %.0f ms,"
+                    + " %,d commits visited, %,d versions read%n", lines,
+                    count, (System.nanoTime() - start) / 1e6,
+                    blame.visited(), blame.numbered());
+        }
+    }
+
+    /** Report the rates of message searches over COUNT commits
+     *  through the message index, and of an exact search that reads
+     *  every commit as find used to. */
+    static void find(int count) {
+        Commit.COMMIT_FOLDER.mkdirs();
+        Random random = new Random(count);
+        String[] words = {"fix", "add", "remove", "parser", "merge", "test",
+                          "docs", "cache", "index", "refactor", "bump"};
+        for (int c = 0; c < count; c += 1) {
+            String message = words[random.nextInt(words.length)] + " "
+                + words[random.nextInt(words.length)] + " #" + c;
+            Commit commit = new Commit(message, new HashMap<String, String>(),
+                    null, null, new Date(c));
+            Utils.writeContents(Utils.join(Commit.COMMIT_FOLDER,
+                    commit.getSha1()), commit.encode());
+        }
+        CommitIndex.rebuild();
+        MessageIndex.rebuild();
+        time("indexed exact find", () -> MessageIndex.exact("fix test #77"));
+        time("indexed prefix find", () -> MessageIndex.prefix("docs cache"));
+        time("indexed contains find", () -> MessageIndex.contains("#4242"));
+        time("column grep", () -> MessageIndex.grep("^bump .* #9+$"));
+        time("scan every commit", () -> {
+            int found = 0;
+            for (String id : Commit.allIds()) {
+                if (Commit.fromFile(id).getMessage().equals("fix test #77")) {
+                    found += 1;
+                }
+            }
+            return found;
+        });
+    }
+
+    /** Report the time taken to write the global log of COUNT commits
+     *  to a discarding writer, streamed from the message index, and
+     *  by reading and formatting every commit as global-log used to. */
+    static void globalLog(int count) {
+        Commit.COMMIT_FOLDER.mkdirs();
+        String parent = null;
+        for (int c = 0; c < count; c += 1) {
+            Commit commit = new Commit("commit number " + c,
+                    new HashMap<String, String>(), parent, null,
+                    new Date(1000L * c));
+            Utils.writeContents(Utils.join(Commit.COMMIT_FOLDER,
+                    commit.getSha1()), commit.encode());
+            parent = commit.getSha1();
+        }
+        MessageIndex.rebuild();
+        Writer sink = new BufferedWriter(Writer.nullWriter(), 1 << 16);
+        for (int round = 0; round < 3; round += 1) {
+            long start = System.nanoTime();
+            MessageIndex.each(e -> {
+                try {
+                    Commit.writeLog(sink, e.id(), e.parent(), e.merge(),
+                            new Date(e.time()), e.message());
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                return true;
+            });
+            long streamed = System.nanoTime();
+            ObjectCache.get().clear();
+            StringBuilder all = new StringBuilder();
+            for (String id : Commit.allIds()) {
+                all.append(Commit.fromFile(id)).append('\n');
+            }
+            long end = System.nanoTime();
+            System.out.printf("global log of %,d commits: streamed %.0f ms,"
+                    + " from commits %.0f ms%n", count,
+                    (streamed - start) / 1e6, (end - streamed) / 1e6);
+        }
+    }
+
+    /** Report the rate at which Materializer writes COUNT files of
+     *  SIZE bytes each into a fresh directory tree, serially and in
+     *  parallel. Half the blobs are random, which is stored as it is
+     *  and copied by the system, and half are text, which is stored
+     *  deflated. */
+    static void checkout(int count, int size) {
+        Blob.BLOB_FOLDER.mkdirs();
+        Random random = new Random(count);
+        List<String> paths = new ArrayList<String>();
+        List<String> ids = new ArrayList<String>();
+        byte[] data = new byte[size];
+        for (int i = 0; i < count; i += 1) {
+            if (i % 2 == 0) {
+                random.nextBytes(data);
+            } else {
+                Arrays.fill(data, (byte) ('a' + i % 26));
+            }
+            Blob blob = new Blob(data.clone());
+            blob.saveBlob();
+            paths.add("d" + i % 20 + "/s" + i / 20 % 50 + "/f" + i);
+            ids.add(blob.getSha1());
+        }
+        File out = Utils.join(Main.MAIN_FOLDER, "bench-checkout");
+        for (int pass = 0; pass < 4; pass += 1) {
+            deleteTree(out);
+            ForkJoinPool pool = pass % 2 == 0 ? null : Hasher.pool();
+            long start = System.nanoTime();
+            Materializer.writeAll(out, paths, ids, pool);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("checkout %,d files, %s: %,.0f files/s,"
+                    + " %.0f MB/s%n", count,
+                    pool == null ? "serial" : pool.getParallelism()
+                    + " threads", count / seconds,
+                    (double) count * size / seconds / 1e6);
+        }
+        deleteTree(out);
+        for (String id : ids) {
+            Utils.join(Blob.BLOB_FOLDER, id).delete();
+        }
+    }
+
+    /** Delete FILE and, if it is a directory, everything under it. */
+    static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Report the throughput of Hasher on COUNT files of SIZE bytes
+     *  each, with pools of one thread up to one per core. */
+    static void hash(int count, int size) {
+        File dir = Utils.join(Main.MAIN_FOLDER, "bench-hash");
+        dir.mkdirs();
+        Random random = new Random(count);
+        byte[] data = new byte[size];
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < count; i += 1) {
+            random.nextBytes(data);
+            File file = Utils.join(dir, "f" + i);
+            Utils.writeContents(file, data);
+            files.add(file);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            if (threads * 2 > cores) {
+                threads = cores;
+            }
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            Hasher.hashAll(files, pool);
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 3; round += 1) {
+                long start = System.nanoTime();
+                Hasher.hashAll(files, pool);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            System.out.printf("hash %d threads: %,.0f files/s, "
+                    + "%,.0f MB/s%n", threads, count * 1e9 / best,
+                    (double) count * size * 1e3 / best);
+        }
+        for (File file : files) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /** Return the regular files under DIR. */
+    private static List<File> walk(File dir) {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            return paths.filter(Files::isRegularFile)
+                .map(Path::toFile)
+                .collect(Collectors.toList());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Report the rate at which the three commits of a merge of two
+     *  branches tracking FILES files each can be read whole, three
+     *  times over as merge reads them, with and without the object
+     *  cache. */
+    static void cache(int files) {
+        Commit.COMMIT_FOLDER.mkdirs();
+        HashMap<String, String> reference = new HashMap<String, String>();
+        for (int i = 0; i < files; i += 1) {
+            reference.put("src/dir" + i % 100 + "/file" + i,
+                    Utils.sha1("" + i));
+        }
+        String[] ids = new String[3];
+        for (int i = 0; i < ids.length; i += 1) {
+            reference.put("changed", Utils.sha1("v" + i));
+            Commit commit = new Commit("c" + i, reference, null, null,
+                    new Date(i));
+            commit.getTree();
+            Utils.writeContents(Utils.join(Commit.COMMIT_FOLDER,
+                    commit.getSha1()), commit.encode());
+            ids[i] = commit.getSha1();
+        }
+        for (boolean cached : new boolean[] {false, true}) {
+            time(cached ? "merge reads, cached" : "merge reads, uncached",
+                () -> {
+                    int n = 0;
+                    for (int k = 0; k < 3; k += 1) {
+                        for (String id : ids) {
+                            if (!cached) {
+                                ObjectCache.get().clear();
+                            }
+                            n += Commit.fromFile(id).getReference().size();
+                        }
+                    }
+                    return n;
+                });
+        }
+        System.out.println("object cache: " + ObjectCache.get());
+    }
+
+    /** Report the time to stage COUNT new files of SIZE bytes each
+     *  with one add per file, as scripts had to, and with a single add
+     *  of their directory. Each way gets files of its own, so both
+     *  store every blob. */
+    static void add(int count, int size) {
+        Main.init();
+        Random random = new Random(count);
+        byte[] data = new byte[size];
+        for (String dir : new String[] {"one-by-one", "batch"}) {
+            for (int i = 0; i < count; i += 1) {
+                random.nextBytes(data);
+                File file = Utils.join(Main.CWD, dir, "file" + i);
+                file.getParentFile().mkdirs();
+                Utils.writeContents(file, data);
+            }
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i += 1) {
+            Main.add(new String[] {"add", "one-by-one/file" + i});
+        }
+        long single = System.nanoTime() - start;
+        start = System.nanoTime();
+        Main.add(new String[] {"add", "batch"});
+        long batch = System.nanoTime() - start;
+        System.out.printf("add %,d files of %,d B: one by one %.0f ms,"
+                + " in one batch %.0f ms; %,d staged%n", count, size,
+                single / 1e6, batch / 1e6,
+                Stage.read().added().size());
+    }
+
+    /** Report the throughput of COMMITS commits, each changing FILES
+     *  files spread over as many directories, at each level of
+     *  Durable, with the files and directories synced per commit. Each
+     *  commit is an add and a commit, ended as a command ends. A first
+     *  round at level none warms up and is not reported. */
+    static void fsync(int commits, int files) {
+        Main.init();
+        int[] levels = {Durable.NONE, Durable.NONE, Durable.BATCH,
+                        Durable.STRICT};
+        String[] names = {null, "none", "batch", "strict"};
+        int version = 0;
+        for (int l = 0; l < levels.length; l += 1) {
+            Durable.setLevel(levels[l]);
+            long syncedFiles = Durable.fileSyncs();
+            long syncedDirs = Durable.dirSyncs();
+            long start = System.nanoTime();
+            for (int c = 0; c < commits; c += 1, version += 1) {
+                for (int i = 0; i < files; i += 1) {
+                    File file = Utils.join(Main.CWD, "dir" + i, "file.txt");
+                    file.getParentFile().mkdirs();
+                    Utils.writeContents(file, "version " + version
+                                        + " of file " + i + "\n");
+                }
+                Main.add(new String[] {"add", "."});
+                Main.commit(new String[] {"commit", "commit " + version});
+                Durable.sync();
+            }
+            long time = System.nanoTime() - start;
+            if (names[l] == null) {
+                continue;
+            }
+            System.out.printf("fsync %-6s %,8.0f commits/s; per commit"
+                    + " %4.1f files and %4.1f directories synced%n",
+                    names[l], commits * 1e9 / time,
+                    (Durable.fileSyncs() - syncedFiles) / (double) commits,
+                    (Durable.dirSyncs() - syncedDirs) / (double) commits);
+        }
+        Durable.setLevel(Durable.level(System.getenv("GITLET_FSYNC")));
+    }
+
+    /** Report the latency of gitlet commands on a repository of FILES
+     *  files and COMMITS commits, run TIMES times each: as a process of
+     *  their own, through the Client and Daemon, and both again with
+     *  class data sharing archives of the classes each process loads.
+     *  Also reported is the time of a command sent to the daemon from
+     *  a running JVM, which is what the client pays beyond starting. */
+    static void daemon(int files, int commits, int times) {
+        Main.init();
+        for (int c = 0; c < commits; c += 1) {
+            for (int i = c; i < files; i += commits) {
+                String name = "file" + i + ".txt";
+                Utils.writeContents(Utils.join(Main.CWD, name),
+                        "version " + c + " of " + name + "\n");
+                Main.add(new String[] {"add", name});
+            }
+            Main.commit(new String[] {"commit", "commit " + c});
+        }
+        String java = Paths.get(System.getProperty("java.home"), "bin",
+                                "java").toString();
+        String[][] commands = {{"status"}, {"log", "-n", "5"},
+                               {"find", "--prefix", "commit 1"}};
+        File cds = Utils.join(Main.MAIN_FOLDER, "bench-cds");
+        cds.mkdirs();
+        File jar = new File(cds, "gitlet.jar");
+        jar(jar);
+        String path = jar.getPath();
+        for (String main : new String[] {"Main", "Client"}) {
+            String archive = new File(cds, main + ".jsa").getPath();
+            launch(List.of(java, "-XX:ArchiveClassesAtExit=" + archive,
+                           "-cp", path, "gitlet." + main, "status"), 1);
+        }
+        Process daemon;
+        try {
+            daemon = new ProcessBuilder(java, "-cp", path, "gitlet.Main",
+                    "daemon").inheritIO().start();
+            while (!Files.exists(Client.SOCKET) || Client.run(new String[0],
+                    OutputStream.nullOutputStream(),
+                    OutputStream.nullOutputStream()) != 0) {
+                Thread.sleep(50);
+            }
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (String[] command : commands) {
+            System.out.println(String.join(" ", command) + ":");
+            for (String main : new String[] {"Main", "Client"}) {
+                String archive = new File(cds, main + ".jsa").getPath();
+                for (boolean shared : new boolean[] {false, true}) {
+                    ArrayList<String> line = new ArrayList<String>();
+                    line.add(java);
+                    if (shared) {
+                        line.add("-XX:SharedArchiveFile=" + archive);
+                    }
+                    line.addAll(List.of("-cp", path, "gitlet." + main));
+                    line.addAll(Arrays.asList(command));
+                    System.out.printf("  %-22s %6.1f ms%n", (main.equals(
+                            "Main") ? "direct" : "through daemon")
+                            + (shared ? ", CDS" : ""),
+                            launch(line, times));
+                }
+            }
+            long start = System.nanoTime();
+            for (int t = 0; t < times; t += 1) {
+                Client.run(command, OutputStream.nullOutputStream(),
+                           OutputStream.nullOutputStream());
+            }
+            System.out.printf("  %-22s %6.1f ms%n", "daemon, no JVM start",
+                    (System.nanoTime() - start) / 1e6 / times);
+        }
+        Client.run(new String[] {"daemon", "stop"},
+                   OutputStream.nullOutputStream(),
+                   OutputStream.nullOutputStream());
+        try {
+            daemon.waitFor();
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        deleteTree(cds);
+    }
+
+    /** Write the classes of gitlet, which must have been loaded from a
+     *  directory, to the jar JAR. Class data sharing archives only take
+     *  classes from jars. */
+    static void jar(File jar) {
+        try {
+            Path classes = Paths.get(Main.class.getProtectionDomain()
+                    .getCodeSource().getLocation().toURI());
+            try (JarOutputStream out = new JarOutputStream(
+                     new FileOutputStream(jar));
+                 Stream<Path> files = Files.list(classes.resolve("gitlet"))) {
+                for (Path file : files.collect(Collectors.toList())) {
+                    out.putNextEntry(new JarEntry(
+                            classes.relativize(file).toString()));
+                    out.write(Files.readAllBytes(file));
+                }
+            }
+        } catch (IOException | URISyntaxException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Run the process COMMAND TIMES times, discarding its output, and
+     *  return the mean time each run took, in milliseconds. */
+    static double launch(List<String> command, int times) {
+        ProcessBuilder builder = new ProcessBuilder(command)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.DISCARD);
+        long start = System.nanoTime();
+        try {
+            for (int t = 0; t < times; t += 1) {
+                builder.start().waitFor();
+            }
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return (System.nanoTime() - start) / 1e6 / times;
+    }
+
+    /** Time repeated calls of OP, labelled NAME, and print the best
+     *  throughput of several rounds after a warm-up period. */
+    static void time(String name, Op op) {
+        final long warmup = 500_000_000L;
+        final long round = 500_000_000L;
+        final int rounds = 3;
+        long end = System.nanoTime() + warmup;
+        while (System.nanoTime() < end) {
+            _sink = op.run();
+        }
+        double best = 0;
+        for (int r = 0; r < rounds; r += 1) {
+            long count = 0;
+            long start = System.nanoTime();
+            long now;
+            do {
+                _sink = op.run();
+                count += 1;
+                now = System.nanoTime();
+            } while (now < start + round);
+            best = Math.max(best, count * 1e9 / (now - start));
+        }
+        System.out.printf("%-28s %,14.0f ops/s%n", name, best);
+    }
+
+    /** Return the object serialized in BYTES. */
+    private static Object deserialize(byte[] bytes) {
+        try (ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** An operation being timed. */
+    interface Op {
+        /** Perform the operation once, returning its result. */
+        Object run();
+    }
+
+    /** Last result of a timed operation, kept so that it is not
+     *  optimized away. */
+    private static volatile Object _sink;
+}
@@ -0,0 +1,217 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Finds the commit that brought in each line of a file. The history is
+ *  walked back from the head, newest commit first, carrying the lines
+ *  not yet accounted for. At each commit the file is compared with its
+ *  version in each parent: lines a parent already had are handed to
+ *  it, and the rest were written in this commit. A parent with the
+ *  same blob takes every line with no diff and no blob read, so long
+ *  stretches of history that left the file alone cost one tree lookup
+ *  per commit. The walk ends as soon as no line is left to account
+ *  for. The line numbers of each blob are computed once and kept.
+ *  @author Chris Wang
+ */
+class Blame {
+
+    /** The blame of the file PATH as of the commit HEAD. */
+    Blame(String head, String path) {
+        _path = path;
+        Commit commit = Commit.fromFile(head);
+        String blob = commit.getBlobId(path);
+        if (blob == null) {
+            throw new IllegalArgumentException("untracked " + path);
+        }
+        _lines = new LineDiff.Lines(Blob.fromFile(blob).getContent());
+        _owners = new Commit[_lines.size()];
+        int[] all = new int[_lines.size()];
+        for (int i = 0; i < all.length; i += 1) {
+            all[i] = i;
+        }
+        hand(commit, blob, all, all);
+        while (!_queue.isEmpty()) {
+            step(_queue.poll());
+        }
+    }
+
+    /** Return the commit that brought in line I of the file. */
+    Commit owner(int i) {
+        return _owners[i];
+    }
+
+    /** Return the number of commits visited. */
+    int visited() {
+        return _visited;
+    }
+
+    /** Return the number of blobs whose lines were numbered. */
+    int numbered() {
+        return _ids.size();
+    }
+
+    /** Return the blame as text: each line of the file after the
+     *  abbreviated id and date of the commit that brought it in and
+     *  its line number. */
+    byte[] format() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
+        int width = Integer.toString(_owners.length).length();
+        for (int i = 0; i < _owners.length; i += 1) {
+            String head = String.format("%s (%s %" + width + "d) ",
+                    _owners[i].getSha1().substring(0, 8),
+                    date.format(_owners[i].getTime()), i + 1);
+            out.writeBytes(head.getBytes(StandardCharsets.UTF_8));
+            _lines.write(out, i, i + 1);
+            if (!_lines.endsLine(i, i + 1)) {
+                out.write('\n');
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Lines of a commit's version of the file still to be accounted
+     *  for. */
+    private static class Pending {
+        /** Lines AT of the version BLOB of COMMIT, which are lines
+         *  LINES of the blamed file. */
+        Pending(Commit commit, String blob, int[] at, int[] lines) {
+            _commit = commit;
+            _blob = blob;
+            _at = at;
+            _lines = lines;
+        }
+
+        /** The commit. */
+        private final Commit _commit;
+        /** Blob id of the file in the commit. */
+        private final String _blob;
+        /** Line numbers in this version, in increasing order. */
+        private int[] _at;
+        /** Line numbers in the blamed file. */
+        private int[] _lines;
+    }
+
+    /** Account for the pending lines of P: hand those its parents had
+     *  on to them, and credit P's commit with the rest. */
+    private void step(Pending p) {
+        _pending.remove(p._commit.getSha1());
+        _visited += 1;
+        Commit[] parents = {p._commit.getParent(), p._commit.getMerge()};
+        String[] blobs = new String[parents.length];
+        for (int k = 0; k < parents.length; k += 1) {
+            blobs[k] = parents[k] == null ? null
+                : parents[k].getBlobId(_path);
+            if (p._blob.equals(blobs[k])) {
+                hand(parents[k], blobs[k], p._at, p._lines);
+                return;
+            }
+        }
+        int[] at = p._at;
+        int[] lines = p._lines;
+        for (int k = 0; k < parents.length && at.length > 0; k += 1) {
+            if (blobs[k] == null) {
+                continue;
+            }
+            List<LineDiff.Edit> edits = LineDiff.diff(ids(blobs[k]),
+                    ids(p._blob));
+            int[] keptAt = new int[at.length];
+            int[] keptLines = new int[at.length];
+            int[] theirAt = new int[at.length];
+            int[] theirLines = new int[at.length];
+            int kept = 0;
+            int theirs = 0;
+            int e = 0;
+            for (int i = 0; i < at.length; i += 1) {
+                while (e < edits.size() && edits.get(e).bEnd() <= at[i]) {
+                    e += 1;
+                }
+                LineDiff.Edit edit = e < edits.size() ? edits.get(e) : null;
+                if (edit != null && edit.bStart() <= at[i]) {
+                    keptAt[kept] = at[i];
+                    keptLines[kept++] = lines[i];
+                } else {
+                    int shift = edit != null ? edit.aStart() - edit.bStart()
+                        : edits.isEmpty() ? 0
+                        : edits.get(e - 1).aEnd() - edits.get(e - 1).bEnd();
+                    theirAt[theirs] = at[i] + shift;
+                    theirLines[theirs++] = lines[i];
+                }
+            }
+            if (theirs > 0) {
+                hand(parents[k], blobs[k], Arrays.copyOf(theirAt, theirs),
+                        Arrays.copyOf(theirLines, theirs));
+            }
+            at = Arrays.copyOf(keptAt, kept);
+            lines = Arrays.copyOf(keptLines, kept);
+        }
+        for (int line : lines) {
+            _owners[line] = p._commit;
+        }
+    }
+
+    /** Make lines AT of the version BLOB of the file in COMMIT, lines
+     *  LINES of the blamed file, pending at COMMIT. */
+    private void hand(Commit commit, String blob, int[] at, int[] lines) {
+        Pending p = _pending.get(commit.getSha1());
+        if (p == null) {
+            p = new Pending(commit, blob, at, lines);
+            _pending.put(commit.getSha1(), p);
+            _queue.add(p);
+            return;
+        }
+        int n = p._at.length + at.length;
+        long[] both = new long[n];
+        for (int i = 0; i < p._at.length; i += 1) {
+            both[i] = (long) p._at[i] << 32 | p._lines[i];
+        }
+        for (int i = 0; i < at.length; i += 1) {
+            both[p._at.length + i] = (long) at[i] << 32 | lines[i];
+        }
+        Arrays.sort(both);
+        p._at = new int[n];
+        p._lines = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            p._at[i] = (int) (both[i] >>> 32);
+            p._lines[i] = (int) both[i];
+        }
+    }
+
+    /** Return the line numbers of the blob ID, numbering it the first
+     *  time. */
+    private int[] ids(String id) {
+        int[] result = _ids.get(id);
+        if (result == null) {
+            result = _numbering.number(
+                    new LineDiff.Lines(Blob.fromFile(id).getContent()));
+            _ids.put(id, result);
+        }
+        return result;
+    }
+
+    /** Path of the blamed file. */
+    private final String _path;
+    /** Lines of the blamed file. */
+    private final LineDiff.Lines _lines;
+    /** Commit that brought in each line, once known. */
+    private final Commit[] _owners;
+    /** Lines still to account for, by commit id. */
+    private final HashMap<String, Pending> _pending =
+        new HashMap<String, Pending>();
+    /** Commits with pending lines, newest first. */
+    private final PriorityQueue<Pending> _queue = new PriorityQueue<Pending>(
+        (a, b) -> b._commit.getTime().compareTo(a._commit.getTime()));
+    /** Numbering shared by all versions of the file. */
+    private final LineDiff.Numbering _numbering = new LineDiff.Numbering();
+    /** Line numbers of each version of the file read, by blob id. */
+    private final HashMap<String, int[]> _ids = new HashMap<String, int[]>();
+    /** Number of commits visited. */
+    private int _visited;
+}
@@ -1,12 +1,47 @@
 package gitlet;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 /** Blob object used for storing
- * the contents of files.
+ * the contents of files. A blob read back from BLOB_FOLDER is only a
+ * handle on the stored object: its contents are streamed from disk
+ * when written out, so files larger than the heap can be versioned.
+ * Each stored blob names the codec of its contents in its header, so
+ * contents that are already compressed can be stored as they are.
  *  @author Chris Wang
  */
 public class Blob implements Serializable {
+    /** Leading byte of an encoded blob. */
+    static final int TAG = 'b';
+    /** Current format version of an encoded blob. */
+    static final int VERSION = 2;
+    /** Codec byte of contents stored as they are. */
+    static final int STORE = 0;
+    /** Codec byte of contents compressed with java.util.zip.Deflater. */
+    static final int DEFLATE = 1;
+    /** Number of leading bytes that are trial-compressed to choose a
+     *  codec. */
+    static final int SAMPLE = 1 << 14;
+    /** Size of the buffer used when streaming contents. */
+    static final int CHUNK = 1 << 16;
+    /** Largest size of the header of a stored blob: tag, version,
+     *  codec and a varint size. */
+    static final int HEADER_MAX = 3 + 10;
     /** Folder that stores all blobs. */
     static final File BLOB_FOLDER = Utils.join(Main.MAIN_FOLDER, "blobs");
 
@@ -15,43 +50,442 @@ public class Blob implements Serializable {
      */
     public Blob(byte[] content) {
         _content = content;
-        _sha1 = Utils.sha1(Utils.serialize(this));
+        _sha1 = Utils.sha1(content);
+    }
+
+    /** A blob to be filled in by decode. */
+    private Blob() {
+    }
+
+    /** A handle on the stored blob with id SHA1. */
+    private Blob(String sha1) {
+        _sha1 = sha1;
     }
 
     /**
-     * Reads in and deserializes a blob from a file
-     * with sha1 SHA1 in BLOB_FOLDER.
+     * Stores the contents of FILE as a blob and returns it. The file is
+     * read in CHUNK-sized pieces that are hashed and compressed into a
+     * temporary object file as they arrive, which is then renamed to
+     * the id of the contents. Only one chunk is ever held in memory.
+     *
+     * @param file File to store
+     * @return Handle on the stored blob
+     */
+    public static Blob store(File file) {
+        File tmp = null;
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            tmp = File.createTempFile("tmp", null, BLOB_FOLDER);
+            String sha1 = writeObject(in, in.size(), tmp, file.getName());
+            File blobFile = Utils.join(BLOB_FOLDER, sha1);
+            if (!exists(sha1)) {
+                Durable.commit(tmp, blobFile);
+            }
+            return new Blob(sha1);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the stored blob with id SHA1 in the current format,
+     * choosing its codec afresh, and returns the change in its size
+     * on disk.
      *
      * @param sha1 SHA1 value of the blob
-     * @return Blob read from file
      */
-    public static Blob fromFile(String sha1) {
+    static long recompress(String sha1) {
         File blobFile = Utils.join(BLOB_FOLDER, sha1);
-        if (!blobFile.exists()) {
+        long before = blobFile.length();
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp", null, BLOB_FOLDER);
+            String written;
+            try (InputStream raw = new BufferedInputStream(
+                     Files.newInputStream(blobFile.toPath()), CHUNK)) {
+                Header header = new Header(raw);
+                written = writeObject(Channels.newChannel(
+                        header.contents(raw)), header.size, tmp, sha1);
+            }
+            if (!written.equals(sha1)) {
+                throw Utils.error("Blob %s is corrupt.", sha1);
+            }
+            Durable.commit(tmp, blobFile);
+            return blobFile.length() - before;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes SIZE bytes read from IN to TMP as a stored blob, hashing
+     * and compressing one CHUNK at a time, and returns their id. The
+     * codec is chosen from the first chunk. NAME names the source in
+     * error messages.
+     */
+    private static String writeObject(ReadableByteChannel in, long size,
+                                      File tmp, String name)
+        throws IOException {
+        MessageDigest md = Utils.sha1Digest();
+        ByteBuffer buf = ByteBuffer.allocate(CHUNK);
+        Deflater deflater = new Deflater();
+        try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+            OutputStream body = null;
+            for (long left = size; left > 0; left -= buf.position()) {
+                buf.clear();
+                buf.limit((int) Math.min(CHUNK, left));
+                while (buf.hasRemaining()) {
+                    if (in.read(buf) < 0) {
+                        throw Utils.error("%s changed while being read.",
+                                name);
+                    }
+                }
+                if (body == null) {
+                    int codec = chooseCodec(buf.array(), buf.position());
+                    out.write(header(codec, size));
+                    body = codec == DEFLATE
+                        ? new DeflaterOutputStream(out, deflater, CHUNK)
+                        : out;
+                }
+                md.update(buf.array(), 0, buf.position());
+                body.write(buf.array(), 0, buf.position());
+            }
+            if (body == null) {
+                out.write(header(STORE, 0));
+            } else if (body instanceof DeflaterOutputStream) {
+                ((DeflaterOutputStream) body).finish();
+            }
+        } finally {
+            deflater.end();
+        }
+        return Utils.hex(md.digest());
+    }
+
+    /**
+     * Return the codec for contents that start with the first N bytes
+     * of BUF. Contents whose leading bytes are the signature of a
+     * compressed format, or whose first SAMPLE bytes do not shrink by
+     * at least a tenth when deflated, are stored as they are.
+     */
+    static int chooseCodec(byte[] buf, int n) {
+        for (byte[] magic : COMPRESSED_MAGIC) {
+            if (n >= magic.length && startsWith(buf, magic)) {
+                return STORE;
+            }
+        }
+        int sample = Math.min(n, SAMPLE);
+        Deflater trial = new Deflater(Deflater.BEST_SPEED);
+        try {
+            trial.setInput(buf, 0, sample);
+            trial.finish();
+            byte[] out = new byte[sample];
+            int packed = 0;
+            while (!trial.finished() && packed < sample) {
+                packed += trial.deflate(out, packed, sample - packed);
+            }
+            return trial.finished() && packed * 10 < sample * 9
+                ? DEFLATE : STORE;
+        } finally {
+            trial.end();
+        }
+    }
+
+    /** Return true if BUF begins with the bytes of PREFIX. */
+    private static boolean startsWith(byte[] buf, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i += 1) {
+            if (buf[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Leading bytes of common already-compressed formats: gzip, zip
+     *  (and jar), zstd, xz, bzip2, 7z, PNG, JPEG and GIF. */
+    private static final byte[][] COMPRESSED_MAGIC = {
+        {0x1f, (byte) 0x8b},
+        {'P', 'K', 3, 4},
+        {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd},
+        {(byte) 0xfd, '7', 'z', 'X', 'Z', 0},
+        {'B', 'Z', 'h'},
+        {'7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c},
+        {(byte) 0x89, 'P', 'N', 'G'},
+        {(byte) 0xff, (byte) 0xd8, (byte) 0xff},
+        {'G', 'I', 'F', '8'},
+    };
+
+    /**
+     * Returns a handle on the blob with sha1 SHA1, stored loose in
+     * BLOB_FOLDER or in a pack. Its contents are not read until they
+     * are asked for, and once read are kept with the handle in the
+     * ObjectCache.
+     *
+     * @param sha1 SHA1 value of the blob
+     * @return Blob stored in the file
+     */
+    public static Blob fromFile(String sha1) {
+        Blob cached = ObjectCache.get().find(sha1, Blob.class);
+        if (cached != null) {
+            return cached;
+        }
+        if (!exists(sha1)) {
             throw new IllegalArgumentException(
                     "No commit with that sha1 value found ;(");
         }
-        return Utils.readObject(blobFile, Blob.class);
+        Blob blob = new Blob(sha1);
+        ObjectCache.get().put(sha1, blob, 0);
+        return blob;
+    }
+
+    /** Return true if the blob with id SHA1 is stored, loose or
+     *  packed. */
+    static boolean exists(String sha1) {
+        return Utils.join(BLOB_FOLDER, sha1).exists()
+            || Pack.contains(sha1);
+    }
+
+    /**
+     * Return the binary encoding of this blob, which must have its
+     * contents in memory.
+     */
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int codec = chooseCodec(_content, _content.length);
+            bytes.write(header(codec, _content.length));
+            if (codec == DEFLATE) {
+                DeflaterOutputStream z = new DeflaterOutputStream(bytes);
+                z.write(_content);
+                z.close();
+            } else {
+                bytes.write(_content);
+            }
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error compressing blob.");
+        }
     }
+
+    /**
+     * Return the blob whose encoding is BYTES.
+     * @param bytes Encoded blob
+     */
+    static Blob decode(byte[] bytes) {
+        try (InputStream in = contents(new ByteArrayInputStream(bytes))) {
+            Blob blob = new Blob();
+            blob._content = in.readAllBytes();
+            return blob;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /**
-     * Saves a blob to a file for future use.
+     * Saves a blob whose contents are in memory to a file for
+     * future use.
      */
     public void saveBlob() {
-        Utils.writeObject(Utils.join(BLOB_FOLDER, this._sha1), this);
+        if (!exists(getSha1())) {
+            Durable.write(Utils.join(BLOB_FOLDER, getSha1()), encode());
+        }
     }
 
     /**
-     * Write the content of blob to a file.
+     * Write the content of blob to a file, streaming it from the
+     * stored object and creating any missing parent directories.
      * @param file File to output
      */
     public void write(File file) {
-        Utils.writeContents(file, _content);
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        File dir = file.getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        copyTo(file);
+    }
+
+    /**
+     * Write the content of blob to FILE, whose directory must exist.
+     * Contents stored uncompressed are copied from the object to the
+     * file by the system, without passing through the heap; others are
+     * decoded and streamed.
+     * @param file File to output
+     */
+    void copyTo(File file) {
+        try (FileChannel out = FileChannel.open(file.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (_content == null && transferTo(out)) {
+                return;
+            }
+            try (InputStream in = open()) {
+                byte[] buf = new byte[CHUNK];
+                for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                    ByteBuffer chunk = ByteBuffer.wrap(buf, 0, n);
+                    while (chunk.hasRemaining()) {
+                        out.write(chunk);
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copy the contents of this stored blob to OUT and return true if
+     *  they are stored uncompressed, or else return false. */
+    private boolean transferTo(FileChannel out) throws IOException {
+        File blobFile = Utils.join(BLOB_FOLDER, _sha1);
+        if (!blobFile.exists()) {
+            return Pack.transferBlob(_sha1, out);
+        }
+        try (FileChannel in = FileChannel.open(blobFile.toPath())) {
+            return transferStored(in, 0, out);
+        }
+    }
+
+    /**
+     * Copy the contents of the encoded blob at position START of IN to
+     * OUT with FileChannel.transferTo and return true if they are
+     * stored uncompressed, or else copy nothing and return false.
+     */
+    static boolean transferStored(FileChannel in, long start,
+                                  FileChannel out) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(HEADER_MAX);
+        in.read(head, start);
+        ByteArrayInputStream raw = new ByteArrayInputStream(
+                head.array(), 0, head.position());
+        Header header = new Header(raw);
+        if (header.codec != STORE) {
+            return false;
+        }
+        long from = start + head.position() - raw.available();
+        for (long done = 0; done < header.size; ) {
+            long n = in.transferTo(from + done, header.size - done, out);
+            if (n <= 0) {
+                throw Utils.error("Truncated blob.");
+            }
+            done += n;
+        }
+        return true;
+    }
+
+    /** Return a stream over the contents of the blob. */
+    public InputStream open() throws IOException {
+        if (_content != null) {
+            return new ByteArrayInputStream(_content);
+        }
+        File blobFile = Utils.join(BLOB_FOLDER, _sha1);
+        if (!blobFile.exists()) {
+            InputStream packed = Pack.openBlob(_sha1);
+            if (packed != null) {
+                return packed;
+            }
+        }
+        return contents(new BufferedInputStream(
+                Files.newInputStream(blobFile.toPath()), CHUNK));
+    }
+
+    /** Return the number of bytes in the contents of the blob. */
+    public long size() {
+        if (_content != null) {
+            return _content.length;
+        }
+        File blobFile = Utils.join(BLOB_FOLDER, _sha1);
+        try {
+            if (!blobFile.exists()) {
+                long size = Pack.blobSize(_sha1);
+                if (size >= 0) {
+                    return size;
+                }
+            }
+            try (InputStream raw = Files.newInputStream(blobFile.toPath())) {
+                return storedSize(raw);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
-    /** return the content.*/
+    /** Return the content, reading the whole blob into memory. Only
+     *  for callers that need the bytes, such as merge. */
     public byte[] getContent() {
+        if (_content == null) {
+            try (InputStream in = open()) {
+                _content = in.readAllBytes();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            ObjectCache.get().reweigh(_sha1, this, _content.length);
+        }
         return _content;
     }
+
+    /** Return the header of an object holding SIZE bytes of contents
+     *  encoded with CODEC. */
+    private static byte[] header(int codec, long size) {
+        Codec.Encoder out = new Codec.Encoder(TAG, VERSION);
+        out.writeByte(codec);
+        out.writeVarint(size);
+        return out.toByteArray();
+    }
+
+    /** Return the size of the contents of the encoded blob at the
+     *  front of RAW. */
+    static long storedSize(InputStream raw) throws IOException {
+        return new Header(raw).size;
+    }
+
+    /** Return a stream over the contents of the encoded blob read
+     *  from RAW, after checking its header. RAW is closed along with
+     *  the result. */
+    static InputStream contents(InputStream raw) throws IOException {
+        try {
+            return new Header(raw).contents(raw);
+        } catch (GitletException excp) {
+            raw.close();
+            throw excp;
+        }
+    }
+
+    /** The fields at the front of a stored blob. */
+    private static class Header {
+        /** Reads the header at the front of RAW, leaving RAW at the
+         *  start of the contents. */
+        Header(InputStream raw) throws IOException {
+            int tag = raw.read();
+            int version = raw.read();
+            if (tag != TAG || version <= 0 || version > VERSION) {
+                throw Utils.error("Not a gitlet blob of a known version.");
+            }
+            codec = version == 1 ? STORE : raw.read();
+            size = Codec.readVarint(raw);
+            if (codec != STORE && codec != DEFLATE) {
+                throw Utils.error("Unknown blob codec %d.", codec);
+            }
+        }
+
+        /** Return a stream decoding the contents that follow this
+         *  header in RAW. */
+        InputStream contents(InputStream raw) {
+            return codec == DEFLATE ? new InflaterInputStream(raw) : raw;
+        }
+
+        /** Codec of the contents. */
+        private final int codec;
+        /** Number of bytes of contents. */
+        private final long size;
+    }
+
     @Override
     public boolean equals(Object o) {
 
@@ -64,13 +498,22 @@ public class Blob implements Serializable {
         }
 
         Blob c = (Blob) o;
-        return Arrays.equals(c._content, _content);
+        return c.getSha1().equals(getSha1());
     }
     @Override
     public int hashCode() {
-        return Integer.parseInt(_sha1);
+        return Integer.parseInt(getSha1().substring(0, 7), 16);
+    }
+
+    /** Return sha1 of the blob. */
+    public String getSha1() {
+        if (_sha1 == null) {
+            _sha1 = Utils.sha1(_content);
+        }
+        return _sha1;
     }
-    /** contents of the blob stored in byte array type.*/
+    /** contents of the blob stored in byte array type, or null if they
+     *  have not been read from disk. */
     private byte[] _content;
     /** sha1 value of the blob.*/
     private String _sha1;
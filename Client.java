@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/** A thin front end for gitlet: it hands its command to the daemon of
+ *  the repository in the current directory, if one is running, and
+ *  copies back what the command prints, so that the command runs in a
+ *  process whose classes are loaded and compiled and whose caches are
+ *  warm. With no daemon to take the command it runs it itself, just
+ *  as Main would. The client loads no other class of gitlet unless it
+ *  has to run the command itself, so it starts up quickly, the more so
+ *  from a class data sharing archive (see Daemon).
+ *  Usage: java gitlet.Client ARGS, with the ARGS of Main.
+ *  @author Chris Wang
+ */
+class Client {
+
+    /** The directory of the repository, as Main.CWD names it. */
+    static final String DIR = System.getProperty("gitlet.dir", ".");
+    /** The socket of the daemon of the repository in DIR. */
+    static final Path SOCKET = Paths.get(DIR, ".gitlet", "daemon.sock");
+    /** Kind of a reply frame holding bytes for the standard output. */
+    static final int OUT = 1;
+    /** Kind of a reply frame holding bytes for the standard error. */
+    static final int ERR = 2;
+    /** Kind of the last reply frame, holding the exit status. */
+    static final int DONE = 0;
+    /** Exit status with which the daemon declines a command. */
+    static final int REFUSED = -1;
+
+    /** Run the command ARGS through the daemon, or else here. */
+    public static void main(String... args) {
+        int status = args.length == 0 ? REFUSED
+            : run(args, System.out, System.err);
+        if (status == REFUSED) {
+            Main.main(args);
+        } else {
+            System.exit(status);
+        }
+    }
+
+    /** Return the absolute path of DIR, by which a daemon knows the
+     *  clients of its own repository. */
+    static String home() {
+        return Paths.get(DIR).toAbsolutePath().normalize().toString();
+    }
+
+    /** Run the command ARGS through the daemon, as the environment of
+     *  this process asks, copying what it prints to OUT and ERR, and
+     *  return its exit status, or REFUSED if no daemon runs it. */
+    static int run(String[] args, OutputStream out, OutputStream err) {
+        return run(args, System.getenv("GITLET_FSYNC"),
+                   System.getenv("GITLET_TRACE") != null, out, err);
+    }
+
+    /** Run the command ARGS through the daemon at the level of
+     *  durability named FSYNC, or the default if it is null, and
+     *  tracing if TRACE, copying what it prints to OUT and ERR, and
+     *  return its exit status, or REFUSED if no daemon runs it. A
+     *  request is the directory of the client, FSYNC or "", TRACE and
+     *  the arguments; the reply is a sequence of frames, each a kind
+     *  and a length followed by that many bytes of output, ended by a
+     *  DONE frame and the exit status. */
+    static int run(String[] args, String fsync, boolean trace,
+                   OutputStream out, OutputStream err) {
+        SocketChannel ch;
+        try {
+            ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+            ch.connect(UnixDomainSocketAddress.of(SOCKET));
+        } catch (IOException excp) {
+            return REFUSED;
+        }
+        try (ch) {
+            DataOutputStream request = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(ch)));
+            request.writeUTF(home());
+            request.writeUTF(fsync == null ? "" : fsync);
+            request.writeBoolean(trace);
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+            DataInputStream reply = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(ch),
+                                            1 << 16));
+            byte[] buf = new byte[1 << 16];
+            for (int kind = reply.readByte(); kind != DONE;
+                 kind = reply.readByte()) {
+                OutputStream to = kind == ERR ? err : out;
+                for (int n = reply.readInt(); n > 0; ) {
+                    int chunk = Math.min(n, buf.length);
+                    reply.readFully(buf, 0, chunk);
+                    to.write(buf, 0, chunk);
+                    n -= chunk;
+                }
+            }
+            int status = reply.readInt();
+            out.flush();
+            err.flush();
+            return status;
+        } catch (EOFException excp) {
+            System.err.println("The gitlet daemon stopped.");
+            return 1;
+        } catch (IOException excp) {
+            System.err.println("The gitlet daemon failed: "
+                    + excp.getMessage());
+            return 1;
+        }
+    }
+}
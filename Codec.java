@@ -0,0 +1,252 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Hand-written binary encoding used for the objects gitlet stores.
+ *  Every object starts with a one-byte tag and a one-byte format
+ *  version; lengths and counts are unsigned LEB128 varints and SHA-1
+ *  ids are stored as their raw 20 bytes.
+ *  @author Chris Wang
+ */
+class Codec {
+
+    /** Number of bytes in a raw SHA-1 id. */
+    static final int ID_BYTES = 20;
+
+    /** An append-only byte buffer that objects encode themselves into. */
+    static class Encoder {
+
+        /** An encoder whose object starts with TAG and VERSION. */
+        Encoder(int tag, int version) {
+            _buf = new byte[64];
+            writeByte(tag);
+            writeByte(version);
+        }
+
+        /** Append the low eight bits of B. */
+        void writeByte(int b) {
+            ensure(1);
+            _buf[_size++] = (byte) b;
+        }
+
+        /** Append the non-negative V as a varint. */
+        void writeVarint(long v) {
+            ensure(10);
+            while ((v & ~0x7fL) != 0) {
+                _buf[_size++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            _buf[_size++] = (byte) v;
+        }
+
+        /** Append BYTES preceded by their length. */
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, _buf, _size, bytes.length);
+            _size += bytes.length;
+        }
+
+        /** Append S as length-prefixed UTF-8. */
+        void writeString(String s) {
+            int n = s.length();
+            for (int i = 0; i < n; i += 1) {
+                if (s.charAt(i) >= 0x80) {
+                    writeBytes(s.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+            }
+            writeVarint(n);
+            ensure(n);
+            for (int i = 0; i < n; i += 1) {
+                _buf[_size++] = (byte) s.charAt(i);
+            }
+        }
+
+        /** Append the 40-digit hex id ID as 20 raw bytes. */
+        void writeId(String id) {
+            ensure(ID_BYTES);
+            toBytes(id, _buf, _size);
+            _size += ID_BYTES;
+        }
+
+        /** Return the encoded bytes. */
+        byte[] toByteArray() {
+            return Arrays.copyOf(_buf, _size);
+        }
+
+        /** Make room for N more bytes. */
+        private void ensure(int n) {
+            if (_size + n > _buf.length) {
+                _buf = Arrays.copyOf(_buf,
+                        Math.max(_buf.length * 2, _size + n));
+            }
+        }
+
+        /** Encoded bytes so far. */
+        private byte[] _buf;
+        /** Number of bytes used in _buf. */
+        private int _size;
+    }
+
+    /** A cursor over an encoded object. Reads straight out of the
+     *  backing array, so decoding allocates only the values returned. */
+    static class Decoder {
+
+        /** A decoder over BYTES, which must hold an object with tag
+         *  TAG. Fails unless its version is at most MAXVERSION. */
+        Decoder(byte[] bytes, int tag, int maxVersion) {
+            _buf = bytes;
+            if (bytes.length < 2 || (bytes[0] & 0xff) != tag) {
+                throw Utils.error("Not a gitlet object of type '%c'.",
+                        (char) tag);
+            }
+            _version = bytes[1] & 0xff;
+            if (_version == 0 || _version > maxVersion) {
+                throw Utils.error("Unsupported object version %d.",
+                        _version);
+            }
+            _pos = 2;
+        }
+
+        /** Return the format version of the object. */
+        int version() {
+            return _version;
+        }
+
+        /** Return the next byte as an unsigned value. */
+        int readByte() {
+            check(1);
+            return _buf[_pos++] & 0xff;
+        }
+
+        /** Return the next varint. */
+        long readVarint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw Utils.error("Corrupt varint in gitlet object.");
+        }
+
+        /** Return the next varint, which must fit in an int. */
+        int readLength() {
+            long n = readVarint();
+            if (n > Integer.MAX_VALUE) {
+                throw Utils.error("Corrupt length in gitlet object.");
+            }
+            return (int) n;
+        }
+
+        /** Return the next length-prefixed byte array. */
+        byte[] readBytes() {
+            int n = readLength();
+            check(n);
+            byte[] result = Arrays.copyOfRange(_buf, _pos, _pos + n);
+            _pos += n;
+            return result;
+        }
+
+        /** Copy the next LEN bytes into DST starting at OFF. */
+        void readRaw(byte[] dst, int off, int len) {
+            check(len);
+            System.arraycopy(_buf, _pos, dst, off, len);
+            _pos += len;
+        }
+
+        /** Return the next length-prefixed UTF-8 string. */
+        String readString() {
+            int n = readLength();
+            check(n);
+            String result = new String(_buf, _pos, n,
+                    StandardCharsets.UTF_8);
+            _pos += n;
+            return result;
+        }
+
+        /** Return the next raw id as 40 hex digits. */
+        String readId() {
+            check(ID_BYTES);
+            String id = Utils.hex(Arrays.copyOfRange(_buf, _pos,
+                                                     _pos + ID_BYTES));
+            _pos += ID_BYTES;
+            return id;
+        }
+
+        /** Fail unless N more bytes are available. */
+        private void check(int n) {
+            if (n < 0 || _pos + n > _buf.length) {
+                throw Utils.error("Truncated gitlet object.");
+            }
+        }
+
+        /** The encoded object. */
+        private final byte[] _buf;
+        /** Position of the next unread byte. */
+        private int _pos;
+        /** Format version of the object. */
+        private final int _version;
+    }
+
+    /** Return the 40-digit hex id ID as 20 raw bytes. */
+    static byte[] toBytes(String id) {
+        byte[] result = new byte[ID_BYTES];
+        toBytes(id, result, 0);
+        return result;
+    }
+
+    /** Store the 40-digit hex id ID as 20 raw bytes in DST at OFF. */
+    static void toBytes(String id, byte[] dst, int off) {
+        if (id.length() != 2 * ID_BYTES) {
+            throw Utils.error("Malformed id.");
+        }
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            dst[off + i] = (byte) ((digit(id.charAt(2 * i)) << 4)
+                    | digit(id.charAt(2 * i + 1)));
+        }
+    }
+
+    /** Return the varint read from the front of IN. */
+    static long readVarint(InputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw Utils.error("Truncated gitlet object.");
+            }
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw Utils.error("Corrupt varint in gitlet object.");
+    }
+
+    /** Return the value of the hex digit C. */
+    private static int digit(char c) {
+        int d = c < DIGITS.length ? DIGITS[c] : -1;
+        if (d < 0) {
+            throw Utils.error("Malformed id.");
+        }
+        return d;
+    }
+
+    /** Values of the hex digits, indexed by character, or -1. */
+    private static final byte[] DIGITS = new byte['g'];
+
+    static {
+        Arrays.fill(DIGITS, (byte) -1);
+        for (int i = 0; i < 16; i += 1) {
+            char c = Character.forDigit(i, 16);
+            DIGITS[c] = (byte) i;
+            DIGITS[Character.toUpperCase(c)] = (byte) i;
+        }
+    }
+}
@@ -1,16 +1,28 @@
 package gitlet;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
 
-/** Commit object contains message, reference,
- * parents, and time.
+/** Commit object contains message, root tree,
+ * parents, and time. Parents and the tree are referred to by their
+ * SHA-1 ids and only read from disk when asked for, so a commit
+ * file stays small regardless of the length of the history or the
+ * size of the working directory. Commits of version 1 list every
+ * file and blob id instead of naming a tree; they are still read.
  *  @author Chris Wang
  */
 
 public class Commit implements Serializable {
+    /** Leading byte of an encoded commit. */
+    static final int TAG = 'c';
+    /** Current format version of an encoded commit. */
+    static final int VERSION = 2;
     /** Folder that stores all commits.*/
     static final File COMMIT_FOLDER = Utils.join(Main.MAIN_FOLDER, "commits");
     /** Floder that store current commit.*/
@@ -19,63 +31,191 @@ public class Commit implements Serializable {
     /**
      * Creates a commit object with the specified parameters.
      * @param message Message of the commit
-     * @param reference Reference of the commit
-     * @param parent Parent of the commit
+     * @param reference Map from file name to blob id
+     * @param parent SHA-1 of the parent of the commit
      * @param isInitial if it's the first commit
-     * @param mergeInParent Merge-in parent of the commit
+     * @param mergeInParent SHA-1 of the merge-in parent of the commit
      */
-    public Commit(String message, HashMap<String, Blob> reference,
-                  Commit parent, Boolean isInitial, Commit mergeInParent) {
-        _message = message;
+    public Commit(String message, HashMap<String, String> reference,
+                  String parent, Boolean isInitial, String mergeInParent) {
+        this(message, reference, parent, mergeInParent,
+                isInitial ? new Date(0)
+                        : new Date(new Timestamp(
+                                System.currentTimeMillis()).getTime()));
+    }
+
+    /**
+     * Creates a commit made at a known TIME, used when rewriting
+     * existing history.
+     * @param message Message of the commit
+     * @param reference Map from file path to blob id
+     * @param parent SHA-1 of the parent of the commit
+     * @param mergeInParent SHA-1 of the merge-in parent of the commit
+     * @param time Time of the commit
+     */
+    Commit(String message, HashMap<String, String> reference,
+           String parent, String mergeInParent, Date time) {
+        this(message, Tree.write(reference), parent, mergeInParent, time);
         _reference = reference;
-        _parent = parent;
-        Timestamp time = new Timestamp(System.currentTimeMillis());
+    }
 
-        _isInitial = isInitial;
-        if (isInitial) {
-            _time = new Date(0);
-        } else {
-            _time = new Date(time.getTime());
-        }
+    /**
+     * Creates a commit of the stored tree TREE.
+     * @param message Message of the commit
+     * @param tree SHA-1 of the root tree of the commit
+     * @param parent SHA-1 of the parent of the commit
+     * @param mergeInParent SHA-1 of the merge-in parent of the commit
+     * @param time Time of the commit
+     */
+    Commit(String message, String tree,
+           String parent, String mergeInParent, Date time) {
+        _message = message;
+        _tree = tree;
+        _parent = parent;
         _mergeInParent = mergeInParent;
+        _time = time;
+        _sha1 = Utils.sha1(encode());
+    }
 
-        _sha1 = Utils.sha1(Utils.serialize(this));
+    /** A commit to be filled in by decode. */
+    private Commit() {
     }
     /**
-     * a.
+     * Reads in and deserializes a commit from a file
+     * with sha1 SHA1 in COMMIT_FOLDER, or from a pack. A commit already
+     * read in is taken from the ObjectCache.
      *
      * @param sha1 SHA1 value of the commit
      * @return Commit read from file
      */
     public static Commit fromFile(String sha1) {
+        Commit cached = ObjectCache.get().find(sha1, Commit.class);
+        if (cached != null) {
+            return cached;
+        }
         File commitFile = Utils.join(COMMIT_FOLDER, sha1);
-        if (!commitFile.exists()) {
+        byte[] bytes = commitFile.exists() ? Utils.readContents(commitFile)
+            : Pack.readCommit(sha1);
+        if (bytes == null) {
             throw new IllegalArgumentException(
                     "No commit with that sha1 value found ;(");
         }
-        return Utils.readObject(commitFile, Commit.class);
+        Commit commit = decode(bytes);
+        commit._sha1 = sha1;
+        ObjectCache.get().put(sha1, commit, commit.weight());
+        return commit;
+    }
+
+    /**
+     * Return true if a commit with id SHA1 exists, loose or packed.
+     */
+    static boolean exists(String sha1) {
+        return Utils.join(COMMIT_FOLDER, sha1).exists()
+            || Pack.contains(sha1);
+    }
+
+    /**
+     * Return the ids of all commits, loose or packed, in sorted order.
+     */
+    public static List<String> allIds() {
+        TreeSet<String> ids = new TreeSet<String>(Pack.ids(Pack.COMMIT));
+        ids.addAll(Utils.plainFilenamesIn(COMMIT_FOLDER));
+        return new ArrayList<String>(ids);
+    }
+
+    /**
+     * Return the binary encoding of this commit. Its SHA-1 is the id
+     * of the commit.
+     */
+    byte[] encode() {
+        Codec.Encoder out = new Codec.Encoder(TAG, VERSION);
+        out.writeByte((_parent != null ? 1 : 0)
+                | (_mergeInParent != null ? 2 : 0));
+        if (_parent != null) {
+            out.writeId(_parent);
+        }
+        if (_mergeInParent != null) {
+            out.writeId(_mergeInParent);
+        }
+        out.writeVarint(_time.getTime());
+        out.writeString(_message);
+        out.writeId(getTree());
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the commit whose encoding is BYTES. Its id is left unset.
+     * @param bytes Encoded commit
+     */
+    static Commit decode(byte[] bytes) {
+        Codec.Decoder in = new Codec.Decoder(bytes, TAG, VERSION);
+        Commit commit = new Commit();
+        int flags = in.readByte();
+        commit._parent = (flags & 1) != 0 ? in.readId() : null;
+        commit._mergeInParent = (flags & 2) != 0 ? in.readId() : null;
+        commit._time = new Date(in.readVarint());
+        commit._message = in.readString();
+        if (in.version() > 1) {
+            commit._tree = in.readId();
+            return commit;
+        }
+        int n = in.readLength();
+        commit._reference = new HashMap<String, String>(
+                Math.max(16, n * 4 / 3 + 1));
+        for (int i = 0; i < n; i += 1) {
+            String name = in.readString();
+            commit._reference.put(name, in.readId());
+        }
+        return commit;
     }
     /**
      * Saves a commit to a file for future use.
      */
     public void saveCommit() {
-        Utils.writeObject(Utils.join(COMMIT_FOLDER, this._sha1), this);
-        Utils.writeObject(Utils.join(CURRENT_FOLDER, "current"), this);
+        saveObject();
+        CommitGraph.add(this);
+        Durable.writeRef(Utils.join(CURRENT_FOLDER, "current"), _sha1);
+    }
 
+    /**
+     * Saves only the commit object, leaving the current commit alone.
+     */
+    void saveObject() {
+        Durable.write(Utils.join(COMMIT_FOLDER, this._sha1), encode());
+        CommitIndex.add(this._sha1);
+        MessageIndex.add(this);
     }
     @Override
     public String toString() {
-        String time = _time.toString().replace(" PST", "");
-        time += " -0800";
-        if (_mergeInParent != null) {
-            String mergeIDs = _parent._sha1.substring(0, 7)
-                  + " " + _mergeInParent._sha1.substring(0, 7);
-            return String.format("===\ncommit %s\nMerge: %s\nDate: %s\n%s\n",
-                    _sha1, mergeIDs, time, _message);
+        StringBuilder out = new StringBuilder();
+        try {
+            writeLog(out, _sha1, _parent, _mergeInParent, _time, _message);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        return String.format("===\ncommit %s\nDate: %s\n%s\n",
-                _sha1, time, _message);
+        return out.toString();
+    }
 
+    /**
+     * Append the log entry of a commit to OUT piece by piece, as
+     * toString gives it, so that long logs can be streamed.
+     * @param out Destination of the entry
+     * @param id Id of the commit
+     * @param parent Id of its parent
+     * @param merge Id of its merged-in parent, or null
+     * @param time Time of the commit
+     * @param message Message of the commit
+     */
+    static void writeLog(Appendable out, String id, String parent,
+                         String merge, Date time, String message)
+        throws IOException {
+        out.append("===\ncommit ").append(id).append('\n');
+        if (merge != null) {
+            out.append("Merge: ").append(parent, 0, 7).append(' ')
+                .append(merge, 0, 7).append('\n');
+        }
+        out.append("Date: ").append(time.toString().replace(" PST", ""))
+            .append(" -0800\n").append(message).append('\n');
     }
     @Override
     public boolean equals(Object o) {
@@ -106,52 +246,103 @@ public class Commit implements Serializable {
      * @param name Name of the file.
      */
     public Blob getBlob(String name) {
-        return _reference.containsKey(name)
-                ? _reference.get(name) : null;
+        String id = getBlobId(name);
+        return id == null ? null : Blob.fromFile(id);
     }
+
     /**
-     * Return the reference of the commit.
+     * Return the id of the blob of the file, or null if it is not
+     * tracked. Only the trees on its path are read.
+     * @param name Path of the file.
      */
-    public HashMap<String, Blob> getReference() {
+    public String getBlobId(String name) {
+        return _reference != null ? _reference.get(name)
+            : Tree.lookup(_tree, name);
+    }
+
+    /**
+     * Return the reference of the commit, a map from file path
+     * to blob id, reading the whole tree the first time.
+     */
+    public HashMap<String, String> getReference() {
+        if (_reference == null) {
+            _reference = new HashMap<String, String>();
+            Tree.flatten(_tree, "", _reference);
+            ObjectCache.get().reweigh(_sha1, this, weight());
+        }
         return _reference;
     }
 
+    /** Return about how many bytes this commit holds. */
+    private long weight() {
+        long weight = 2L * _message.length();
+        if (_reference != null) {
+            weight += REFERENCE_ENTRY * _reference.size();
+        }
+        return weight;
+    }
+
+    /**
+     * Return the id of the root tree of the commit, storing the tree
+     * first if the commit predates trees.
+     */
+    public String getTree() {
+        if (_tree == null) {
+            _tree = Tree.write(_reference);
+        }
+        return _tree;
+    }
+
     /** Return the parent of this commit. */
     public Commit getParent() {
+        return _parent == null ? null : fromFile(_parent);
+    }
+
+    /** Return the id of the parent of this commit. */
+    public String getParentId() {
         return _parent;
     }
     /** Return the message of the commit. */
     public String getMessage() {
         return _message;
     }
-    /**
-     * set merge-in parent to COMMIT.
-     */
-    public void setMerge(Commit commit) {
-        _mergeInParent = commit;
-    }
     /** Return the merge-in parent. */
     public Commit getMerge() {
+        return _mergeInParent == null ? null : fromFile(_mergeInParent);
+    }
+
+    /** Return the id of the merge-in parent. */
+    public String getMergeId() {
         return _mergeInParent;
     }
 
+    /** Return the time of the commit. */
+    public Date getTime() {
+        return _time;
+    }
+
     /** Return sha1 of the commit. */
     public String getSha1() {
         return _sha1;
     }
 
+    /** Rough weight of one entry of a reference, in bytes: the path,
+     *  the id and the map entry holding them. */
+    private static final int REFERENCE_ENTRY = 200;
+
     /** message of the commit. */
     private String _message;
-    /** reference of the commit. */
-    private HashMap<String, Blob> _reference;
+    /** reference of the commit, file path to blob id, or null until
+     *  it is first asked for. */
+    private HashMap<String, String> _reference;
+    /** SHA-1 of the root tree of this commit. */
+    private String _tree;
     /** time of this commit. */
     private Date _time;
-    /** Parent of this commit. */
-    private Commit _parent;
+    /** SHA-1 of the parent of this commit. */
+    private String _parent;
     /** SHA-1 value of this commit .*/
     private String _sha1;
-    /** If it's is initial commit. */
-    private Boolean _isInitial;
-    /** merge-in parent. */
-    private Commit _mergeInParent;
+    /** SHA-1 of the merge-in parent. */
+    private String _mergeInParent;
 }
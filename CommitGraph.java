@@ -0,0 +1,442 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+
+/** The shape of the history: every commit's parents, generation
+ *  number and time, so that walks over the history need not read any
+ *  commit objects. The file is a tag and version byte followed by one
+ *  fixed-size record per commit, in an order in which parents come
+ *  before their children. A record is the raw id of the commit, the
+ *  positions of its parent and merged-in parent or -1, its generation
+ *  number, which is one more than the largest of its parents', and its
+ *  time. Commits are appended as they are saved; if the file is
+ *  missing or damaged it is rebuilt from the commits themselves.
+ *  Commits are found by id through a second file, an ObjectIndex of
+ *  the ids of the first records of the graph whose column holds their
+ *  positions. The records appended after those it covers are searched
+ *  one by one, and it is rewritten once there are TAIL_LIMIT of them.
+ *  @author Chris Wang
+ */
+class CommitGraph {
+    /** File holding the graph of the repository. */
+    static final File GRAPH_FILE =
+        Utils.join(Main.MAIN_FOLDER, "commit-graph");
+    /** Size of the header of the file. */
+    static final int HEADER = 2;
+    /** File holding the sorted ids of the graph. */
+    static final File IDS_FILE =
+        Utils.join(Main.MAIN_FOLDER, "commit-graph-ids");
+    /** Size of one record. */
+    static final int RECORD = Codec.ID_BYTES + 4 + 4 + 4 + 8;
+    /** Number of records past the id table at which it is rewritten. */
+    static final int TAIL_LIMIT = 256;
+
+    /** The graph stored in FILE, which must exist, with no id table. */
+    CommitGraph(File file) {
+        this(file, null);
+    }
+
+    /** The graph stored in FILE, which must exist, whose first records
+     *  are indexed by the id table IDS, unless that is null, missing or
+     *  damaged. */
+    CommitGraph(File file, File ids) {
+        try (FileChannel ch = FileChannel.open(file.toPath())) {
+            _map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _count = (_map.limit() - HEADER) / RECORD;
+        _ids = ids == null ? null : readIds(ids, _count);
+        _covered = _ids == null ? 0 : _ids.size();
+    }
+
+    /** Drop the graph held in memory, so that it is read afresh when
+     *  next needed. */
+    static void forget() {
+        _graph = null;
+    }
+
+    /** Return the graph of the repository, rebuilding it if need be. */
+    static CommitGraph get() {
+        if (_graph == null) {
+            if (!valid(GRAPH_FILE)) {
+                rebuild();
+            }
+            CommitGraph graph = new CommitGraph(GRAPH_FILE, IDS_FILE);
+            if (graph.size() - graph._covered >= TAIL_LIMIT) {
+                replace(IDS_FILE, graph.ids());
+                graph = new CommitGraph(GRAPH_FILE, IDS_FILE);
+            }
+            _graph = graph;
+        }
+        return _graph;
+    }
+
+    /** Return the position of commit ID in the graph of the
+     *  repository, rebuilding the graph if ID is missing from it. */
+    static int position(String id) {
+        int result = get().find(id);
+        if (result < 0) {
+            rebuild();
+            result = get().find(id);
+        }
+        return result;
+    }
+
+    /** Add COMMIT, which has just been saved, to the graph. */
+    static void add(Commit commit) {
+        if (!valid(GRAPH_FILE)) {
+            rebuild();
+            return;
+        }
+        CommitGraph graph = get();
+        int parent = graph.find(commit.getParentId());
+        int merge = graph.find(commit.getMergeId());
+        if (graph.find(commit.getSha1()) >= 0) {
+            return;
+        }
+        if (parent < 0 && commit.getParentId() != null
+                || merge < 0 && commit.getMergeId() != null) {
+            rebuild();
+            return;
+        }
+        int generation = 1 + Math.max(graph.generation(parent),
+                graph.generation(merge));
+        try (FileOutputStream out = new FileOutputStream(GRAPH_FILE, true)) {
+            out.write(record(commit.getSha1(), parent, merge, generation,
+                    commit.getTime().getTime()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _graph = null;
+    }
+
+    /** Write the graph afresh from the commits in the repository.
+     *  Commits may be renumbered, so this drops any Reachability
+     *  bitmaps. */
+    static void rebuild() {
+        HashMap<String, Commit> commits = new HashMap<String, Commit>();
+        for (String id : Commit.allIds()) {
+            commits.put(id, Commit.fromFile(id));
+        }
+        HashMap<String, Integer> position = new HashMap<String, Integer>();
+        ArrayList<Integer> generations = new ArrayList<Integer>();
+        ArrayList<String> stack = new ArrayList<String>();
+        Main.MAIN_FOLDER.mkdirs();
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp", null, Main.MAIN_FOLDER);
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(TAG);
+                out.write(VERSION);
+                for (String root : commits.keySet()) {
+                    stack.add(root);
+                    while (!stack.isEmpty()) {
+                        String id = stack.get(stack.size() - 1);
+                        if (position.containsKey(id)) {
+                            stack.remove(stack.size() - 1);
+                            continue;
+                        }
+                        Commit c = commits.get(id);
+                        String p = c.getParentId();
+                        String m = c.getMergeId();
+                        if (p != null && !position.containsKey(p)) {
+                            stack.add(p);
+                        } else if (m != null && !position.containsKey(m)) {
+                            stack.add(m);
+                        } else {
+                            stack.remove(stack.size() - 1);
+                            int pi = p == null ? -1 : position.get(p);
+                            int mi = m == null ? -1 : position.get(m);
+                            int gen = 1 + Math.max(
+                                    pi < 0 ? 0 : generations.get(pi),
+                                    mi < 0 ? 0 : generations.get(mi));
+                            position.put(id, generations.size());
+                            generations.add(gen);
+                            out.write(record(id, pi, mi, gen,
+                                    c.getTime().getTime()));
+                        }
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), GRAPH_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            IDS_FILE.delete();
+            Reachability.clear();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+        _graph = null;
+    }
+
+    /** Return the record of commit ID, whose parents are at positions
+     *  PARENT and MERGE, with generation number GENERATION and time
+     *  TIME. */
+    static byte[] record(String id, int parent, int merge, int generation,
+                         long time) {
+        ByteBuffer buf = ByteBuffer.allocate(RECORD);
+        buf.put(Codec.toBytes(id)).putInt(parent).putInt(merge)
+            .putInt(generation).putLong(time);
+        return buf.array();
+    }
+
+    /** Return the header of a graph file. */
+    static byte[] header() {
+        return new byte[] {(byte) TAG, (byte) VERSION};
+    }
+
+    /** Return the number of commits in the graph. */
+    int size() {
+        return _count;
+    }
+
+    /** Return the position of the commit with id ID, or -1 if ID is
+     *  null or not in the graph: by binary search of the id table, or
+     *  failing that among the records it does not cover. A position
+     *  the table gives is checked against the record, in case the
+     *  table was left over from a graph since rebuilt. */
+    int find(String id) {
+        if (id == null) {
+            return -1;
+        }
+        byte[] key = Codec.toBytes(id);
+        if (_ids != null) {
+            int i = _ids.find(key);
+            if (i >= 0) {
+                int pos = _ids.map().getInt(_ids.columns() + 4 * i);
+                if (pos >= 0 && pos < _count && holds(pos, key)) {
+                    return pos;
+                }
+            }
+        }
+        for (int i = _count - 1; i >= _covered; i -= 1) {
+            if (holds(i, key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the contents of an id table of all the commits of the
+     *  graph. */
+    byte[] ids() {
+        Integer[] order = new Integer[_count];
+        for (int i = 0; i < _count; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            for (int k = 0; k < Codec.ID_BYTES; k += 1) {
+                int c = Byte.compareUnsigned(
+                        _map.get(HEADER + a * RECORD + k),
+                        _map.get(HEADER + b * RECORD + k));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        });
+        ArrayList<byte[]> ids = new ArrayList<byte[]>(_count);
+        ByteBuffer positions = ByteBuffer.allocate(4 * _count);
+        for (int i : order) {
+            byte[] id = new byte[Codec.ID_BYTES];
+            _map.get(HEADER + i * RECORD, id);
+            ids.add(id);
+            positions.putInt(i);
+        }
+        return ObjectIndex.encode(ids, positions.array());
+    }
+
+    /** Return true if the record at position I is that of the raw id
+     *  KEY. */
+    private boolean holds(int i, byte[] key) {
+        int base = HEADER + i * RECORD;
+        for (int k = 0; k < Codec.ID_BYTES; k += 1) {
+            if (_map.get(base + k) != key[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the id of the commit at position I. */
+    String id(int i) {
+        byte[] id = new byte[Codec.ID_BYTES];
+        _map.get(HEADER + i * RECORD, id);
+        return Utils.hex(id);
+    }
+
+    /** Return the position of the parent of commit I, or -1. */
+    int parent(int i) {
+        return _map.getInt(HEADER + i * RECORD + Codec.ID_BYTES);
+    }
+
+    /** Return the position of the merged-in parent of commit I, or -1. */
+    int merge(int i) {
+        return _map.getInt(HEADER + i * RECORD + Codec.ID_BYTES + 4);
+    }
+
+    /** Return the generation number of commit I, or 0 if I is -1. */
+    int generation(int i) {
+        return i < 0 ? 0
+            : _map.getInt(HEADER + i * RECORD + Codec.ID_BYTES + 8);
+    }
+
+    /** Return the time of commit I in milliseconds. */
+    long time(int i) {
+        return _map.getLong(HEADER + i * RECORD + Codec.ID_BYTES + 12);
+    }
+
+    /** Return the merge base of commits CURRENT and OTHER: of the
+     *  common ancestors, the one met first by a breadth-first walk back
+     *  from CURRENT that takes parents before merged-in parents. The
+     *  ancestors of OTHER are found lazily, newest generation first:
+     *  every path from OTHER to a commit C passes only through commits
+     *  of higher generation, so once those are expanded, C is an
+     *  ancestor of OTHER exactly if it has been reached. */
+    int mergeBase(int current, int other) {
+        BitSet reached = new BitSet(_count);
+        PriorityQueue<Integer> pending = new PriorityQueue<Integer>(
+            (a, b) -> Integer.compare(generation(b), generation(a)));
+        reached.set(other);
+        pending.add(other);
+        return search(current, c -> {
+            int floor = generation(c);
+            while (!pending.isEmpty()
+                    && generation(pending.peek()) > floor) {
+                int a = pending.poll();
+                for (int k = 0; k < 2; k += 1) {
+                    int p = k == 0 ? parent(a) : merge(a);
+                    if (p >= 0 && !reached.get(p)) {
+                        reached.set(p);
+                        pending.add(p);
+                    }
+                }
+            }
+            return reached.get(c);
+        });
+    }
+
+    /** Return the merge base, as above, of commit CURRENT and the
+     *  commit whose ancestors are ANCESTORS. */
+    int mergeBase(int current, BitSet ancestors) {
+        return search(current, ancestors::get);
+    }
+
+    /** Return the first commit met by a breadth-first walk back from
+     *  START, parents before merged-in parents, for which TARGET is
+     *  true, or -1. */
+    private int search(int start, IntPredicate target) {
+        BitSet seen = new BitSet(_count);
+        int[] queue = new int[16];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        seen.set(start);
+        while (head < tail) {
+            int c = queue[head++];
+            if (target.test(c)) {
+                return c;
+            }
+            if (tail + 2 > queue.length) {
+                queue = Arrays.copyOf(queue, queue.length * 2);
+            }
+            for (int k = 0; k < 2; k += 1) {
+                int p = k == 0 ? parent(c) : merge(c);
+                if (p >= 0 && !seen.get(p)) {
+                    seen.set(p);
+                    queue[tail++] = p;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Return true if FILE holds a graph that can be read. */
+    private static boolean valid(File file) {
+        long size = file.length();
+        if (size < HEADER || (size - HEADER) % RECORD != 0) {
+            return false;
+        }
+        byte[] head = new byte[HEADER];
+        try (InputStream in =
+                 Files.newInputStream(file.toPath())) {
+            return in.read(head) == HEADER && head[0] == TAG
+                && head[1] == VERSION;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Return the id table in FILE of a graph of COUNT commits, or
+     *  null if it is missing, damaged, or covers more commits than
+     *  there are. */
+    private static ObjectIndex readIds(File file, int count) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            ObjectIndex ids = new ObjectIndex(file);
+            if (ids.size() < 0 || ids.size() > count
+                    || ids.map().limit() != ids.columns() + 4 * ids.size()) {
+                return null;
+            }
+            return ids;
+        } catch (GitletException excp) {
+            return null;
+        }
+    }
+
+    /** Replace the contents of FILE with DATA at once. */
+    private static void replace(File file, byte[] data) {
+        try {
+            File tmp = File.createTempFile("tmp", null, Main.MAIN_FOLDER);
+            try {
+                Utils.writeContents(tmp, data);
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmp.delete();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Leading byte of a graph file. */
+    private static final int TAG = 'g';
+    /** Current format version of graph files. */
+    private static final int VERSION = 1;
+
+    /** The graph of the repository, or null if it has not been read
+     *  since it last changed. */
+    private static CommitGraph _graph;
+
+    /** The contents of the graph file. */
+    private final MappedByteBuffer _map;
+    /** Number of commits in the graph. */
+    private final int _count;
+    /** Table of the ids of the first _covered commits, or null. */
+    private final ObjectIndex _ids;
+    /** Number of commits the id table covers. */
+    private final int _covered;
+}
@@ -0,0 +1,125 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/** A persistent index of the ids of every commit, loose or packed, so
+ *  that abbreviated ids can be resolved without listing the commits
+ *  folder. The bulk of the ids are kept in an ObjectIndex; ids of
+ *  commits made since it was written are appended to a log of raw ids,
+ *  which is folded into the index once it holds LOG_LIMIT of them. The
+ *  index is only a cache: if it is missing it is rebuilt from the
+ *  objects themselves.
+ *  @author Chris Wang
+ */
+class CommitIndex {
+    /** File holding the sorted index. */
+    static final File INDEX_FILE =
+        Utils.join(Main.MAIN_FOLDER, "commit-index");
+    /** File holding the ids added since the index was written. */
+    static final File LOG_FILE =
+        Utils.join(Main.MAIN_FOLDER, "commit-index.log");
+    /** Number of logged ids at which the log is folded into the index. */
+    static final int LOG_LIMIT = 1024;
+
+    /** Record that the commit with id ID has been saved. */
+    static void add(String id) {
+        if (!INDEX_FILE.exists()) {
+            rebuild();
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(LOG_FILE, true)) {
+            out.write(Codec.toBytes(id));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (LOG_FILE.length() >= (long) LOG_LIMIT * Codec.ID_BYTES) {
+            compact();
+        }
+    }
+
+    /** Return the ids of existing commits that begin with PREFIX, in
+     *  sorted order and at most LIMIT of them. */
+    static List<String> resolve(String prefix, int limit) {
+        ArrayList<String> result = new ArrayList<String>();
+        if (prefix.isEmpty()) {
+            return result;
+        }
+        if (!INDEX_FILE.exists()) {
+            rebuild();
+        }
+        String key = prefix.toLowerCase();
+        TreeSet<String> found = new TreeSet<String>(
+                new ObjectIndex(INDEX_FILE).resolve(key, limit));
+        for (String id : logged()) {
+            if (id.startsWith(key)) {
+                found.add(id);
+            }
+        }
+        for (String id : found) {
+            if (result.size() < limit && Commit.exists(id)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Write the index afresh from the commits in the repository. */
+    static void rebuild() {
+        write(new TreeSet<String>(Commit.allIds()));
+    }
+
+    /** Fold the logged ids into the index. */
+    private static void compact() {
+        ObjectIndex index = new ObjectIndex(INDEX_FILE);
+        TreeSet<String> ids = new TreeSet<String>(logged());
+        for (int i = 0; i < index.size(); i += 1) {
+            ids.add(index.idAt(i));
+        }
+        write(ids);
+    }
+
+    /** Replace the index with one of IDS and empty the log. */
+    private static void write(TreeSet<String> ids) {
+        ArrayList<byte[]> raw = new ArrayList<byte[]>(ids.size());
+        for (String id : ids) {
+            raw.add(Codec.toBytes(id));
+        }
+        try {
+            File tmp = File.createTempFile("tmp", null, Main.MAIN_FOLDER);
+            try {
+                Utils.writeContents(tmp,
+                        ObjectIndex.encode(raw, new byte[0]));
+                Files.move(tmp.toPath(), INDEX_FILE.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmp.delete();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        LOG_FILE.delete();
+    }
+
+    /** Return the ids in the log. */
+    private static List<String> logged() {
+        ArrayList<String> result = new ArrayList<String>();
+        if (LOG_FILE.exists()) {
+            byte[] log = Utils.readContents(LOG_FILE);
+            for (int i = 0; i + Codec.ID_BYTES <= log.length;
+                 i += Codec.ID_BYTES) {
+                result.add(Utils.hex(Arrays.copyOfRange(log, i,
+                        i + Codec.ID_BYTES)));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/** A process that stays up to run the commands of one repository, so
+ *  that each command is spared starting a JVM and reading the state
+ *  of the repository afresh. It listens on the socket Client.SOCKET
+ *  in the .gitlet directory and runs the commands the Client hands
+ *  it one at a time, in this process, sending back what they print.
+ *  The ObjectCache, the CommitGraph, the packs and the MessageIndex
+ *  stay in memory from one command to the next. Commands keep them up
+ *  to date as they change the repository; if anything else changes
+ *  the files behind them, they are dropped and read afresh. Each
+ *  command runs at the level of durability and with the tracing that
+ *  GITLET_FSYNC and GITLET_TRACE ask for in the environment of its
+ *  client, not of the daemon.
+ *
+ *  Start it with "gitlet daemon" in the directory of the repository
+ *  and stop it with "gitlet daemon stop". The client starts fastest
+ *  from a class data sharing archive of the classes it loads, which
+ *  "make cds" writes, made once from a jar of gitlet with
+ *      java -XX:ArchiveClassesAtExit=gitlet.jsa gitlet.Client status
+ *  and used with
+ *      java -XX:SharedArchiveFile=gitlet.jsa gitlet.Client ARGS.
+ *  The same works for Main when no daemon is running.
+ *  @author Chris Wang
+ */
+class Daemon {
+
+    /** Thrown by Main.exit to end a command the daemon runs. */
+    static class Exit extends RuntimeException {
+        /** A command's exit. */
+        Exit() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** Return true if this process is the daemon. */
+    static boolean serving() {
+        return _serving;
+    }
+
+    /** Serve the repository in the current directory, or, if ARGS is
+     *  {"daemon", "stop"}, stop its daemon. */
+    static void main(String... args) {
+        if (args.length > 2 || args.length == 2 && !args[1].equals("stop")) {
+            System.out.println("Incorrect operands.");
+            Main.exit();
+        }
+        if (!Main.MAIN_FOLDER.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            Main.exit();
+        }
+        if (args.length == 1) {
+            serve();
+        } else if (_serving) {
+            _stopping = true;
+        } else if (Client.run(args, System.out, System.err)
+                   == Client.REFUSED) {
+            System.out.println("No daemon is running.");
+        }
+    }
+
+    /** Run the commands that clients send until told to stop. */
+    private static void serve() {
+        if (_serving || Client.run(new String[0],
+                OutputStream.nullOutputStream(),
+                OutputStream.nullOutputStream()) != Client.REFUSED) {
+            System.out.println("A daemon is already running.");
+            Main.exit();
+        }
+        File socket = Client.SOCKET.toFile();
+        socket.delete();
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        String home = Client.home();
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(Client.SOCKET));
+            _serving = true;
+            _stamp = stamp();
+            while (!_stopping) {
+                try (SocketChannel ch = server.accept()) {
+                    handle(ch, home);
+                } catch (IOException excp) {
+                    Main.trace("daemon: %s", excp.getMessage());
+                } finally {
+                    System.setOut(out);
+                    System.setErr(err);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            _serving = false;
+            _stopping = false;
+            socket.delete();
+        }
+    }
+
+    /** Run the command a client sends over CH, if it was sent from the
+     *  directory HOME, and send back its output and exit status. A
+     *  request with no arguments only asks whether the daemon is up. */
+    private static void handle(SocketChannel ch, String home)
+        throws IOException {
+        DataInputStream request = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(ch)));
+        DataOutputStream reply = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(ch),
+                                         1 << 16));
+        String dir = request.readUTF();
+        int level = Durable.level(request.readUTF());
+        boolean trace = request.readBoolean();
+        String[] args = new String[request.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = request.readUTF();
+        }
+        int status = Client.REFUSED;
+        if (dir.equals(home)) {
+            status = args.length == 0 ? 0
+                : run(args, level, trace, reply);
+        }
+        reply.writeByte(Client.DONE);
+        reply.writeInt(status);
+        reply.flush();
+    }
+
+    /** Run the command ARGS at the level of durability LEVEL, tracing
+     *  if TRACE, as the environment of the client asks, sending what it
+     *  prints as frames on REPLY, and return its exit status. */
+    private static int run(String[] args, int level, boolean trace,
+                           DataOutputStream reply) {
+        String stamp = stamp();
+        if (!stamp.equals(_stamp)) {
+            CommitGraph.forget();
+            MessageIndex.forget();
+            Pack.forget();
+            ObjectCache.get().clear();
+        }
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                new Frames(reply, Client.OUT), 1 << 13));
+        PrintStream err = new PrintStream(new BufferedOutputStream(
+                new Frames(reply, Client.ERR), 1 << 13));
+        System.setOut(out);
+        System.setErr(err);
+        int ownLevel = Durable.level();
+        boolean ownTrace = Main.tracing();
+        Durable.setLevel(level);
+        Main.setTrace(trace);
+        int status = 0;
+        try {
+            Main.main(args);
+        } catch (Exit excp) {
+            status = 0;
+        } catch (RuntimeException | Error excp) {
+            excp.printStackTrace();
+            status = 1;
+        } finally {
+            Durable.setLevel(ownLevel);
+            Main.setTrace(ownTrace);
+        }
+        out.flush();
+        err.flush();
+        _stamp = stamp();
+        return status;
+    }
+
+    /** Return a summary of the sizes and times of the files behind the
+     *  state kept in memory, which changes if they do. */
+    private static String stamp() {
+        ByteArrayOutputStream stamp = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(stamp);
+        for (File file : new File[] {CommitGraph.GRAPH_FILE,
+                                     CommitGraph.IDS_FILE,
+                                     MessageIndex.COLUMN_FILE,
+                                     MessageIndex.INDEX_FILE}) {
+            out.printf("%d %d%n", file.length(), file.lastModified());
+        }
+        List<String> packs = Utils.plainFilenamesIn(Pack.PACK_FOLDER);
+        out.println(packs);
+        return stamp.toString();
+    }
+
+    /** A stream that sends what is written to it as frames of one
+     *  kind. */
+    private static class Frames extends OutputStream {
+        /** A stream sending frames of kind KIND on OUT. */
+        Frames(DataOutputStream out, int kind) {
+            _out = out;
+            _kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                _out.writeByte(_kind);
+                _out.writeInt(len);
+                _out.write(b, off, len);
+            }
+        }
+
+        /** Stream the frames go to. */
+        private final DataOutputStream _out;
+        /** Kind of the frames. */
+        private final int _kind;
+    }
+
+    /** True while this process serves as the daemon. */
+    private static boolean _serving;
+    /** True once the daemon has been told to stop. */
+    private static boolean _stopping;
+    /** Stamp of the files behind the state in memory as the last
+     *  command left them. */
+    private static String _stamp;
+}
@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.util.Arrays;
+
+/** Binary deltas between two versions of a file, used to store one
+ *  blob in a pack as a list of edits to another. A delta is the
+ *  varint lengths of the base and the target followed by
+ *  instructions, each either COPY, a varint offset and a varint length
+ *  of bytes to take from the base, or INSERT, a varint length and that
+ *  many literal bytes.
+ *  @author Chris Wang
+ */
+class Delta {
+
+    /** Instruction that copies a run of the base. */
+    static final int COPY = 1;
+    /** Instruction that inserts literal bytes. */
+    static final int INSERT = 0;
+    /** Length of the blocks of the base that are indexed, and so the
+     *  shortest run that is copied rather than inserted. */
+    static final int WINDOW = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 0x01000193;
+
+    /** Return a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        Codec.Encoder out = new Codec.Encoder(TAG, VERSION);
+        out.writeVarint(base.length);
+        out.writeVarint(target.length);
+        int[] table = index(base);
+        int mask = table.length - 1;
+        int power = 1;
+        for (int i = 0; i < WINDOW; i += 1) {
+            power *= PRIME;
+        }
+        int pending = 0;
+        int i = 0;
+        int h = target.length >= WINDOW ? hash(target, 0) : 0;
+        while (i + WINDOW <= target.length) {
+            int p = table.length == 0 ? -1 : table[h & mask] - 1;
+            if (p >= 0 && regionMatches(base, p, target, i, WINDOW)) {
+                int len = WINDOW;
+                while (p + len < base.length && i + len < target.length
+                       && base[p + len] == target[i + len]) {
+                    len += 1;
+                }
+                while (pending > 0 && p > 0
+                       && base[p - 1] == target[i - 1]) {
+                    p -= 1;
+                    i -= 1;
+                    len += 1;
+                    pending -= 1;
+                }
+                insert(out, target, i - pending, pending);
+                pending = 0;
+                out.writeByte(COPY);
+                out.writeVarint(p);
+                out.writeVarint(len);
+                i += len;
+                if (i + WINDOW <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + WINDOW < target.length) {
+                    h = h * PRIME + target[i + WINDOW]
+                        - power * target[i];
+                }
+                pending += 1;
+                i += 1;
+            }
+        }
+        pending += target.length - i;
+        insert(out, target, target.length - pending, pending);
+        return out.toByteArray();
+    }
+
+    /** Return the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        Codec.Decoder in = decoder(delta);
+        if (in.readLength() != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] result = new byte[in.readLength()];
+        int size = 0;
+        while (size < result.length) {
+            int op = in.readByte();
+            if (op == COPY) {
+                int offset = in.readLength();
+                int len = in.readLength();
+                if (offset + len > base.length
+                        || size + len > result.length) {
+                    throw Utils.error("Corrupt delta.");
+                }
+                System.arraycopy(base, offset, result, size, len);
+                size += len;
+            } else if (op == INSERT) {
+                int len = in.readLength();
+                if (size + len > result.length) {
+                    throw Utils.error("Corrupt delta.");
+                }
+                in.readRaw(result, size, len);
+                size += len;
+            } else {
+                throw Utils.error("Corrupt delta.");
+            }
+        }
+        return result;
+    }
+
+    /** Return a decoder positioned at the base length of DELTA. */
+    static Codec.Decoder decoder(byte[] delta) {
+        return new Codec.Decoder(delta, TAG, VERSION);
+    }
+
+    /** Append an instruction inserting the LEN bytes of TARGET from
+     *  START to OUT, if LEN is positive. */
+    private static void insert(Codec.Encoder out, byte[] target,
+                               int start, int len) {
+        if (len > 0) {
+            out.writeByte(INSERT);
+            out.writeBytes(Arrays.copyOfRange(target, start, start + len));
+        }
+    }
+
+    /** Return a hash table of the WINDOW-aligned blocks of BASE.
+     *  Each slot holds one more than the offset of a block whose hash
+     *  falls in it, or 0. Its size is a power of two. */
+    private static int[] index(byte[] base) {
+        int blocks = base.length / WINDOW;
+        if (blocks == 0) {
+            return new int[0];
+        }
+        int size = Integer.highestOneBit(blocks * 2 - 1) << 1;
+        int[] table = new int[size];
+        for (int p = (blocks - 1) * WINDOW; p >= 0; p -= WINDOW) {
+            table[hash(base, p) & (size - 1)] = p + 1;
+        }
+        return table;
+    }
+
+    /** Return the rolling hash of the WINDOW bytes of DATA at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + WINDOW; i += 1) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+
+    /** Return true if the LEN bytes of A at I equal those of B at J. */
+    private static boolean regionMatches(byte[] a, int i, byte[] b, int j,
+                                         int len) {
+        if (i + len > a.length || j + len > b.length) {
+            return false;
+        }
+        for (int k = 0; k < len; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Leading byte of an encoded delta. */
+    private static final int TAG = 'd';
+    /** Current format version of an encoded delta. */
+    private static final int VERSION = 1;
+}
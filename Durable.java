@@ -0,0 +1,187 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+
+/** Writes the objects and refs of the repository so that a crash
+ *  leaves each file either as it was or whole. Every file is written
+ *  under a temporary name in its own directory and renamed into place.
+ *  How much survives a power failure as well depends on the level,
+ *  taken from the GITLET_FSYNC environment variable:
+ *  <ul>
+ *  <li> "none": nothing is synced; the operating system writes the
+ *       files back when it likes.
+ *  <li> "batch", the default: the data of each file is synced before
+ *       it is renamed into place, and the directories files were
+ *       renamed in are synced together, each once, just before the
+ *       first ref that may point to them is written, and at the end
+ *       of the command. A commit that writes a dozen trees syncs the
+ *       trees directory once, not a dozen times.
+ *  <li> "strict": as batch, but each directory is synced as soon as a
+ *       file is renamed in it.
+ *  </ul>
+ *  Unless the level is "none", a file is renamed into place only once
+ *  its data is on disk, since an object left empty or torn under its
+ *  final name by a crash would never be written again, and a ref only
+ *  once the objects written before it are safe, so it never names an
+ *  object a crash lost. Indexes that are rebuilt from the
+ *  objects when found missing or damaged are not synced. Blobs are
+ *  stored from several threads at once, so the methods lock.
+ *  @author Chris Wang
+ */
+class Durable {
+
+    /** Level at which nothing is synced. */
+    static final int NONE = 0;
+    /** Level at which syncs of directories are put off and done
+     *  together. */
+    static final int BATCH = 1;
+    /** Level at which each file and directory is synced as it is
+     *  written. */
+    static final int STRICT = 2;
+
+    /** Return the level named NAME, or BATCH if NAME is null or names
+     *  no level. */
+    static int level(String name) {
+        if ("none".equals(name)) {
+            return NONE;
+        } else if ("strict".equals(name)) {
+            return STRICT;
+        }
+        return BATCH;
+    }
+
+    /** Set the level to LEVEL, after syncing what is pending. */
+    static synchronized void setLevel(int level) {
+        sync();
+        _level = level;
+    }
+
+    /** Replace the contents of the object or state file FILE with
+     *  DATA. */
+    static void write(File file, byte[] data) {
+        File tmp = temp(file, data);
+        try {
+            commit(tmp, file);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Replace the contents of the ref FILE with CONTENTS, once the
+     *  objects written so far are safe. */
+    static synchronized void writeRef(File file, String contents) {
+        sync();
+        File tmp = temp(file, contents.getBytes(StandardCharsets.UTF_8));
+        try {
+            if (_level != NONE) {
+                force(tmp);
+            }
+            move(tmp, file);
+            if (_level == STRICT) {
+                force(file.getAbsoluteFile().getParentFile());
+            } else if (_level == BATCH) {
+                _dirs.add(file.getAbsoluteFile().getParentFile());
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Rename the finished temporary file TMP, in the same directory,
+     *  to FILE, replacing it, and sync it as the level asks. */
+    static void commit(File tmp, File file) {
+        if (level() != NONE) {
+            force(tmp);
+        }
+        synchronized (Durable.class) {
+            move(tmp, file);
+            if (_level == STRICT) {
+                force(file.getAbsoluteFile().getParentFile());
+            } else if (_level == BATCH) {
+                _dirs.add(file.getAbsoluteFile().getParentFile());
+            }
+        }
+    }
+
+    /** Sync every directory whose sync has been put off. */
+    static synchronized void sync() {
+        for (File dir : _dirs) {
+            force(dir);
+        }
+        _dirs.clear();
+    }
+
+    /** Return the level of durability. */
+    static synchronized int level() {
+        return _level;
+    }
+
+    /** Return the number of files synced. */
+    static synchronized long fileSyncs() {
+        return _fileSyncs;
+    }
+
+    /** Return the number of directories synced. */
+    static synchronized long dirSyncs() {
+        return _dirSyncs;
+    }
+
+    /** Return a new temporary file beside FILE holding DATA. */
+    private static File temp(File file, byte[] data) {
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            File tmp = File.createTempFile("tmp", null, dir);
+            Utils.writeContents(tmp, data);
+            return tmp;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Rename TMP to FILE at once, replacing it. */
+    private static void move(File tmp, File file) {
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Flush FILE, a file or a directory, to the disk. Files are
+     *  flushed outside the lock, so that threads storing blobs wait
+     *  for the disk side by side. */
+    private static void force(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        synchronized (Durable.class) {
+            if (file.isDirectory()) {
+                _dirSyncs += 1;
+            } else {
+                _fileSyncs += 1;
+            }
+        }
+    }
+
+    /** The level of durability. */
+    private static int _level = level(System.getenv("GITLET_FSYNC"));
+    /** Directories whose sync has been put off. */
+    private static final LinkedHashSet<File> _dirs =
+        new LinkedHashSet<File>();
+    /** Number of files synced. */
+    private static long _fileSyncs;
+    /** Number of directories synced. */
+    private static long _dirSyncs;
+}
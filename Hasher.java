@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Computes the blob ids of files, many at once when asked, and stores
+ *  files as blobs the same way. Batches are
+ *  split across a work-stealing pool with one thread per core, so a
+ *  few large files do not hold up the rest. Each thread keeps its own
+ *  MessageDigest and direct buffer, which are reused for every file it
+ *  hashes.
+ *  @author Chris Wang
+ */
+class Hasher {
+
+    /** Batches smaller than this are hashed on the calling thread. */
+    static final int PARALLEL_MIN = 4;
+
+    /** Return the blob id of the contents of FILE. */
+    static String hash(File file) {
+        MessageDigest md = DIGEST.get();
+        ByteBuffer buf = BUFFER.get();
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            buf.clear();
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+            return Utils.hex(md.digest());
+        } catch (IOException excp) {
+            md.reset();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the blob ids of FILES, in the same order, hashing them
+     *  in parallel on the shared pool. */
+    static String[] hashAll(List<File> files) {
+        return hashAll(files, files.size() < PARALLEL_MIN ? null : pool());
+    }
+
+    /** Return the blob ids of FILES, in the same order, hashing them
+     *  on POOL, or on the calling thread if POOL is null. */
+    static String[] hashAll(List<File> files, ForkJoinPool pool) {
+        return run(files, pool, false);
+    }
+
+    /** Store FILES as blobs, in parallel on the shared pool, and
+     *  return their ids in the same order. */
+    static String[] storeAll(List<File> files) {
+        return run(files, files.size() < PARALLEL_MIN ? null : pool(), true);
+    }
+
+    /** Return the blob ids of FILES, in the same order, hashing them,
+     *  or storing them as blobs if STORE, on POOL, or on the calling
+     *  thread if POOL is null. */
+    private static String[] run(List<File> files, ForkJoinPool pool,
+                                boolean store) {
+        String[] ids = new String[files.size()];
+        Task task = new Task(files, ids, 0, ids.length, store);
+        if (pool == null) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+        return ids;
+    }
+
+    /** Return the shared pool, starting it if need be. */
+    static synchronized ForkJoinPool pool() {
+        if (_pool == null) {
+            _pool = new ForkJoinPool(
+                    Runtime.getRuntime().availableProcessors());
+        }
+        return _pool;
+    }
+
+    /** Hashes or stores a range of a list of files, putting their
+     *  ids in an array. */
+    private static class Task extends RecursiveAction {
+        /** A task that hashes FILES from START up to END into IDS, or
+         *  stores them if STORE. */
+        Task(List<File> files, String[] ids, int start, int end,
+             boolean store) {
+            _files = files;
+            _ids = ids;
+            _start = start;
+            _end = end;
+            _store = store;
+        }
+
+        @Override
+        protected void compute() {
+            if (_end - _start <= 1) {
+                for (int i = _start; i < _end; i += 1) {
+                    _ids[i] = _store ? Blob.store(_files.get(i)).getSha1()
+                        : hash(_files.get(i));
+                }
+                return;
+            }
+            int mid = (_start + _end) >>> 1;
+            invokeAll(new Task(_files, _ids, _start, mid, _store),
+                      new Task(_files, _ids, mid, _end, _store));
+        }
+
+        /** Files being hashed. */
+        private final List<File> _files;
+        /** Ids of the files, filled in as they are hashed. */
+        private final String[] _ids;
+        /** First position this task hashes. */
+        private final int _start;
+        /** Position after the last this task hashes. */
+        private final int _end;
+        /** True if the files are stored, not just hashed. */
+        private final boolean _store;
+    }
+
+    /** Digest of the current thread. */
+    private static final ThreadLocal<MessageDigest> DIGEST =
+        ThreadLocal.withInitial(Utils::sha1Digest);
+    /** Read buffer of the current thread. */
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Blob.CHUNK));
+
+    /** The shared pool, or null until it is first needed. */
+    private static ForkJoinPool _pool;
+}
@@ -0,0 +1,515 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Differences between the lines of two byte arrays. Lines are never
+ *  copied out of their arrays: each is a range of bytes, ending with
+ *  its newline if it has one, and lines with the same bytes are given
+ *  the same number up front, so that the diff itself compares ints in
+ *  primitive arrays.
+ *
+ *  The diff is the histogram algorithm: after stripping the lines the
+ *  two sides share at the start and end, a region is split around the
+ *  longest common run of its rarest lines, and the two sides of the
+ *  run are diffed in turn. A region whose common lines are all too
+ *  frequent is split at the middle snake of Myers' linear-space
+ *  algorithm instead, and one with no common lines is all changed.
+ *  Memory is linear in the number of lines.
+ *  @author Chris Wang
+ */
+class LineDiff {
+
+    /** The lines of a byte array. */
+    static class Lines {
+        /** The lines of DATA. */
+        Lines(byte[] data) {
+            _data = data;
+            int n = 0;
+            for (byte b : data) {
+                if (b == '\n') {
+                    n += 1;
+                }
+            }
+            if (data.length > 0 && data[data.length - 1] != '\n') {
+                n += 1;
+            }
+            _start = new int[n + 1];
+            int line = 1;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n' && line <= n) {
+                    _start[line++] = i + 1;
+                }
+            }
+            _start[n] = data.length;
+        }
+
+        /** Return the number of lines. */
+        int size() {
+            return _start.length - 1;
+        }
+
+        /** Return the position in the array of the start of line I, or
+         *  its length if I is the number of lines. */
+        int start(int i) {
+            return _start[i];
+        }
+
+        /** Return the array the lines are in. */
+        byte[] data() {
+            return _data;
+        }
+
+        /** Return true if line I of this and line J of OTHER hold the
+         *  same bytes. */
+        boolean same(int i, Lines other, int j) {
+            return Arrays.equals(_data, _start[i], _start[i + 1],
+                    other._data, other._start[j], other._start[j + 1]);
+        }
+
+        /** Return a hash of the bytes of line I. */
+        int hash(int i) {
+            int h = 1;
+            for (int p = _start[i]; p < _start[i + 1]; p += 1) {
+                h = 31 * h + _data[p];
+            }
+            return h ^ (h >>> 16);
+        }
+
+        /** Return a 64-bit hash of the bytes of line I, never 0. */
+        long hash64(int i) {
+            long h = 0xcbf29ce484222325L;
+            for (int p = _start[i]; p < _start[i + 1]; p += 1) {
+                h = (h ^ _data[p]) * 0x100000001b3L;
+            }
+            h ^= h >>> 29;
+            return h == 0 ? 1 : h;
+        }
+
+        /** Append lines FROM up to TO to OUT. */
+        void write(ByteArrayOutputStream out, int from, int to) {
+            out.write(_data, _start[from], _start[to] - _start[from]);
+        }
+
+        /** Return true if lines FROM up to TO are empty or end with a
+         *  newline. */
+        boolean endsLine(int from, int to) {
+            return from == to || _data[_start[to] - 1] == '\n';
+        }
+
+        /** The bytes the lines are in. */
+        private final byte[] _data;
+        /** Position of the start of each line, then the length. */
+        private final int[] _start;
+    }
+
+    /** A hunk: lines of one side replaced by lines of the other. */
+    static class Edit {
+        /** The replacement of lines ASTART up to AEND of the old side
+         *  by lines BSTART up to BEND of the new side. */
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            _aStart = aStart;
+            _aEnd = aEnd;
+            _bStart = bStart;
+            _bEnd = bEnd;
+        }
+
+        /** Return the first old line replaced. */
+        int aStart() {
+            return _aStart;
+        }
+
+        /** Return the line after the last old line replaced. */
+        int aEnd() {
+            return _aEnd;
+        }
+
+        /** Return the first new line. */
+        int bStart() {
+            return _bStart;
+        }
+
+        /** Return the line after the last new line. */
+        int bEnd() {
+            return _bEnd;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d,%d -> %d,%d",
+                    _aStart, _aEnd, _bStart, _bEnd);
+        }
+
+        /** First old line replaced. */
+        private final int _aStart;
+        /** Line after the last old line replaced. */
+        private final int _aEnd;
+        /** First new line. */
+        private final int _bStart;
+        /** Line after the last new line. */
+        private final int _bEnd;
+    }
+
+    /** Numbers the lines of any number of files consistently, so that
+     *  the numbers of each file can be kept and diffed against those
+     *  of others later, without keeping the files. Lines are told
+     *  apart by a 64-bit hash of their bytes, held in an open-addressed
+     *  table of longs; two different lines with the same hash, which is
+     *  vanishingly unlikely, would be taken as equal. */
+    static class Numbering {
+        /** Return the numbers of the lines of LINES. */
+        int[] number(Lines lines) {
+            int[] result = new int[lines.size()];
+            for (int i = 0; i < result.length; i += 1) {
+                if (2 * (_size + 1) > _keys.length) {
+                    grow();
+                }
+                long key = lines.hash64(i);
+                int slot = slot(key);
+                if (_keys[slot] == 0) {
+                    _keys[slot] = key;
+                    _values[slot] = _size++;
+                }
+                result[i] = _values[slot];
+            }
+            return result;
+        }
+
+        /** Return the slot of KEY, or the empty slot where it would
+         *  go. */
+        private int slot(long key) {
+            int mask = _keys.length - 1;
+            int slot = (int) (key ^ (key >>> 32)) & mask;
+            while (_keys[slot] != 0 && _keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /** Double the size of the table. */
+        private void grow() {
+            long[] keys = _keys;
+            int[] values = _values;
+            _keys = new long[keys.length * 2];
+            _values = new int[keys.length * 2];
+            for (int i = 0; i < keys.length; i += 1) {
+                if (keys[i] != 0) {
+                    int slot = slot(keys[i]);
+                    _keys[slot] = keys[i];
+                    _values[slot] = values[i];
+                }
+            }
+        }
+
+        /** Hashes of the lines numbered, never 0, or 0 for a free
+         *  slot. */
+        private long[] _keys = new long[1024];
+        /** Number of the line whose hash is in each slot. */
+        private int[] _values = new int[1024];
+        /** Number of different lines seen. */
+        private int _size;
+    }
+
+    /** Return the hunks that turn the lines of A into those of B, in
+     *  order. Adjacent changed lines form a single hunk. */
+    static List<Edit> diff(Lines a, Lines b) {
+        int[][] ids = number(a, b);
+        return diff(ids[0], ids[1]);
+    }
+
+    /** Return the hunks that turn the sequence A into B, in order. Both
+     *  must hold small non-negative ints, such as those number gives. */
+    static List<Edit> diff(int[] a, int[] b) {
+        return diff(a, b, false);
+    }
+
+    /** Return the hunks of a shortest edit script that turns the
+     *  sequence A into B, found by Myers' algorithm alone. The
+     *  histogram diff is usually more readable but not always the
+     *  shortest. */
+    static List<Edit> minimal(int[] a, int[] b) {
+        return diff(a, b, true);
+    }
+
+    /** Return the hunks that turn A into B, splitting only at middle
+     *  snakes if MINIMAL. */
+    private static List<Edit> diff(int[] a, int[] b, boolean minimal) {
+        int ids = 0;
+        for (int x : a) {
+            ids = Math.max(ids, x + 1);
+        }
+        for (int x : b) {
+            ids = Math.max(ids, x + 1);
+        }
+        return new LineDiff(a, b, ids, minimal).run();
+    }
+
+    /** A diff of the sequences A and B, whose elements are less than
+     *  IDS, using only middle snakes if MINIMAL. */
+    private LineDiff(int[] a, int[] b, int ids, boolean minimal) {
+        _minimal = minimal;
+        _a = a;
+        _b = b;
+        _deleted = new boolean[a.length];
+        _inserted = new boolean[b.length];
+        _count = new int[ids];
+        _head = new int[ids];
+        _next = new int[a.length];
+    }
+
+    /** Return the hunks of this diff. Regions still to be compared
+     *  are kept on a stack rather than in recursive calls, so that
+     *  long inputs cannot overflow the call stack. */
+    private List<Edit> run() {
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = _a.length;
+        stack[top++] = 0;
+        stack[top++] = _b.length;
+        while (top > 0) {
+            int bHi = stack[--top];
+            int bLo = stack[--top];
+            int aHi = stack[--top];
+            int aLo = stack[--top];
+            while (aLo < aHi && bLo < bHi && _a[aLo] == _b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && _a[aHi - 1] == _b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                Arrays.fill(_deleted, aLo, aHi, true);
+                Arrays.fill(_inserted, bLo, bHi, true);
+                continue;
+            }
+            int[] split = _minimal ? new int[] {aLo, bLo, aLo, bLo}
+                : anchor(aLo, aHi, bLo, bHi);
+            if (split == null) {
+                Arrays.fill(_deleted, aLo, aHi, true);
+                Arrays.fill(_inserted, bLo, bHi, true);
+                continue;
+            }
+            if (split[0] == split[2]) {
+                split = middleSnake(aLo, aHi, bLo, bHi);
+            }
+            if (top + 8 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top++] = aLo;
+            stack[top++] = split[0];
+            stack[top++] = bLo;
+            stack[top++] = split[1];
+            stack[top++] = split[2];
+            stack[top++] = aHi;
+            stack[top++] = split[3];
+            stack[top++] = bHi;
+        }
+        return hunks(_deleted, _inserted);
+    }
+
+    /** Return the histogram anchor of the region of A from ALO up to
+     *  AHI and of B from BLO up to BHI: the longest run of lines common
+     *  to both whose rarest line occurs least often in the region of
+     *  A, as {x, y, u, v} where the run is A[x..u) and B[y..v). Lines
+     *  that occur more than MAX_CHAIN times in A are not used. Return
+     *  a run with x == u if no line is rare enough, or null if the
+     *  regions have no line in common. */
+    private int[] anchor(int aLo, int aHi, int bLo, int bHi) {
+        for (int j = bLo; j < bHi; j += 1) {
+            _count[_b[j]] = 0;
+            _head[_b[j]] = -1;
+        }
+        for (int i = aLo; i < aHi; i += 1) {
+            _count[_a[i]] = 0;
+            _head[_a[i]] = -1;
+        }
+        for (int i = aHi - 1; i >= aLo; i -= 1) {
+            _next[i] = _head[_a[i]];
+            _head[_a[i]] = i;
+            _count[_a[i]] += 1;
+        }
+        boolean common = false;
+        int[] best = null;
+        int bestCount = MAX_CHAIN;
+        int bestLength = 0;
+        for (int j = bLo; j < bHi; ) {
+            int c = _count[_b[j]];
+            int nextJ = j + 1;
+            common |= c > 0;
+            if (c == 0 || c > bestCount) {
+                j = nextJ;
+                continue;
+            }
+            for (int i = _head[_b[j]]; i >= 0; i = _next[i]) {
+                int x = i;
+                int y = j;
+                int low = c;
+                while (x > aLo && y > bLo && _a[x - 1] == _b[y - 1]) {
+                    x -= 1;
+                    y -= 1;
+                    low = Math.min(low, _count[_a[x]]);
+                }
+                int u = i + 1;
+                int v = j + 1;
+                while (u < aHi && v < bHi && _a[u] == _b[v]) {
+                    low = Math.min(low, _count[_a[u]]);
+                    u += 1;
+                    v += 1;
+                }
+                if (low < bestCount
+                        || low == bestCount && u - x > bestLength) {
+                    best = new int[] {x, y, u, v};
+                    bestCount = low;
+                    bestLength = u - x;
+                }
+                nextJ = Math.max(nextJ, v);
+            }
+            j = nextJ;
+        }
+        if (!common) {
+            return null;
+        }
+        return best == null ? new int[] {aLo, bLo, aLo, bLo} : best;
+    }
+
+    /** Return the middle snake of a shortest edit script between the
+     *  region of A from ALO up to AHI and of B from BLO up to BHI, in
+     *  Myers' linear-space refinement: {x, y, u, v}, where A[x..u)
+     *  matches B[y..v) and lies on the path halfway through the script.
+     *  The regions must differ at both ends and neither be empty. Only
+     *  two arrays of the size of the regions are used. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2 + 1;
+        int off = max + 1;
+        int[] vf = new int[2 * max + 3];
+        int[] vb = new int[2 * max + 3];
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && vf[off + k - 1] < vf[off + k + 1])
+                    ? vf[off + k + 1] : vf[off + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && _a[aLo + x] == _b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vf[off + k] = x;
+                int kr = delta - k;
+                if (odd && kr >= -(d - 1) && kr <= d - 1
+                        && x >= n - vb[off + kr]) {
+                    return new int[] {aLo + x0, bLo + y0, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && vb[off + k - 1] < vb[off + k + 1])
+                    ? vb[off + k + 1] : vb[off + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m
+                       && _a[aHi - 1 - x] == _b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vb[off + k] = x;
+                int kf = delta - k;
+                if (!odd && kf >= -d && kf <= d
+                        && vf[off + kf] >= n - x) {
+                    return new int[] {aHi - x, bHi - y, aHi - x0, bHi - y0};
+                }
+            }
+        }
+        throw new IllegalArgumentException("diff found no middle snake");
+    }
+
+    /** Return the hunks of the elements marked in DELETED and
+     *  INSERTED, pairing the unmarked elements of the two in order. */
+    private static List<Edit> hunks(boolean[] deleted, boolean[] inserted) {
+        ArrayList<Edit> result = new ArrayList<Edit>();
+        int i = 0;
+        int j = 0;
+        while (i < deleted.length || j < inserted.length) {
+            if (i < deleted.length && deleted[i]
+                    || j < inserted.length && inserted[j]) {
+                int i0 = i;
+                int j0 = j;
+                while (i < deleted.length && deleted[i]) {
+                    i += 1;
+                }
+                while (j < inserted.length && inserted[j]) {
+                    j += 1;
+                }
+                result.add(new Edit(i0, i, j0, j));
+            } else {
+                i += 1;
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the numbers of the lines of A and of B, as two arrays,
+     *  giving lines with the same bytes the same number. Numbers count
+     *  up from 0 and are found through an open-addressed table of line
+     *  references, so no object is made per line. */
+    static int[][] number(Lines a, Lines b) {
+        int na = a.size();
+        int total = na + b.size();
+        int size = Integer.highestOneBit(Math.max(total, 1) * 2 + 1) * 2;
+        int[] refs = new int[size];
+        int[] ids = new int[size];
+        Arrays.fill(refs, -1);
+        int[][] result = {new int[na], new int[b.size()]};
+        int next = 0;
+        for (int r = 0; r < total; r += 1) {
+            Lines lines = r < na ? a : b;
+            int line = r < na ? r : r - na;
+            int slot = lines.hash(line) & (size - 1);
+            while (refs[slot] >= 0) {
+                int q = refs[slot];
+                if (lines.same(line, q < na ? a : b, q < na ? q : q - na)) {
+                    break;
+                }
+                slot = (slot + 1) & (size - 1);
+            }
+            if (refs[slot] < 0) {
+                refs[slot] = r;
+                ids[slot] = next++;
+            }
+            result[r < na ? 0 : 1][line] = ids[slot];
+        }
+        return result;
+    }
+
+    /** Lines that occur more often than this in a region are not used
+     *  as histogram anchors. */
+    private static final int MAX_CHAIN = 64;
+
+    /** True if only middle snakes are used, for a shortest script. */
+    private final boolean _minimal;
+    /** The old sequence. */
+    private final int[] _a;
+    /** The new sequence. */
+    private final int[] _b;
+    /** Which elements of the old sequence are removed. */
+    private final boolean[] _deleted;
+    /** Which elements of the new sequence are added. */
+    private final boolean[] _inserted;
+    /** Occurrences of each element in the region of A being split. */
+    private final int[] _count;
+    /** First occurrence of each element in the region of A. */
+    private final int[] _head;
+    /** Next occurrence in the region of A of the element at each
+     *  position, or -1. */
+    private final int[] _next;
+}
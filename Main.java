@@ -1,14 +1,38 @@
 package gitlet;
 
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.HashSet;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.regex.PatternSyntaxException;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Chris Wang , Chen Feng Tsai, Wei Min Chou
@@ -17,18 +41,22 @@ public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
-    /** Current Working Directory. */
-    static final File CWD = new File(".");
+    /** Current Working Directory, unless the system property
+     *  gitlet.dir names another, as it does for the unit tests. */
+    static final File CWD = new File(System.getProperty("gitlet.dir", "."));
     /** Main metadata folder. */
     static final File MAIN_FOLDER = Utils.join(CWD, ".gitlet");
-    /** Staging area. */
+    /** Staging area of old repositories, now kept in Stage.STAGE_FILE. */
     static final File STAGING_AREA = Utils.join(MAIN_FOLDER, "Stage");
-    /** adding. */
+    /** Old staging directory of files to add. */
     static final File STAGING_ADD = Utils.join(STAGING_AREA, "Addition");
-    /** Removing. */
+    /** Old staging directory of files to remove. */
     static final File STAGING_REMOVE = Utils.join(STAGING_AREA, "Removal");
     /** Storing branch. */
     static final File BRANCH = Utils.join(MAIN_FOLDER, "branch");
+    /** True if commands report what they did on the standard error,
+     *  as they do if the GITLET_TRACE environment variable is set. */
+    private static boolean _trace = System.getenv("GITLET_TRACE") != null;
 
     /** Running all the commands.
      * @param args Array{[command] [parameters]}
@@ -36,7 +64,7 @@ public class Main {
     public static void main(String... args) {
         if (args.length == 0) {
             System.out.println(" Please enter a command.");
-            System.exit(0);
+            exit();
         }
         switch (args[0]) {
         case "init": {
@@ -52,7 +80,7 @@ public class Main {
             rm(args);
             break;
         } case "log": {
-            log();
+            log(args);
             break;
         } case "checkout": {
             checkout(args);
@@ -61,7 +89,7 @@ public class Main {
             branch(args);
             break;
         } case "global-log": {
-            globalLog();
+            globalLog(args);
             break;
         } case "find": {
             find(args);
@@ -74,6 +102,12 @@ public class Main {
         } case "status": {
             status();
             break;
+        } case "diff": {
+            diff(args);
+            break;
+        } case "blame": {
+            blame(args);
+            break;
         } case "rm-branch": {
             rmBranch(args);
             break;
@@ -84,24 +118,46 @@ public class Main {
             merge(args);
             break;
 
+        } case "gc": {
+            gc(args);
+            break;
+        } case "migrate": {
+            Migrate.migrate();
+            break;
+        } case "daemon": {
+            Daemon.main(args);
+            break;
         } case "set":{
             setup();
             break;
             }
             default: {
             System.out.println("No command with that name exists.");
-            System.exit(0);
+            exit();
         }
         }
+        Durable.sync();
+        trace("objects: %s", ObjectCache.get());
+        trace("synced: %d files, %d directories", Durable.fileSyncs(),
+              Durable.dirSyncs());
+    }
+    /** End the command. A command run by the daemon returns to it
+     *  rather than ending the process. */
+    static void exit() {
+        Durable.sync();
+        if (Daemon.serving()) {
+            throw new Daemon.Exit();
+        }
+        System.exit(0);
     }
+
     /** Check if all the required folder exist.*/
     public static void setupPersistence() {
         if (!MAIN_FOLDER.exists()) {
             MAIN_FOLDER.mkdirs();
-            STAGING_ADD.mkdirs();
-            STAGING_REMOVE.mkdirs();
             Commit.COMMIT_FOLDER.mkdirs();
             Blob.BLOB_FOLDER.mkdirs();
+            Tree.TREE_FOLDER.mkdirs();
             Commit.CURRENT_FOLDER.mkdirs();
             BRANCH.mkdirs();
         }
@@ -112,48 +168,124 @@ public class Main {
         if (MAIN_FOLDER.exists()) {
             System.out.println("A Gitlet version-control system "
                    +  "already exists in the current directory.");
-            System.exit(0);
+            exit();
         }
         setupPersistence();
         Commit commit = new Commit("initial commit",
-                new HashMap<String, Blob>(), null,
+                new HashMap<String, String>(), null,
                 true, null);
         commit.saveCommit();
         File masterBranch = Utils.join(BRANCH, "master");
         File activeBranch = Utils.join(BRANCH, "active");
-        Utils.writeObject(masterBranch, commit);
-        Utils.writeContents(activeBranch, "master");
+        Durable.writeRef(masterBranch, commit.getSha1());
+        Durable.writeRef(activeBranch, "master");
     }
 
-    /** Adding file to the staging area.
+    /** Adding files to the staging area. Each argument is a path, a
+     * directory, whose files are all added, "." for the whole working
+     * directory, or a glob pattern matched against the paths of the
+     * working files, as Java's PathMatcher does, so that "*" stays
+     * within a directory and "**" does not. Nothing is staged if some
+     * argument names no file. The files are hashed, and stored where
+     * need be, in parallel, and the staging area and stat cache are
+     * read and written once.
      *
-     * @param args Array {"add" file}
+     * @param args Array {"add" file...}
      */
     public static void add(String[] args) {
-        if (args.length != 2) {
+        if (args.length < 2) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
-        }
-        String name = args[1];
-        File file = Utils.join(CWD, name);
-        if (!file.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
-        } else {
-            File stagingFile = Utils.join(STAGING_ADD, name);
-            Commit current = getCurrent();
-            Blob blob = new Blob(Utils.readContents(file));
-            List<String> rmFiles = Utils.plainFilenamesIn(STAGING_REMOVE);
-            if (rmFiles.contains(name)) {
-                File rmFile = Utils.join(STAGING_REMOVE, name);
-                rmFile.delete();
+            exit();
+        }
+        TreeMap<String, StatCache.Entry> files =
+            new TreeMap<String, StatCache.Entry>();
+        TreeMap<String, StatCache.Entry> all = null;
+        for (int i = 1; i < args.length; i += 1) {
+            String name = normalize(args[i]);
+            StatCache.Entry stat = name == null ? null
+                : StatCache.stat(Utils.join(CWD, name));
+            if (stat != null) {
+                files.put(name, stat);
+                continue;
+            }
+            if (all == null) {
+                all = StatCache.scan(CWD);
+            }
+            Set<String> matched = matching(args[i], all.navigableKeySet());
+            if (matched.isEmpty()) {
+                System.out.println("File does not exist.");
+                exit();
             }
-            if (!blob.equals(current.getBlob(name))) {
-                Utils.writeObject(stagingFile, blob);
-                blob.saveBlob();
+            for (String path : matched) {
+                files.put(path, all.get(path));
             }
         }
+        Stage stage = Stage.read();
+        StatCache cache = StatCache.read();
+        stage(stage, cache, getCurrent(), files);
+        cache.write();
+        stage.write();
+    }
+
+    /**
+     * Stage the working file NAME in STAGE for addition, storing its
+     * blob unless CACHE knows it is stored already, or unstage it if it
+     * is as CURRENT tracks it.
+     * @param stage Staging area
+     * @param cache Stat cache of the working directory
+     * @param current Current commit
+     * @param name Path of the file
+     */
+    static void stage(Stage stage, StatCache cache, Commit current,
+                      String name) {
+        TreeMap<String, StatCache.Entry> files =
+            new TreeMap<String, StatCache.Entry>();
+        files.put(name, StatCache.stat(Utils.join(CWD, name)));
+        stage(stage, cache, current, files);
+    }
 
+    /**
+     * Stage the working files in FILES, a map from path to stat data
+     * or null, as for a single file. Files whose stored ids CACHE
+     * cannot vouch for are stored in parallel.
+     * @param stage Staging area
+     * @param cache Stat cache of the working directory
+     * @param current Current commit
+     * @param files Paths of the files and their stat data
+     */
+    static void stage(Stage stage, StatCache cache, Commit current,
+                      Map<String, StatCache.Entry> files) {
+        TreeMap<String, String> ids = new TreeMap<String, String>();
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<File> toStore = new ArrayList<File>();
+        for (Map.Entry<String, StatCache.Entry> e : files.entrySet()) {
+            String id = e.getValue() == null ? null
+                : cache.cachedId(e.getKey(), e.getValue());
+            if (id == null || !Blob.exists(id)) {
+                names.add(e.getKey());
+                toStore.add(Utils.join(CWD, e.getKey()));
+            } else {
+                ids.put(e.getKey(), id);
+            }
+        }
+        String[] stored = Hasher.storeAll(toStore);
+        for (int i = 0; i < stored.length; i += 1) {
+            ids.put(names.get(i), stored[i]);
+            if (files.get(names.get(i)) != null) {
+                cache.put(names.get(i), files.get(names.get(i)), stored[i]);
+            }
+        }
+        Map<String, String> tracked = ids.size() > 1
+            ? current.getReference() : null;
+        for (Map.Entry<String, String> e : ids.entrySet()) {
+            String name = e.getKey();
+            if (e.getValue().equals(tracked != null ? tracked.get(name)
+                                    : current.getBlobId(name))) {
+                stage.unstage(name);
+            } else {
+                stage.add(name, e.getValue());
+            }
+        }
     }
 
     /** make a new commit that store all the
@@ -163,73 +295,167 @@ public class Main {
     public static void commit(String[] args) {
         if (args.length == 1 || args[1].equals("")) {
             System.out.println("Please enter a commit message.");
-            System.exit(0);
+            exit();
         }
         String message = args[1];
-        List<String> addFiles = Utils.plainFilenamesIn(STAGING_ADD);
-        List<String> rmFiles = Utils.plainFilenamesIn(STAGING_REMOVE);
-        if (addFiles.isEmpty() && rmFiles.isEmpty()) {
+        Stage stage = Stage.read();
+        if (stage.isEmpty()) {
             System.out.println("No changes added to the commit.");
-            System.exit(0);
-        }
-        HashMap<String, Blob> reference = getActive().getReference();
-        for (String s : rmFiles) {
-            if (reference.containsKey(s)) {
-                reference.remove(s);
-            }
-            File file = Utils.join(STAGING_REMOVE, s);
-            file.delete();
+            exit();
         }
         Commit parent = getActive();
-        for (String name : addFiles) {
-            File file = Utils.join(STAGING_ADD, name);
-            Blob blob = Utils.readObject(file, Blob.class);
-            reference.put(name, blob);
-            file.delete();
-        }
-        Commit currentCommit = new Commit(message, reference, parent,
-                false, null);
+        Commit currentCommit = new Commit(message,
+                commitStage(stage, parent), parent.getSha1(), null,
+                new Date());
         currentCommit.saveCommit();
         File activeBranch = getActiveFile();
-        Utils.writeObject(activeBranch, currentCommit);
-
+        Durable.writeRef(activeBranch, currentCommit.getSha1());
+        Reachability.update(getActiveName());
     }
     /** Unstage the file if it is currently staged. If the file is tracked in
      * current commit, mark it not include in the next commit. And then remove
-     * the file working directory.
-     * @param args Array in format {rm, name}
+     * the file working directory. Arguments are as for add, but are
+     * matched against the tracked and staged files, and all of them are
+     * removed in one pass.
+     * @param args Array in format {rm, name...}
      */
     public static void rm(String[] args) {
-        if (args.length != 2) {
+        if (args.length < 2) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
-        }
-        String name = args[1];
-        File file = Utils.join(STAGING_ADD, name);
-        HashMap<String, Blob> reference = getActive().getReference();
-        if (!file.exists() && !reference.containsKey(name)) {
-            System.out.print("No reason to remove the file.");
-            System.exit(0);
-
-        }
-        if (file.exists()) {
-            file.delete();
+            exit();
+        }
+        Stage stage = Stage.read();
+        Commit active = getActive();
+        TreeSet<String> names = new TreeSet<String>();
+        TreeSet<String> known = null;
+        for (int i = 1; i < args.length; i += 1) {
+            String name = normalize(args[i]);
+            if (name != null && (stage.added().containsKey(name)
+                                 || active.getBlobId(name) != null)) {
+                names.add(name);
+                continue;
+            }
+            if (known == null) {
+                known = new TreeSet<String>(active.getReference().keySet());
+                known.addAll(stage.added().keySet());
+            }
+            Set<String> matched = matching(args[i], known);
+            if (matched.isEmpty()) {
+                System.out.print("No reason to remove the file.");
+                exit();
+            }
+            names.addAll(matched);
+        }
+        Map<String, String> reference = names.size() > 1
+            ? active.getReference() : null;
+        for (String name : names) {
+            String tracked = reference != null ? reference.get(name)
+                : active.getBlobId(name);
+            if (tracked != null) {
+                stage.remove(name, tracked);
+                deleteWorkingFile(name);
+            } else {
+                stage.unstage(name);
+            }
         }
-        if (reference.containsKey(name)) {
-            File rmFile = Utils.join(STAGING_REMOVE, name);
-            Utils.writeObject(rmFile, reference.get(name));
-            File deleteFile = Utils.join(CWD, name);
-            deleteFile.delete();
+        stage.write();
+    }
+    /**
+     * Print the commits from the head of the current branch back along
+     * first parents, newest first. The output is streamed as each
+     * commit is read, and the walk stops at the limit or at the first
+     * commit older than the start of the range, as times only fall
+     * along first parents. Commits newer than the end of the range are
+     * skipped without being read.
+     * @param args Array{"log", ["-n", count], ["--since", date],
+     *             ["--until", date]}
+     */
+    public static void log(String[] args) {
+        long[] range = logOptions(args);
+        CommitGraph graph = CommitGraph.get();
+        int current = CommitGraph.position(getActiveId());
+        Writer out = logWriter();
+        try {
+            for (long shown = 0; current >= 0 && shown < range[0];
+                 current = graph.parent(current)) {
+                long time = graph.time(current);
+                if (time < range[1]) {
+                    break;
+                } else if (time <= range[2]) {
+                    Commit commit = Commit.fromFile(graph.id(current));
+                    if (shown > 0) {
+                        out.write('\n');
+                    }
+                    Commit.writeLog(out, commit.getSha1(),
+                            commit.getParentId(), commit.getMergeId(),
+                            commit.getTime(), commit.getMessage());
+                    shown += 1;
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
     }
-    /** Print all the commits made. */
-    public static void log() {
-        Commit current = getActive();
-        while (current.getParent() != null) {
-            System.out.println(current);
-            current = current.getParent();
+
+    /**
+     * Return the limit and the start and end times, in milliseconds, of
+     * a log command with arguments ARGS, after its name. Dates are ISO
+     * dates, such as 2026-10-17, or date-times, such as
+     * 2026-10-17T08:30:00, in local time; a date alone as the end of
+     * the range takes in the whole of that day. Exits with a message if
+     * the arguments are not understood.
+     * @param args Array{[command], ["-n", count], ["--since", date],
+     *             ["--until", date]}
+     */
+    static long[] logOptions(String[] args) {
+        long[] range = {Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE};
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException(args[i]);
+                }
+                switch (args[i]) {
+                case "-n":
+                    range[0] = Long.parseLong(args[i + 1]);
+                    break;
+                case "--since":
+                    range[1] = parseTime(args[i + 1], false);
+                    break;
+                case "--until":
+                    range[2] = parseTime(args[i + 1], true);
+                    break;
+                default:
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | DateTimeParseException excp) {
+            System.out.println("Incorrect operands.");
+            exit();
         }
-        System.out.print(current);
+        return range;
+    }
+
+    /**
+     * Return the time in milliseconds of the local date or date-time
+     * TEXT: for a date alone, of the end of the day if END, and else of
+     * its start.
+     * @param text ISO date or date-time
+     * @param end Whether a date alone stands for the end of its day
+     */
+    static long parseTime(String text, boolean end) {
+        LocalDateTime time = text.contains("T") ? LocalDateTime.parse(text)
+            : end ? LocalDate.parse(text).atTime(LocalTime.MAX)
+            : LocalDate.parse(text).atStartOfDay();
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Return a buffered writer of UTF-8 text to the standard output.
+     */
+    static Writer logWriter() {
+        return new BufferedWriter(new OutputStreamWriter(System.out,
+                StandardCharsets.UTF_8), 1 << 16);
     }
     /** convert to a given state.
      * @param args Array {checkout ....}
@@ -238,43 +464,29 @@ public class Main {
     public static void checkout(String[] args) {
         if (args[1].equals("--")
             && args.length == 3) {
-            String name = args[2];
-            HashMap<String, Blob> reference = getCurrent().getReference();
-            if (!reference.containsKey(name)) {
+            String name = normalize(args[2]);
+            Blob blob = name == null ? null : getCurrent().getBlob(name);
+            if (blob == null) {
                 System.out.println("File does not exist in that commit.");
-                System.exit(0);
+                exit();
             }
             File file = Utils.join(CWD, name);
-            Blob blob = reference.get(name);
             blob.write(file);
         } else if (args.length == 4) {
             if (!args[2].equals("--")) {
                 System.out.println("Incorrect operands.");
-                System.exit(0);
+                exit();
             }
             String id = args[1];
-            String name = args[3];
-            String target = null;
-            List<String> ids = Utils.plainFilenamesIn(Commit.COMMIT_FOLDER);
-            for (String s : ids) {
-                String i = s.substring(0, id.length());
-                if (id.equals(i)) {
-                    target = s;
-                    break;
-                }
-            }
-            if (target == null) {
-                System.out.println("No commit with that id exists.");
-                System.exit(0);
-            }
-            Commit commit = Commit.fromFile(target);
-            if (commit.getReference().containsKey(name)) {
-                Blob blob = commit.getReference().get(name);
+            String name = normalize(args[3]);
+            Commit commit = Commit.fromFile(resolveCommit(id));
+            Blob blob = name == null ? null : commit.getBlob(name);
+            if (blob != null) {
                 File file = Utils.join(CWD, name);
                 blob.write(file);
             } else {
                 System.out.println("File does not exist in that commit.");
-                System.exit(0);
+                exit();
             }
         } else if (args.length == 2) {
             checkoutBranch(args);
@@ -290,53 +502,26 @@ public class Main {
     public static void checkoutBranch(String[] args) {
         if (args.length != 2) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            exit();
         }
         String branchName = args[1];
         if (branchName.equals(getActiveName())) {
             System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            exit();
         }
         List<String> branches = Utils.plainFilenamesIn(BRANCH);
         if (!branches.contains(branchName)) {
             System.out.println("No such branch exists.");
-            System.exit(0);
+            exit();
         }
-        File branch = Utils.join(BRANCH, branchName);
         Commit activeCommit = getActive();
-        Commit branchHead = Utils.readObject(branch, Commit.class);
-        List<String> untrackedFiles = new ArrayList<String>();
-        for (String s : branchHead.getReference().keySet()) {
-            if (!activeCommit.getReference().containsKey(s)) {
-                untrackedFiles.add(s);
-            }
-        }
-        for (String s : untrackedFiles) {
-            List<String> filesCWD = Utils.plainFilenamesIn(CWD);
-            if (filesCWD.contains(s)) {
-                System.out.println("There is an untracked file in the way;"
-                       +  " delete it or add it first.");
-                System.exit(0);
-            }
-        }
-        for (String s : branchHead.getReference().keySet()) {
-            File file = Utils.join(CWD, s);
-            Blob blob = branchHead.getBlob(s);
-            blob.write(file);
-        }
-        Commit current = getActive();
-        Set<String> files = current.getReference().keySet();
-        for (String s : files) {
-            if (!branchHead.getReference().containsKey(s)) {
-                File rmFile = Utils.join(CWD, s);
-                rmFile.delete();
-            }
-        }
-
-
-
+        Commit branchHead = getBranch(branchName);
+        List<TreeDiff.Change> changes = TreeDiff.changes(
+                activeCommit.getTree(), branchHead.getTree());
+        checkUntracked(changes);
+        applyChanges("checkout", changes);
         File activeBranch = Utils.join(BRANCH, "active");
-        Utils.writeContents(activeBranch, branchName);
+        Durable.writeRef(activeBranch, branchName);
 
 
     }
@@ -346,25 +531,49 @@ public class Main {
     public static void branch(String[] args) {
         if (args.length != 2) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            exit();
         }
         String branchName = args[1];
         List<String> branches = Utils.plainFilenamesIn(BRANCH);
         if (branches.contains(branchName)) {
             System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            exit();
         }
         File newBranch = Utils.join(BRANCH, branchName);
-        Utils.writeObject(newBranch, getActive());
+        Durable.writeRef(newBranch, getActiveId());
+        Reachability.update(branchName);
     }
     /** Like log, except displays information about all commits ever made.
-     * The order of the commits does not matter. */
-    public static void globalLog() {
-        List<String> ids = Utils.plainFilenamesIn(Commit.COMMIT_FOLDER);
-        for (String id : ids) {
-            File file = Utils.join(Commit.COMMIT_FOLDER, id);
-            Commit commit = Utils.readObject(file, Commit.class);
-            System.out.println(commit);
+     * The order of the commits does not matter; they are given in
+     * order of id. They are streamed from the compact column file of
+     * the message index rather than read from the commits themselves.
+     * @param args Array{"global-log", ["-n", count], ["--since", date],
+     *             ["--until", date]}
+     */
+    public static void globalLog(String[] args) {
+        long[] range = logOptions(args);
+        Writer out = logWriter();
+        long[] shown = {0};
+        MessageIndex.each(e -> {
+            if (shown[0] >= range[0]) {
+                return false;
+            } else if (e.time() < range[1] || e.time() > range[2]) {
+                return true;
+            }
+            try {
+                Commit.writeLog(out, e.id(), e.parent(), e.merge(),
+                        new Date(e.time()), e.message());
+                out.write('\n');
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            shown[0] += 1;
+            return true;
+        });
+        try {
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
     }
     /**
@@ -373,24 +582,30 @@ public class Main {
      * @param args Array {find [message]}
      */
     public static void find(String[] args) {
-        if (args.length != 2) {
+        List<String> ids = null;
+        if (args.length == 2) {
+            ids = MessageIndex.exact(args[1]);
+        } else if (args.length == 3 && args[1].equals("--prefix")) {
+            ids = MessageIndex.prefix(args[2]);
+        } else if (args.length == 3 && args[1].equals("--contains")) {
+            ids = MessageIndex.contains(args[2]);
+        } else if (args.length == 3 && args[1].equals("--grep")) {
+            try {
+                ids = MessageIndex.grep(args[2]);
+            } catch (PatternSyntaxException excp) {
+                System.out.println("Invalid regular expression.");
+                exit();
+            }
+        } else {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            exit();
         }
-        String message = args[1];
-        Boolean found = false;
-        List<String> ids = Utils.plainFilenamesIn(Commit.COMMIT_FOLDER);
         for (String id : ids) {
-            File file = Utils.join(Commit.COMMIT_FOLDER, id);
-            Commit commit = Utils.readObject(file, Commit.class);
-            if (commit.getMessage().equals(message)) {
-                found = true;
-                System.out.println(id);
-            }
+            System.out.println(id);
         }
-        if (!found) {
+        if (ids.isEmpty()) {
             System.out.println("Found no commit with that message.");
-            System.exit(0);
+            exit();
         }
     }
     /**
@@ -401,7 +616,7 @@ public class Main {
     public static void status() {
         if (!MAIN_FOLDER.exists()) {
             System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            exit();
         }
         File currentBranch = Utils.join(BRANCH, "active");
         String currentBranchName =
@@ -414,16 +629,206 @@ public class Main {
                 System.out.println(s);
             }
         }
+        Stage stage = Stage.read();
         System.out.println("\n=== Staged Files ===");
-        for (String s : Utils.plainFilenamesIn(STAGING_ADD)) {
+        for (String s : stage.added().keySet()) {
             System.out.println(s);
         }
         System.out.println("\n=== Removed Files ===");
-        for (String s : Utils.plainFilenamesIn(STAGING_REMOVE)) {
+        for (String s : stage.removed().keySet()) {
             System.out.println(s);
         }
+        TreeMap<String, StatCache.Entry> files = StatCache.scan(CWD);
+        StatCache cache = StatCache.read();
+        HashMap<String, String> tracked = getActive().getReference();
+        Map<String, String> staged = stage.added();
+        Set<String> removed = stage.removed().keySet();
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        for (String name : tracked.keySet()) {
+            if (!removed.contains(name)) {
+                expected.put(name, tracked.get(name));
+            }
+        }
+        expected.putAll(staged);
+        TreeMap<String, StatCache.Entry> present =
+            new TreeMap<String, StatCache.Entry>();
+        for (String name : expected.keySet()) {
+            if (files.containsKey(name)) {
+                present.put(name, files.get(name));
+            }
+        }
+        cache.hashAll(CWD, present);
         System.out.println("\n=== Modifications Not Staged For Commit ===");
-        System.out.println("\n=== Untracked Files ===\n");
+        for (String name : expected.keySet()) {
+            StatCache.Entry stat = present.get(name);
+            if (stat == null) {
+                System.out.println(name + " (deleted)");
+            } else if (!expected.get(name).equals(
+                    cache.id(CWD, name, stat))) {
+                System.out.println(name + " (modified)");
+            }
+        }
+        System.out.println("\n=== Untracked Files ===");
+        for (String name : files.keySet()) {
+            if (!staged.containsKey(name) && (!tracked.containsKey(name)
+                    || removed.contains(name))) {
+                System.out.println(name);
+            }
+        }
+        System.out.println();
+        cache.retainAll(files);
+        cache.write();
+    }
+    /**
+     * Prints the changes between two snapshots as a unified diff. With
+     * no commits, compares the files as they would next be committed,
+     * the head commit's plus the staged changes, with the working
+     * directory; with one, compares that commit with the working
+     * directory; with two, compares the first commit with the second.
+     * Files the working directory does not track are left out. After
+     * "--", only the given file, or the files under the given
+     * directory, are compared.
+     * @param args Array{"diff", [commit id], [commit id], "--", [file]}
+     */
+    public static void diff(String[] args) {
+        if (!MAIN_FOLDER.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            exit();
+        }
+        ArrayList<String> commits = new ArrayList<String>();
+        String only = null;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--") && i == args.length - 2) {
+                only = normalize(args[i + 1]);
+                break;
+            } else if (args[i].equals("--") || commits.size() == 2) {
+                System.out.println("Incorrect operands.");
+                exit();
+            }
+            commits.add(resolveCommit(args[i]));
+        }
+        TreeMap<String, String> old = new TreeMap<String, String>();
+        TreeMap<String, String> now = new TreeMap<String, String>();
+        if (commits.size() == 2) {
+            for (TreeDiff.Change change : TreeDiff.changes(
+                    Commit.fromFile(commits.get(0)).getTree(),
+                    Commit.fromFile(commits.get(1)).getTree())) {
+                old.put(change.path(), change.oldId());
+                now.put(change.path(), change.newId());
+            }
+        } else {
+            if (commits.isEmpty()) {
+                Stage stage = Stage.read();
+                old.putAll(getActive().getReference());
+                old.keySet().removeAll(stage.removed().keySet());
+                old.putAll(stage.added());
+            } else {
+                old.putAll(Commit.fromFile(commits.get(0)).getReference());
+            }
+            workingIds(old, now);
+        }
+        ArrayList<TreeDiff.Change> changes = new ArrayList<TreeDiff.Change>();
+        for (String path : old.keySet()) {
+            if (only == null || path.equals(only)
+                    || path.startsWith(only + "/")) {
+                if (!Objects.equals(old.get(path), now.get(path))) {
+                    changes.add(new TreeDiff.Change(path, old.get(path),
+                            now.get(path)));
+                }
+            }
+        }
+        boolean working = commits.size() < 2;
+        Function<TreeDiff.Change, byte[]> after =
+            c -> c.newId() == null ? null : working
+            ? Utils.readContents(Utils.join(CWD, c.path()))
+            : content(c.newId());
+        HashSet<TreeDiff.Change> paired = new HashSet<TreeDiff.Change>();
+        TreeMap<String, Renames.Rename> renames =
+            new TreeMap<String, Renames.Rename>();
+        for (Renames.Rename r : Renames.detect(changes, true,
+                 c -> content(c.oldId()), after)) {
+            renames.put(r.to().path(), r);
+            if (!r.copy()) {
+                paired.add(r.from());
+            }
+        }
+        BufferedOutputStream out = new BufferedOutputStream(System.out);
+        for (TreeDiff.Change change : changes) {
+            ByteArrayOutputStream patch = new ByteArrayOutputStream();
+            Renames.Rename r = renames.get(change.path());
+            if (r != null) {
+                UnifiedDiff.write(patch, r, content(r.from().oldId()),
+                        after.apply(change));
+            } else if (!paired.contains(change)) {
+                UnifiedDiff.write(patch, change.path(),
+                        change.oldId() == null ? null
+                        : content(change.oldId()), after.apply(change));
+            }
+            try {
+                patch.writeTo(out);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        try {
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Prints each line of a file as of the head commit after the id and
+     * date of the commit that brought it in.
+     * @param args Array{"blame", [file name]}
+     */
+    public static void blame(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Incorrect operands.");
+            exit();
+        }
+        if (!MAIN_FOLDER.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            exit();
+        }
+        String name = normalize(args[1]);
+        if (name == null || getActive().getBlobId(name) == null) {
+            System.out.println("File does not exist in that commit.");
+            exit();
+        }
+        Blame blame = new Blame(getActiveId(), name);
+        trace("blame: %d commits visited, %d versions read",
+                blame.visited(), blame.numbered());
+        try {
+            System.out.write(blame.format());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        System.out.flush();
+    }
+
+    /**
+     * Put in NOW the blob id of the contents of each file of OLD that
+     * is in the working directory, found from the stat cache where it
+     * can be. Files missing from the working directory are left out.
+     * @param old Blob ids of the files to compare, by path
+     * @param now Map to fill with the ids of the working files
+     */
+    static void workingIds(Map<String, String> old, Map<String, String> now) {
+        StatCache cache = StatCache.read();
+        TreeMap<String, StatCache.Entry> present =
+            new TreeMap<String, StatCache.Entry>();
+        for (String path : old.keySet()) {
+            StatCache.Entry stat = StatCache.stat(Utils.join(CWD, path));
+            if (stat != null) {
+                present.put(path, stat);
+            }
+        }
+        cache.hashAll(CWD, present);
+        for (String path : present.keySet()) {
+            now.put(path, cache.id(CWD, path, present.get(path)));
+        }
+        cache.write();
     }
     /**
      * Deletes the branch with the given name. This only means to
@@ -435,21 +840,38 @@ public class Main {
     public static void rmBranch(String[] args) {
         if (args.length != 2) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            exit();
         }
         String name = args[1];
         List<String> branches = Utils.plainFilenamesIn(BRANCH);
         if (!branches.contains(name)) {
             System.out.println(" A branch with that name does not exist.");
-            System.exit(0);
+            exit();
         }
         String currentBranchName = getActiveName();
         if (currentBranchName.equals(name)) {
             System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            exit();
         }
         File file = Utils.join(BRANCH, name);
         file.delete();
+        Reachability.remove(name);
+    }
+    /**
+     * Return the full id of the commit whose id is or begins with ID.
+     * Exits with a message if there is no such commit or more than one.
+     * @param id Full or abbreviated commit id
+     */
+    static String resolveCommit(String id) {
+        List<String> ids = CommitIndex.resolve(id, 2);
+        if (ids.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            exit();
+        } else if (ids.size() > 1) {
+            System.out.println("Commit id " + id + " is ambiguous.");
+            exit();
+        }
+        return ids.get(0);
     }
     /**
      * Checks out all the files tracked by the given commit.
@@ -459,60 +881,47 @@ public class Main {
      */
     public static void reset(String[] args) {
         String id = args[1];
-        String target = null;
-        List<String> ids = Utils.plainFilenamesIn(Commit.COMMIT_FOLDER);
-        for (String s : ids) {
-            String i = s.substring(0, id.length());
-            if (id.equals(i)) {
-                target = s;
-                break;
-            }
-        }
-        if (target == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
-        }
+        String target = resolveCommit(id);
         Commit commit = Commit.fromFile(target);
         Commit activeCommit = getActive();
-        List<String> untrackedFiles = new ArrayList<String>();
-        for (String s : commit.getReference().keySet()) {
-            if (!activeCommit.getReference().containsKey(s)) {
-                untrackedFiles.add(s);
-            }
-        }
-        for (String s : untrackedFiles) {
-            List<String> filesCWD = Utils.plainFilenamesIn(CWD);
-            if (filesCWD.contains(s)) {
-                System.out.println("There is an untracked file in the way;"
-                        + " delete it or add it first.");
-                System.exit(0);
+        List<TreeDiff.Change> changes = TreeDiff.changes(
+                activeCommit.getTree(), commit.getTree());
+        checkUntracked(changes);
+        clearStage();
+        applyChanges("reset", changes);
+        String branchHead = getActiveName();
+        File head = Utils.join(BRANCH, branchHead);
+        Durable.writeRef(head, commit.getSha1());
+        Reachability.update(branchHead);
+    }
+    /**
+     * Tidies the object store, removing temporary files left behind
+     * by interrupted commands and packing loose objects. With
+     * --recompress, first rewrites every loose blob with the codec
+     * chosen for its contents.
+     * @param args Array {"gc", ["--recompress"]}
+     */
+    public static void gc(String[] args) {
+        if (args.length > 2
+                || (args.length == 2 && !args[1].equals("--recompress"))) {
+            System.out.println("Incorrect operands.");
+            exit();
+        }
+        int count = 0;
+        long change = 0;
+        for (String name : Utils.plainFilenamesIn(Blob.BLOB_FOLDER)) {
+            if (name.startsWith("tmp")) {
+                Utils.join(Blob.BLOB_FOLDER, name).delete();
+            } else if (args.length == 2) {
+                change += Blob.recompress(name);
+                count += 1;
             }
         }
-
-        for (String s : Utils.plainFilenamesIn(STAGING_REMOVE)) {
-            Utils.join(STAGING_REMOVE, s).delete();
-        }
-        for (String s : Utils.plainFilenamesIn(STAGING_ADD)) {
-            Utils.join(STAGING_ADD, s).delete();
-        }
-
-        HashMap<String, Blob> reference = commit.getReference();
-        for (String name : reference.keySet()) {
-            String[] arr = {"checkout", id, "--", name };
-            Main.checkout(arr);
-        }
-        Commit current = getActive();
-        Set<String> files = current.getReference().keySet();
-        for (String s : files) {
-            if (!reference.containsKey(s)) {
-                File rmFile = Utils.join(CWD, s);
-                rmFile.delete();
-            }
+        if (args.length == 2) {
+            System.out.printf("Recompressed %d blobs, %+d bytes.%n",
+                    count, change);
         }
-        String branchHead = getActiveName();
-        File head = Utils.join(BRANCH, branchHead);
-        Utils.writeObject(head, commit);
-
+        Pack.packLoose();
     }
     /**
      * merge.
@@ -521,53 +930,25 @@ public class Main {
     public static void merge(String[] args) {
         if (args.length != 2) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            exit();
         }
         String branch = args[1];
-        Commit current = getActive();
         Commit givenBranch = getBranch(branch);
-        Commit lca = lca(branch);
         checkMerge(branch);
-
-        Set<String> lcaFiles = lca.getReference().keySet();
-        Set<String> currentFiles = current.getReference().keySet();
-        Set<String> branchFiles = givenBranch.getReference().keySet();
         Boolean hasConflict = mergeAddRm(branch);
-        for (String name : branchFiles) {
-            if (!lcaFiles.contains(name)
-                    && branchFiles.contains(name)) {
-                File file = Utils.join(CWD, name);
-                givenBranch.getBlob(name).write(file);
-                String[] arr = {"add", name};
-                Main.add(arr);
-            }
-        }
         String message = "Merged " + branch + " into "
                 + getActiveName() + ".";
         if (hasConflict) {
             System.out.println("Encountered a merge conflict.");
         }
-        List<String> addFiles = Utils.plainFilenamesIn(STAGING_ADD);
-        List<String> rmFiles = Utils.plainFilenamesIn(STAGING_REMOVE);
-        HashMap<String, Blob> reference = getActive().getReference();
-        for (String s : rmFiles) {
-            if (reference.containsKey(s)) {
-                reference.remove(s);
-            }
-        }
         Commit parent = getActive();
-        for (String name : addFiles) {
-            File file = Utils.join(STAGING_ADD, name);
-            Blob blob = Utils.readObject(file, Blob.class);
-            reference.put(name, blob);
-            file.delete();
-        }
-        Commit currentCommit = new Commit(message, reference,
-                parent, false, givenBranch);
+        Commit currentCommit = new Commit(message,
+                commitStage(Stage.read(), parent), parent.getSha1(),
+                givenBranch.getSha1(), new Date());
         currentCommit.saveCommit();
-        clearStage();
         File activeBranch = getActiveFile();
-        Utils.writeObject(activeBranch, currentCommit);
+        Durable.writeRef(activeBranch, currentCommit.getSha1());
+        Reachability.update(getActiveName());
     }
     /**
      * Check if the merge command has error.
@@ -576,57 +957,47 @@ public class Main {
     public static void checkMerge(String branch) {
         Commit current = getActive();
         Commit givenBranch = getBranch(branch);
-        Commit lca = lca(branch);
-        List<String> addFiles = Utils.plainFilenamesIn(STAGING_ADD);
-        List<String> rmFiles = Utils.plainFilenamesIn(STAGING_REMOVE);
-        if (!addFiles.isEmpty() || !rmFiles.isEmpty()) {
+        if (!Stage.read().isEmpty()) {
             System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            exit();
         }
         if (current.equals(givenBranch)) {
             System.out.println("Cannot merge a branch with itself");
-            System.exit(0);
+            exit();
         }
-        if (lca.equals(givenBranch)) {
+        if (Reachability.isAncestor(givenBranch.getSha1(),
+                getActiveName())) {
             System.out.println("Given branch is an ancestor "
                     + "of the current branch.");
-            System.exit(0);
-        }
-        if (lca.equals(current)) {
-            File file = Utils.join(BRANCH, "active");
-            Utils.writeObject(file, givenBranch);
-            Set<String> currentFiles = current.getReference().keySet();
-            Set<String> branchFiles = givenBranch.getReference().keySet();
-            for (String name : branchFiles) {
-                File f = Utils.join(CWD, name);
-                givenBranch.getBlob(name).write(f);
-            }
-            for (String name : currentFiles) {
-                File f = Utils.join(CWD, name);
-                if (!branchFiles.contains(name)) {
-                    f.delete();
-                }
-            }
+            exit();
+        }
+        List<TreeDiff.Change> changes = TreeDiff.changes(
+                current.getTree(), givenBranch.getTree());
+        if (Reachability.isAncestor(current.getSha1(), branch)) {
+            checkUntracked(changes);
+            applyChanges("merge", changes);
+            Durable.writeRef(getActiveFile(), givenBranch.getSha1());
+            Reachability.update(getActiveName());
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
-        }
-        Set<String> lcaFiles = lca.getReference().keySet();
-        Set<String> currentFiles = current.getReference().keySet();
-        Set<String> branchFiles = givenBranch.getReference().keySet();
-        for (String name : branchFiles) {
-            File cwd = Utils.join(CWD, name);
-            if (!currentFiles.contains(name)
-                    && cwd.exists()) {
+            exit();
+        }
+        for (TreeDiff.Change change : changes) {
+            if (change.oldId() == null
+                    && Utils.join(CWD, change.path()).exists()) {
                 System.out.print("There is an untracked "
                         +  "file in the way; delete it or add it first.");
-                System.exit(0);
+                exit();
             }
         }
     }
     /**
      * Add and remove some files to the
      * staging area according to merge rules
-     * and Return if there is conflict.
+     * and Return if there is conflict. Only the files that the given
+     * branch changed since the split point are visited, and those the
+     * current branch also changed are merged line by line. A file one
+     * branch renamed and the other edited is merged under its new
+     * name, so that the edit follows the file.
      * @param branch Name of the given branch.
      *
      */
@@ -634,54 +1005,96 @@ public class Main {
         Commit current = getActive();
         Commit givenBranch = getBranch(branch);
         Commit lca = lca(branch);
-        Set<String> lcaFiles = lca.getReference().keySet();
-        Set<String> currentFiles = current.getReference().keySet();
-        Set<String> branchFiles = givenBranch.getReference().keySet();
+        TreeMap<String, TreeDiff.Change> ours =
+            TreeDiff.byPath(lca.getTree(), current.getTree());
+        List<TreeDiff.Change> given =
+            TreeDiff.changes(lca.getTree(), givenBranch.getTree());
+        TreeMap<String, TreeDiff.Change> theirsByPath =
+            new TreeMap<String, TreeDiff.Change>();
+        for (TreeDiff.Change change : given) {
+            theirsByPath.put(change.path(), change);
+        }
         Boolean hasConflict = false;
-        for (String name : lcaFiles) {
-            if (!sameContent(lca, givenBranch, name)
-                    && sameContent(lca, current, name)) {
-                if (branchFiles.contains(name)) {
-                    File file = Utils.join(CWD, name);
-                    givenBranch.getBlob(name).write(file);
-                    String[] arr = {"add", name};
-                    Main.add(arr);
-                }
+        Stage stage = Stage.read();
+        StatCache cache = StatCache.read();
+        HashSet<String> done = new HashSet<String>();
+        for (Renames.Rename r : Renames.detect(given, false)) {
+            TreeDiff.Change mine = ours.get(r.from().path());
+            if (r.copy() || mine == null || mine.newId() == null
+                    || ours.containsKey(r.to().path())) {
+                continue;
             }
-            if (!lcaFiles.contains(name)
-                    && !currentFiles.contains(name)
-                    && branchFiles.contains(name)) {
-                File file = Utils.join(CWD, name);
-                givenBranch.getBlob(name).write(file);
-                String[] arr = {"add", name};
-                Main.add(arr);
-            } else if (lcaFiles.contains(name)
-                    && sameContent(lca, current, name)
-                    && !branchFiles.contains(name)) {
-                String[] arr = {"rm", name};
-                Main.rm(arr);
-            } else if (!sameContent(lca, givenBranch, name)
-                    && !sameContent(lca, current, name)
-                    && !sameContent(current, givenBranch, name)) {
-                String gbContent = branchFiles.contains(name)
-                        ? new String(givenBranch.getBlob(name).getContent())
-                        : "";
-                String currContent = currentFiles.contains(name)
-                        ? new String(current.getBlob(name).getContent())
-                        : "";
-                String conflictContent = "<<<<<<< HEAD\n"
-                        + currContent + "=======\n"
-                        + gbContent + ">>>>>>>\n";
-                File file = Utils.join(CWD, name);
-                Utils.writeContents(file, conflictContent);
-                String[] arr = {"add", name};
-                Main.add(arr);
-                hasConflict = true;
+            stage.remove(r.from().path(), mine.newId());
+            deleteWorkingFile(r.from().path());
+            hasConflict |= mergeFile(stage, cache, r.to().path(),
+                    r.from().oldId(), mine.newId(), r.to().newId());
+            done.add(r.from().path());
+            done.add(r.to().path());
+        }
+        for (Renames.Rename r : Renames.detect(
+                 new ArrayList<TreeDiff.Change>(ours.values()), false)) {
+            String name = r.from().path();
+            TreeDiff.Change theirs = theirsByPath.get(name);
+            if (r.copy() || theirs == null || theirs.newId() == null
+                    || done.contains(name)
+                    || theirsByPath.containsKey(r.to().path())) {
+                continue;
+            }
+            hasConflict |= mergeFile(stage, cache, r.to().path(),
+                    theirs.oldId(), r.to().newId(), theirs.newId());
+            done.add(name);
+        }
+        for (TreeDiff.Change theirs : given) {
+            String name = theirs.path();
+            TreeDiff.Change mine = ours.get(name);
+            if (done.contains(name)) {
+                continue;
+            } else if (mine == null && theirs.newId() == null) {
+                stage.remove(name, theirs.oldId());
+                deleteWorkingFile(name);
+            } else if (mine == null) {
+                Blob.fromFile(theirs.newId()).write(Utils.join(CWD, name));
+                stage.add(name, theirs.newId());
+            } else if (!Objects.equals(mine.newId(), theirs.newId())) {
+                hasConflict |= mergeFile(stage, cache, name, theirs.oldId(),
+                        mine.newId(), theirs.newId());
             }
         }
+        cache.write();
+        stage.write();
         return hasConflict;
     }
 
+    /**
+     * Write to the file PATH the three-way merge of the blobs OURS and
+     * THEIRS from the blob BASE, stage it in STAGE, and return true if
+     * the merge has conflicts. A null id stands for an absent file.
+     * @param stage Staging area
+     * @param cache Stat cache of the working directory
+     * @param path Path of the merged file
+     * @param base Blob id at the split point
+     * @param ours Blob id on the current branch
+     * @param theirs Blob id on the given branch
+     */
+    static boolean mergeFile(Stage stage, StatCache cache, String path,
+                             String base, String ours, String theirs) {
+        Merge3 merged = new Merge3(content(base), content(ours),
+                content(theirs));
+        File file = Utils.join(CWD, path);
+        file.getParentFile().mkdirs();
+        Utils.writeContents(file, merged.result());
+        stage(stage, cache, getCurrent(), path);
+        return merged.conflicts() > 0;
+    }
+
+    /**
+     * Return the contents of the blob ID, or none if ID is null.
+     * @param id Blob id or null
+     */
+    static byte[] content(String id) {
+        return id == null ? new byte[0] : Blob.fromFile(id).getContent();
+    }
+
     /**
      * Return the current commit.
      */
@@ -691,14 +1104,19 @@ public class Main {
             throw new IllegalArgumentException(
                     "No commit with that sha1 value found ;(");
         }
-        return Utils.readObject(commitFile, Commit.class);
+        return Commit.fromFile(Utils.readContentsAsString(commitFile));
     }
     /**
      * Return the commit of the active branch.
      */
     public static Commit getActive() {
-        File activeBranch = getActiveFile();
-        return Utils.readObject(activeBranch, Commit.class);
+        return Commit.fromFile(getActiveId());
+    }
+    /**
+     * Return the id of the head commit of the active branch.
+     */
+    public static String getActiveId() {
+        return Utils.readContentsAsString(getActiveFile());
     }
     /**
      * Return the active branch file.
@@ -714,7 +1132,7 @@ public class Main {
         File activeFile = Utils.join(BRANCH, "active");
         if (!activeFile.exists()) {
             System.out.println("No commit with that sha1 value found ;(");
-            System.exit(0);
+            exit();
         }
         return Utils.readContentsAsString(activeFile);
     }
@@ -726,9 +1144,9 @@ public class Main {
         File file = Utils.join(BRANCH, branch);
         if (!file.exists()) {
             System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            exit();
         }
-        return Utils.readObject(file, Commit.class);
+        return Commit.fromFile(Utils.readContentsAsString(file));
 
     }
 
@@ -738,74 +1156,199 @@ public class Main {
      * @param branch Given branch
      */
     public static Commit lca(String branch) {
-        Commit branchHead = getBranch(branch);
-        Commit current = getActive();
-        HashSet<Commit> commits = getCommits(branchHead);
-        HashSet<String> commitIDs = new HashSet<String>();
-        for (Commit c : commits) {
-            commitIDs.add(c.getSha1());
-        }
-        LinkedBlockingQueue<Commit> queue = new LinkedBlockingQueue<>();
-        queue.add(current);
-        while (!queue.isEmpty()) {
-            Commit commit = queue.poll();
-            if (commitIDs.contains(commit.getSha1())) {
-                return commit;
-            }
-            if (commit.getParent() != null) {
-                queue.add(commit.getParent());
+        getBranch(branch);
+        String base = Reachability.mergeBase(getActiveName(), branch);
+        return base == null ? null : Commit.fromFile(base);
+    }
+    /** Clear the staging area. */
+    public static void clearStage() {
+        Stage stage = Stage.read();
+        stage.clear();
+        stage.write();
+    }
+
+    /**
+     * Return the id of the root tree of PARENT with the changes staged
+     * in STAGE applied, storing the trees on the changed paths, and
+     * clear the staging area. Unchanged subtrees are shared with PARENT.
+     * @param stage Staging area
+     * @param parent Commit the changes were staged against
+     */
+    static String commitStage(Stage stage, Commit parent) {
+        TreeMap<String, String> changes = new TreeMap<String, String>();
+        for (String s : stage.removed().keySet()) {
+            changes.put(s, null);
+        }
+        changes.putAll(stage.added());
+        String tree = Tree.update(parent.getTree(), changes);
+        stage.clear();
+        stage.write();
+        return tree;
+    }
+
+    /**
+     * Return the paths in PATHS that the argument ARG of add or rm
+     * names: all of them for ".", those matching it if it is a glob
+     * pattern, or else the path itself or the paths under it.
+     * @param arg Argument given by the user
+     * @param paths Paths to choose from, with '/' between names
+     */
+    static SortedSet<String> matching(String arg, NavigableSet<String> paths) {
+        if (arg.equals(".")) {
+            return paths;
+        }
+        TreeSet<String> result = new TreeSet<String>();
+        if (arg.matches(".*[*?\\[{].*")) {
+            PathMatcher glob = FileSystems.getDefault().getPathMatcher(
+                    "glob:" + (arg.startsWith("./") ? arg.substring(2) : arg));
+            for (String path : paths) {
+                if (glob.matches(Paths.get(path))) {
+                    result.add(path);
+                }
             }
-            if (commit.getMerge() != null) {
-                queue.add(commit.getMerge());
+            return result;
+        }
+        String name = normalize(arg);
+        if (name != null) {
+            if (paths.contains(name)) {
+                result.add(name);
             }
+            result.addAll(paths.subSet(name + "/", name + "0"));
         }
-        return null;
+        return result;
     }
+
     /**
-     * Return all the commits of a branch from a given head.
-     * @param commit head commit
+     * Return NAME, a path in the working directory, with '/' between
+     * its names and without "." or "..", or null if it lies outside
+     * the working directory or inside the repository folder.
+     * @param name Path given by the user
      */
-    public static HashSet<Commit> getCommits(Commit commit) {
-        HashSet<Commit> commits =  new HashSet<Commit>();
-        if (commit == null) {
-            return commits;
-        } else {
-            commits.add(commit);
-            commits.addAll(getCommits(commit.getParent()));
-            commits.addAll(getCommits(commit.getMerge()));
-            return commits;
+    static String normalize(String name) {
+        Path path = Paths.get(name).normalize();
+        if (path.isAbsolute() || path.getNameCount() == 0
+                || path.getName(0).toString().isEmpty()
+                || path.startsWith("..")
+                || path.startsWith(MAIN_FOLDER.getName())) {
+            return null;
+        }
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Bring the working directory from one commit to another by
+     * applying CHANGES, the diff between them, for the command
+     * COMMAND. Paths the commits agree on are not looked at, and a
+     * changed file is only written if, by its cached stat data or
+     * else its hash, it does not already hold its new contents. Files
+     * are deleted first, so that a file may replace a directory and
+     * the reverse, and the rest written in parallel.
+     * @param command Name of the command, for tracing
+     * @param changes Changes from the current commit to the target
+     */
+    static void applyChanges(String command, List<TreeDiff.Change> changes) {
+        long start = System.nanoTime();
+        StatCache cache = StatCache.read();
+        TreeMap<String, StatCache.Entry> present =
+            new TreeMap<String, StatCache.Entry>();
+        int deleted = 0;
+        for (TreeDiff.Change change : changes) {
+            if (change.newId() == null) {
+                deleteWorkingFile(change.path());
+                deleted += 1;
+                continue;
+            }
+            StatCache.Entry stat =
+                StatCache.stat(Utils.join(CWD, change.path()));
+            if (stat != null) {
+                present.put(change.path(), stat);
+            }
+        }
+        cache.hashAll(CWD, present);
+        ArrayList<String> paths = new ArrayList<String>();
+        ArrayList<String> ids = new ArrayList<String>();
+        for (TreeDiff.Change change : changes) {
+            String path = change.path();
+            StatCache.Entry stat = present.get(path);
+            if (change.newId() != null && (stat == null
+                    || !change.newId().equals(cache.id(CWD, path, stat)))) {
+                paths.add(path);
+                ids.add(change.newId());
+            }
         }
+        StatCache.Entry[] stats = Materializer.writeAll(CWD, paths, ids);
+        for (int i = 0; i < stats.length; i += 1) {
+            if (stats[i] != null) {
+                cache.put(paths.get(i), stats[i], ids.get(i));
+            }
+        }
+        cache.write();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        trace("%s: %d written, %d skipped, %d deleted in %.3f s"
+                + " (%.0f files/s)", command, paths.size(),
+                changes.size() - deleted - paths.size(), deleted,
+                seconds, paths.size() / seconds);
     }
+
     /**
-     * Return True if two commits have the same content
-     * of the given file.
-     * @param commit1 first commit
-     * @param commit2 second commit
-     * @param file file name
+     * Print a line composed from FORMAT and ARGS as for String.format
+     * to the standard error if the GITLET_TRACE environment variable
+     * is set.
+     * @param format Format of the line
+     * @param args Arguments of the format
      */
-    public static Boolean sameContent(
-            Commit commit1, Commit commit2, String file) {
-        if (commit1.getBlob(file) != null) {
-            return commit1.getBlob(file).equals(
-                    commit2.getBlob(file));
+    static void trace(String format, Object... args) {
+        if (_trace) {
+            System.err.printf(format + "%n", args);
         }
+    }
 
-        return commit2.getBlob(file) == null;
+    /**
+     * Return true if commands report what they did on the standard
+     * error.
+     * @return Whether commands trace
+     */
+    static boolean tracing() {
+        return _trace;
+    }
 
+    /**
+     * Have commands report what they did on the standard error, as
+     * the daemon does for a client that set GITLET_TRACE, if ON.
+     * @param on Whether commands trace
+     */
+    static void setTrace(boolean on) {
+        _trace = on;
     }
-    /** Clear the staging area. */
-    public static void clearStage() {
-        List<String> addFiles = Utils.plainFilenamesIn(STAGING_ADD);
-        List<String> rmFiles = Utils.plainFilenamesIn(STAGING_REMOVE);
 
-        for (String s : rmFiles) {
-            File file = Utils.join(STAGING_REMOVE, s);
-            file.delete();
+    /**
+     * Exit with a message if any file that CHANGES would add to the
+     * working directory is already there untracked.
+     * @param changes Changes from the current commit to the target
+     */
+    static void checkUntracked(List<TreeDiff.Change> changes) {
+        for (TreeDiff.Change change : changes) {
+            if (change.oldId() == null
+                    && Utils.join(CWD, change.path()).exists()) {
+                System.out.println("There is an untracked file in the way;"
+                       +  " delete it or add it first.");
+                exit();
+            }
         }
-        Commit parent = getActive();
-        for (String name : addFiles) {
-            File file = Utils.join(STAGING_ADD, name);
-            file.delete();
+    }
+
+    /**
+     * Delete the file PATH from the working directory, along with any
+     * directories above it that this leaves empty.
+     * @param path Path of the file
+     */
+    static void deleteWorkingFile(String path) {
+        Utils.join(CWD, path).delete();
+        for (int slash = path.lastIndexOf('/'); slash > 0;
+             slash = path.lastIndexOf('/', slash - 1)) {
+            if (!Utils.join(CWD, path.substring(0, slash)).delete()) {
+                break;
+            }
         }
     }
     public static void setup() {
@@ -0,0 +1,111 @@
+package gitlet;
+
+import java.io.File;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Writes many blobs out to the working directory at once. The
+ *  directories the files need are made first, in one pass in order of
+ *  path, so that the writers never race to make them. The files are
+ *  then written on the pool that Hasher uses, each thread taking a
+ *  range of them and splitting it further when others are idle, so
+ *  no more files are open at once than there are threads. Blobs
+ *  stored uncompressed are copied by the system; others are inflated
+ *  as they are written. The stat data of each file is taken as soon
+ *  as it is written, for the caller's StatCache.
+ *  @author Chris Wang
+ */
+class Materializer {
+
+    /** Batches smaller than this are written on the calling thread. */
+    static final int PARALLEL_MIN = 4;
+
+    /** Write the blobs with ids IDS to the files PATHS under DIR, in
+     *  parallel on the shared pool, and return the stat data of the
+     *  files written, in the same order. */
+    static StatCache.Entry[] writeAll(File dir, List<String> paths,
+                                      List<String> ids) {
+        return writeAll(dir, paths, ids,
+                paths.size() < PARALLEL_MIN ? null : Hasher.pool());
+    }
+
+    /** Write the blobs with ids IDS to the files PATHS under DIR on
+     *  POOL, or on the calling thread if POOL is null, and return the
+     *  stat data of the files written, in the same order. */
+    static StatCache.Entry[] writeAll(File dir, List<String> paths,
+                                      List<String> ids, ForkJoinPool pool) {
+        makeDirectories(dir, paths);
+        StatCache.Entry[] stats = new StatCache.Entry[paths.size()];
+        Task task = new Task(dir, paths, ids, stats, 0, stats.length);
+        if (pool == null) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+        return stats;
+    }
+
+    /** Make every directory under DIR that the files PATHS lie in,
+     *  visiting each only once. */
+    private static void makeDirectories(File dir, List<String> paths) {
+        TreeSet<String> dirs = new TreeSet<String>();
+        for (String path : paths) {
+            int slash = path.lastIndexOf('/');
+            if (slash > 0) {
+                dirs.add(path.substring(0, slash));
+            }
+        }
+        String made = null;
+        for (String d : dirs.descendingSet()) {
+            if (made == null || !made.startsWith(d + "/")) {
+                Utils.join(dir, d).mkdirs();
+            }
+            made = d;
+        }
+    }
+
+    /** Writes a range of a list of blobs to their files. */
+    private static class Task extends RecursiveAction {
+        /** A task that writes IDS from START up to END to the files
+         *  PATHS under DIR, recording their stat data in STATS. */
+        Task(File dir, List<String> paths, List<String> ids,
+             StatCache.Entry[] stats, int start, int end) {
+            _dir = dir;
+            _paths = paths;
+            _ids = ids;
+            _stats = stats;
+            _start = start;
+            _end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (_end - _start <= 1) {
+                for (int i = _start; i < _end; i += 1) {
+                    File file = Utils.join(_dir, _paths.get(i));
+                    Blob.fromFile(_ids.get(i)).copyTo(file);
+                    _stats[i] = StatCache.stat(file);
+                }
+                return;
+            }
+            int mid = (_start + _end) >>> 1;
+            invokeAll(new Task(_dir, _paths, _ids, _stats, _start, mid),
+                      new Task(_dir, _paths, _ids, _stats, mid, _end));
+        }
+
+        /** Directory the paths are relative to. */
+        private final File _dir;
+        /** Paths of the files to write. */
+        private final List<String> _paths;
+        /** Ids of the blobs to write to them. */
+        private final List<String> _ids;
+        /** Stat data of the files, filled in as they are written. */
+        private final StatCache.Entry[] _stats;
+        /** First position this task writes. */
+        private final int _start;
+        /** Position after the last this task writes. */
+        private final int _end;
+    }
+}
@@ -0,0 +1,175 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** A three-way merge of the lines of a file, as diff3 does it. The
+ *  changes each side made to the base are found with LineDiff. Where
+ *  only one side changed a stretch of the base, that side's lines are
+ *  taken; where both changed overlapping or touching stretches in
+ *  different ways, both versions are written between conflict
+ *  markers. Everything else is copied from the base. Lines are copied
+ *  as ranges of the input arrays into the result, never as Strings.
+ *  @author Chris Wang
+ */
+class Merge3 {
+
+    /** Marker before the current side of a conflict. */
+    static final byte[] OURS_MARKER = bytes("<<<<<<< HEAD\n");
+    /** Marker between the two sides of a conflict. */
+    static final byte[] SPLIT_MARKER = bytes("=======\n");
+    /** Marker after the given side of a conflict. */
+    static final byte[] THEIRS_MARKER = bytes(">>>>>>>\n");
+    /** Number of leading bytes searched for a NUL to tell binary
+     *  files, which are not merged line by line. */
+    static final int BINARY_SAMPLE = 8000;
+
+    /** The merge of OURS and THEIRS, two versions of BASE. */
+    Merge3(byte[] base, byte[] ours, byte[] theirs) {
+        _base = new LineDiff.Lines(base);
+        _ours = new LineDiff.Lines(ours);
+        _theirs = new LineDiff.Lines(theirs);
+        if (binary(base) || binary(ours) || binary(theirs)) {
+            conflict(0, _ours.size(), 0, _theirs.size());
+            return;
+        }
+        merge(LineDiff.diff(_base, _ours), LineDiff.diff(_base, _theirs));
+    }
+
+    /** Return the merged contents. */
+    byte[] result() {
+        return _out.toByteArray();
+    }
+
+    /** Return the number of conflicts. */
+    int conflicts() {
+        return _conflicts;
+    }
+
+    /** Write the merge given the hunks MINE and YOURS that turn the
+     *  base into ours and into theirs. The base is cut into regions,
+     *  each the span of a chain of hunks of either side that overlap
+     *  or touch; hunks of one side never touch each other, as diff
+     *  joins adjacent changes. */
+    private void merge(List<LineDiff.Edit> mine, List<LineDiff.Edit> yours) {
+        int i = 0;
+        int j = 0;
+        int copied = 0;
+        while (i < mine.size() || j < yours.size()) {
+            int lo = Math.min(
+                    i < mine.size() ? mine.get(i).aStart() : Integer.MAX_VALUE,
+                    j < yours.size() ? yours.get(j).aStart()
+                    : Integer.MAX_VALUE);
+            int hi = lo;
+            int i0 = i;
+            int j0 = j;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                if (i < mine.size() && mine.get(i).aStart() <= hi) {
+                    hi = Math.max(hi, mine.get(i).aEnd());
+                    i += 1;
+                    grew = true;
+                }
+                if (j < yours.size() && yours.get(j).aStart() <= hi) {
+                    hi = Math.max(hi, yours.get(j).aEnd());
+                    j += 1;
+                    grew = true;
+                }
+            }
+            _base.write(_out, copied, lo);
+            copied = hi;
+            if (j == j0) {
+                _ours.write(_out, start(mine, i0, lo), end(mine, i - 1, hi));
+            } else if (i == i0) {
+                _theirs.write(_out, start(yours, j0, lo),
+                        end(yours, j - 1, hi));
+            } else {
+                int os = start(mine, i0, lo);
+                int oe = end(mine, i - 1, hi);
+                int ts = start(yours, j0, lo);
+                int te = end(yours, j - 1, hi);
+                if (same(os, oe, ts, te)) {
+                    _ours.write(_out, os, oe);
+                } else {
+                    conflict(os, oe, ts, te);
+                }
+            }
+        }
+        _base.write(_out, copied, _base.size());
+    }
+
+    /** Return the line of a side at which the base line LO falls,
+     *  given that EDITS.get(I) is that side's first hunk at or after
+     *  LO. */
+    private static int start(List<LineDiff.Edit> edits, int i, int lo) {
+        LineDiff.Edit e = edits.get(i);
+        return e.bStart() - (e.aStart() - lo);
+    }
+
+    /** Return the line of a side at which the base line HI falls,
+     *  given that EDITS.get(I) is that side's last hunk before HI. */
+    private static int end(List<LineDiff.Edit> edits, int i, int hi) {
+        LineDiff.Edit e = edits.get(i);
+        return e.bEnd() + (hi - e.aEnd());
+    }
+
+    /** Return true if our lines OS up to OE are their lines TS up to
+     *  TE. */
+    private boolean same(int os, int oe, int ts, int te) {
+        if (oe - os != te - ts) {
+            return false;
+        }
+        for (int k = 0; k < oe - os; k += 1) {
+            if (!_ours.same(os + k, _theirs, ts + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Write our lines OS up to OE and their lines TS up to TE between
+     *  conflict markers. */
+    private void conflict(int os, int oe, int ts, int te) {
+        _out.writeBytes(OURS_MARKER);
+        _ours.write(_out, os, oe);
+        if (!_ours.endsLine(os, oe)) {
+            _out.write('\n');
+        }
+        _out.writeBytes(SPLIT_MARKER);
+        _theirs.write(_out, ts, te);
+        if (!_theirs.endsLine(ts, te)) {
+            _out.write('\n');
+        }
+        _out.writeBytes(THEIRS_MARKER);
+        _conflicts += 1;
+    }
+
+    /** Return true if DATA looks binary: it has a NUL byte near its
+     *  start. */
+    static boolean binary(byte[] data) {
+        for (int i = 0; i < Math.min(data.length, BINARY_SAMPLE); i += 1) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the UTF-8 bytes of S. */
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Lines of the base. */
+    private final LineDiff.Lines _base;
+    /** Lines of the current side. */
+    private final LineDiff.Lines _ours;
+    /** Lines of the given side. */
+    private final LineDiff.Lines _theirs;
+    /** The merged contents. */
+    private final ByteArrayOutputStream _out = new ByteArrayOutputStream();
+    /** Number of conflicts written. */
+    private int _conflicts;
+}
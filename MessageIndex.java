@@ -0,0 +1,613 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/** A persistent index of commit messages, so that find and global-log
+ *  need not read every commit. What they need of each commit is kept
+ *  in a column file of its own, appended to as commits are saved:
+ *  after a tag and version byte, one record per commit of its raw id,
+ *  the raw ids of its parents or zeros, its time, a 4-byte length and
+ *  the message in UTF-8. Regular expressions are matched against this
+ *  file alone. The index file covers the records up to some length of
+ *  the column file, and holds, after a tag and version byte, the
+ *  length covered and the sizes of its two tables:
+ *  <ol>
+ *  <li> the positions of the records in order of message, for exact
+ *       and prefix searches by binary search; and
+ *  <li> for each run of three bytes of each lower-cased message, the
+ *       run and the position of the record, sorted, so that a search
+ *       for a substring only verifies the records that hold all of
+ *       its runs.
+ *  </ol>
+ *  Records after the length covered are searched one by one, and the
+ *  index is rewritten once there are LOG_LIMIT of them. Both files are
+ *  caches: if the column file is missing, or torn by a crash in the
+ *  middle of an append, it is rebuilt from the commits themselves.
+ *  @author Chris Wang
+ */
+class MessageIndex {
+    /** File holding the messages. */
+    static final File COLUMN_FILE = Utils.join(Main.MAIN_FOLDER, "messages");
+    /** File holding the index of the messages. */
+    static final File INDEX_FILE =
+        Utils.join(Main.MAIN_FOLDER, "message-index");
+    /** Number of records past the index at which it is rewritten. */
+    static final int LOG_LIMIT = 1024;
+    /** Length of a run of bytes in the substring table. */
+    static final int GRAM = 3;
+
+    /** Record that COMMIT has been saved. Nothing is recorded if there
+     *  is no column file yet, as the first search will build it from
+     *  all the commits. */
+    static void add(Commit commit) {
+        if (!COLUMN_FILE.exists()) {
+            return;
+        }
+        try (FileOutputStream out =
+                 new FileOutputStream(COLUMN_FILE, true)) {
+            out.write(record(commit));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _index = null;
+    }
+
+    /** Return the ids of the commits whose message is MESSAGE. */
+    static List<String> exact(String message) {
+        byte[] key = message.getBytes(StandardCharsets.UTF_8);
+        return byMessage(key, false, m -> m.equals(message));
+    }
+
+    /** Return the ids of the commits whose message starts with
+     *  PREFIX. */
+    static List<String> prefix(String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        return byMessage(key, true, m -> m.startsWith(prefix));
+    }
+
+    /** Return the ids of the commits whose message contains TEXT,
+     *  ignoring case. */
+    static List<String> contains(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        Predicate<String> test =
+            m -> m.toLowerCase(Locale.ROOT).contains(lower);
+        byte[] key = lower.getBytes(StandardCharsets.UTF_8);
+        if (key.length < GRAM) {
+            return scan(0, test);
+        }
+        MessageIndex index = get();
+        long[] candidates = null;
+        for (int i = 0; i + GRAM <= key.length; i += 1) {
+            long[] posts = index.postings(gram(key, i));
+            candidates = candidates == null ? posts
+                : intersect(candidates, posts);
+        }
+        TreeSet<String> found = new TreeSet<String>();
+        for (long pos : candidates) {
+            if (test.test(index.message((int) pos))) {
+                found.add(index.id((int) pos));
+            }
+        }
+        found.addAll(scan(index._covered, test));
+        return existing(found);
+    }
+
+    /** Return the ids of the commits whose message has a match for the
+     *  regular expression REGEX, reading only the column file. */
+    static List<String> grep(String regex) {
+        Pattern pattern = Pattern.compile(regex);
+        return scan(0, m -> pattern.matcher(m).find());
+    }
+
+    /** What the column file holds of a commit. */
+    static class Entry {
+        /** The metadata of the record at POS of COLUMN. */
+        Entry(ByteBuffer column, int pos) {
+            _id = MessageIndex.id(column, pos);
+            _parent = isZero(column, pos + Codec.ID_BYTES) ? null
+                : MessageIndex.id(column, pos + Codec.ID_BYTES);
+            _merge = isZero(column, pos + 2 * Codec.ID_BYTES) ? null
+                : MessageIndex.id(column, pos + 2 * Codec.ID_BYTES);
+            _time = column.getLong(pos + 3 * Codec.ID_BYTES);
+            _message = new String(bytes(column, pos), StandardCharsets.UTF_8);
+        }
+
+        /** Return the id of the commit. */
+        String id() {
+            return _id;
+        }
+
+        /** Return the id of the parent, or null. */
+        String parent() {
+            return _parent;
+        }
+
+        /** Return the id of the merged-in parent, or null. */
+        String merge() {
+            return _merge;
+        }
+
+        /** Return the time of the commit, in milliseconds. */
+        long time() {
+            return _time;
+        }
+
+        /** Return the message. */
+        String message() {
+            return _message;
+        }
+
+        /** Id of the commit. */
+        private final String _id;
+        /** Id of the parent, or null. */
+        private final String _parent;
+        /** Id of the merged-in parent, or null. */
+        private final String _merge;
+        /** Time of the commit. */
+        private final long _time;
+        /** Message of the commit. */
+        private final String _message;
+    }
+
+    /** Pass what the column file holds of every commit to VISITOR, in
+     *  order of id, until it returns false. Only the positions of the
+     *  records are held at once; each is decoded as it is visited. */
+    static void each(Predicate<Entry> visitor) {
+        ByteBuffer column = _index != null ? _index._column : column();
+        int[] positions = new int[16];
+        int count = 0;
+        for (int pos = 2; pos < column.limit(); pos = next(column, pos)) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count++] = pos;
+        }
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i += 1) {
+            order[i] = positions[i];
+        }
+        Arrays.sort(order, (a, b) -> compareIds(column, a, b));
+        for (int i = 0; i < count; i += 1) {
+            if (i > 0 && compareIds(column, order[i - 1], order[i]) == 0) {
+                continue;
+            }
+            if (!visitor.test(new Entry(column, order[i]))) {
+                return;
+            }
+        }
+    }
+
+    /** Write the column file and index afresh from the commits in the
+     *  repository. */
+    static void rebuild() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(TAG);
+        out.write(VERSION);
+        for (String id : Commit.allIds()) {
+            out.writeBytes(record(Commit.fromFile(id)));
+        }
+        replace(COLUMN_FILE, out.toByteArray());
+        INDEX_FILE.delete();
+        _index = null;
+    }
+
+    /** The index INDEX of the messages in the column file COLUMN. */
+    private MessageIndex(MappedByteBuffer column, ByteBuffer index) {
+        _column = column;
+        _map = index;
+        _covered = (int) index.getLong(2);
+        _sorted = index.getInt(10);
+        _grams = index.getInt(14);
+    }
+
+    /** Drop the index held in memory, so that it is read afresh when
+     *  next needed. */
+    static void forget() {
+        _index = null;
+    }
+
+    /** Return the index of the repository, rewriting it first if too
+     *  many records have been added since it was written. */
+    private static MessageIndex get() {
+        if (_index != null) {
+            return _index;
+        }
+        try {
+            _index = load();
+        } catch (IndexOutOfBoundsException | IllegalArgumentException excp) {
+            Main.trace("messages: index is damaged: %s", excp);
+            rebuild();
+            _index = load();
+        }
+        return _index;
+    }
+
+    /** Return the index of the repository read from its files,
+     *  rewriting the index file first if it is missing, damaged or
+     *  too far behind the column file. */
+    private static MessageIndex load() {
+        MappedByteBuffer column = column();
+        ByteBuffer index = INDEX_FILE.exists() ? map(INDEX_FILE) : null;
+        if (index == null || index.limit() < HEADER
+                || index.get(0) != INDEX_TAG || index.get(1) != VERSION
+                || index.getLong(2) > column.limit()
+                || index.limit() != HEADER + 4L * index.getInt(10)
+                    + 8L * index.getInt(14)
+                || records(column, (int) index.getLong(2)) >= LOG_LIMIT) {
+            index = ByteBuffer.wrap(write(column));
+        }
+        return new MessageIndex(column, index);
+    }
+
+    /** Return the contents of the column file, rebuilding it first if
+     *  it is missing, of another version, or torn, as by a crash in the
+     *  middle of an append. */
+    private static MappedByteBuffer column() {
+        MappedByteBuffer column = COLUMN_FILE.exists()
+            ? map(COLUMN_FILE) : null;
+        if (column == null || column.limit() < 2 || column.get(0) != TAG
+                || column.get(1) != VERSION || !whole(column)) {
+            if (column != null) {
+                Main.trace("messages: %s is damaged", COLUMN_FILE);
+            }
+            rebuild();
+            column = map(COLUMN_FILE);
+        }
+        return column;
+    }
+
+    /** Return true if the records of COLUMN, followed from the first,
+     *  end exactly at its end. */
+    private static boolean whole(ByteBuffer column) {
+        int pos = 2;
+        while (pos < column.limit()) {
+            if (column.limit() - pos < TEXT) {
+                return false;
+            }
+            int length = column.getInt(pos + LENGTH);
+            if (length < 0 || length > column.limit() - pos - TEXT) {
+                return false;
+            }
+            pos += TEXT + length;
+        }
+        return pos == column.limit();
+    }
+
+    /** Write and return an index of all the records of COLUMN. */
+    private static byte[] write(ByteBuffer column) {
+        ArrayList<Integer> records = new ArrayList<Integer>();
+        long[] grams = new long[16];
+        int count = 0;
+        for (int pos = 2; pos < column.limit(); pos = next(column, pos)) {
+            records.add(pos);
+            byte[] lower = lower(column, pos);
+            long[] mine = new long[Math.max(0, lower.length - GRAM + 1)];
+            for (int i = 0; i < mine.length; i += 1) {
+                mine[i] = (long) gram(lower, i) << 32 | pos;
+            }
+            Arrays.sort(mine);
+            for (int i = 0; i < mine.length; i += 1) {
+                if (i > 0 && mine[i] == mine[i - 1]) {
+                    continue;
+                }
+                if (count == grams.length) {
+                    grams = Arrays.copyOf(grams, count * 2);
+                }
+                grams[count++] = mine[i];
+            }
+        }
+        Arrays.sort(grams, 0, count);
+        records.sort((a, b) -> compare(column, a, column, b));
+        ByteBuffer out = ByteBuffer.allocate(HEADER + 4 * records.size()
+                + 8 * count);
+        out.put((byte) INDEX_TAG).put((byte) VERSION);
+        out.putLong(column.limit()).putInt(records.size()).putInt(count);
+        for (int pos : records) {
+            out.putInt(pos);
+        }
+        for (int i = 0; i < count; i += 1) {
+            out.putLong(grams[i]);
+        }
+        replace(INDEX_FILE, out.array());
+        return out.array();
+    }
+
+    /** Return the ids of the commits whose message starts with KEY, or
+     *  equals it unless PREFIX, found by binary search; those not yet
+     *  indexed are found with TEST. */
+    private static List<String> byMessage(byte[] key, boolean prefix,
+                                          Predicate<String> test) {
+        MessageIndex index = get();
+        ByteBuffer probe = ByteBuffer.allocate(2 + TEXT + key.length);
+        probe.position(2 + LENGTH);
+        probe.putInt(key.length).put(key);
+        int lo = index.lowerBound(probe, 2);
+        TreeSet<String> found = new TreeSet<String>();
+        for (int i = lo; i < index._sorted; i += 1) {
+            int pos = index._map.getInt(HEADER + 4 * i);
+            byte[] message = index.bytes(pos);
+            if (prefix ? !startsWith(message, key)
+                    : !Arrays.equals(message, key)) {
+                break;
+            }
+            found.add(index.id(pos));
+        }
+        found.addAll(scan(index._covered, test));
+        return existing(found);
+    }
+
+    /** Return the first position in the sorted table of records whose
+     *  message is not less than that of the record at POS of PROBE. */
+    private int lowerBound(ByteBuffer probe, int pos) {
+        int lo = 0;
+        int hi = _sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int at = _map.getInt(HEADER + 4 * mid);
+            if (compare(_column, at, probe, pos) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the positions of the records holding the run GRAM, in
+     *  increasing order. */
+    private long[] postings(int gram) {
+        int base = HEADER + 4 * _sorted;
+        long key = (long) gram << 32;
+        int lo = 0;
+        int hi = _grams;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_map.getLong(base + 8 * mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int end = lo;
+        while (end < _grams && _map.getLong(base + 8 * end) >>> 32 == gram) {
+            end += 1;
+        }
+        long[] result = new long[end - lo];
+        for (int i = lo; i < end; i += 1) {
+            result[i - lo] = _map.getLong(base + 8 * i) & 0xffffffffL;
+        }
+        return result;
+    }
+
+    /** Return the ids of the records from position FROM of the column
+     *  file on whose message passes TEST. */
+    private static List<String> scan(int from, Predicate<String> test) {
+        ByteBuffer column = _index != null ? _index._column : column();
+        TreeSet<String> found = new TreeSet<String>();
+        for (int pos = Math.max(from, 2); pos < column.limit();
+             pos = next(column, pos)) {
+            if (test.test(new String(bytes(column, pos),
+                                     StandardCharsets.UTF_8))) {
+                found.add(id(column, pos));
+            }
+        }
+        return existing(found);
+    }
+
+    /** Return those of IDS that are still commits, in order. */
+    private static List<String> existing(TreeSet<String> ids) {
+        ArrayList<String> result = new ArrayList<String>();
+        for (String id : ids) {
+            if (Commit.exists(id)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Return the message of the record at POS. */
+    private String message(int pos) {
+        return new String(bytes(pos), StandardCharsets.UTF_8);
+    }
+
+    /** Return the bytes of the message of the record at POS. */
+    private byte[] bytes(int pos) {
+        return bytes(_column, pos);
+    }
+
+    /** Return the bytes of the message of the record at POS of
+     *  COLUMN. */
+    private static byte[] bytes(ByteBuffer column, int pos) {
+        byte[] message = new byte[column.getInt(pos + LENGTH)];
+        column.get(pos + TEXT, message);
+        return message;
+    }
+
+    /** Return the commit id of the record at POS. */
+    private String id(int pos) {
+        return id(_column, pos);
+    }
+
+    /** Return the commit id of the record at POS of COLUMN. */
+    private static String id(ByteBuffer column, int pos) {
+        byte[] raw = new byte[Codec.ID_BYTES];
+        column.get(pos, raw);
+        return Utils.hex(raw);
+    }
+
+    /** Return the position of the record after the one at POS of
+     *  COLUMN. */
+    private static int next(ByteBuffer column, int pos) {
+        return pos + TEXT + column.getInt(pos + LENGTH);
+    }
+
+    /** Return the number of records of COLUMN from POS on. */
+    private static int records(ByteBuffer column, int pos) {
+        int count = 0;
+        for (; pos < column.limit(); pos = next(column, pos)) {
+            count += 1;
+        }
+        return count;
+    }
+
+    /** Return the UTF-8 bytes of the lower-cased message of the record
+     *  at POS of COLUMN. */
+    private static byte[] lower(ByteBuffer column, int pos) {
+        return new String(bytes(column, pos), StandardCharsets.UTF_8)
+            .toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Compare the message of the record at POS of A with that of the
+     *  record at QOS of B, byte by byte, unsigned. */
+    private static int compare(ByteBuffer a, int pos, ByteBuffer b,
+                               int qos) {
+        int m = a.getInt(pos + LENGTH);
+        int n = b.getInt(qos + LENGTH);
+        int p = pos + TEXT;
+        int q = qos + TEXT;
+        for (int i = 0; i < Math.min(m, n); i += 1) {
+            int c = Byte.compareUnsigned(a.get(p + i), b.get(q + i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(m, n);
+    }
+
+    /** Compare the ids of the records at POS and QOS of COLUMN. */
+    private static int compareIds(ByteBuffer column, int pos, int qos) {
+        for (int i = 0; i < Codec.ID_BYTES; i += 1) {
+            int c = Byte.compareUnsigned(column.get(pos + i),
+                    column.get(qos + i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Return true if the id at POS of COLUMN is all zeros, standing
+     *  for no commit. */
+    private static boolean isZero(ByteBuffer column, int pos) {
+        for (int i = 0; i < Codec.ID_BYTES; i += 1) {
+            if (column.get(pos + i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return true if MESSAGE starts with KEY. */
+    private static boolean startsWith(byte[] message, byte[] key) {
+        return message.length >= key.length
+            && Arrays.equals(message, 0, key.length, key, 0, key.length);
+    }
+
+    /** Return the run of GRAM bytes of DATA from I, as an int. */
+    private static int gram(byte[] data, int i) {
+        return (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8
+            | (data[i + 2] & 0xff);
+    }
+
+    /** Return the values common to the sorted arrays A and B. */
+    private static long[] intersect(long[] a, long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n++] = a[i];
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return the record of COMMIT. */
+    private static byte[] record(Commit commit) {
+        byte[] text = commit.getMessage().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = ByteBuffer.allocate(TEXT + text.length);
+        out.put(Codec.toBytes(commit.getSha1()));
+        for (String id : new String[] {commit.getParentId(),
+                                       commit.getMergeId()}) {
+            out.put(id == null ? new byte[Codec.ID_BYTES]
+                    : Codec.toBytes(id));
+        }
+        out.putLong(commit.getTime().getTime());
+        return out.putInt(text.length).put(text).array();
+    }
+
+    /** Return the contents of FILE, mapped. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath())) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Replace the contents of FILE with DATA at once. */
+    private static void replace(File file, byte[] data) {
+        try {
+            File tmp = File.createTempFile("tmp", null, Main.MAIN_FOLDER);
+            try {
+                Utils.writeContents(tmp, data);
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmp.delete();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Size of the header of the index file. */
+    private static final int HEADER = 2 + 8 + 4 + 4;
+    /** Leading byte of the column file. */
+    private static final int TAG = 'n';
+    /** Leading byte of the index file. */
+    private static final int INDEX_TAG = 'q';
+    /** Current format version of both files. */
+    private static final int VERSION = 2;
+    /** Offset in a record of the length of the message. */
+    private static final int LENGTH = 3 * Codec.ID_BYTES + 8;
+    /** Offset in a record of the message. */
+    private static final int TEXT = LENGTH + 4;
+
+    /** The index of the repository, or null if it has not been read
+     *  since it last changed. */
+    private static MessageIndex _index;
+
+    /** The contents of the column file. */
+    private final MappedByteBuffer _column;
+    /** The contents of the index file. */
+    private final ByteBuffer _map;
+    /** Length of the column file the index covers. */
+    private final int _covered;
+    /** Number of records in the table sorted by message. */
+    private final int _sorted;
+    /** Number of entries in the substring table. */
+    private final int _grams;
+}
@@ -0,0 +1,216 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/** One-shot converter from the old on-disk format, where every commit
+ *  embedded its whole ancestry and the bytes of every file, to the
+ *  format where commits refer to parents and blobs by SHA-1.
+ *  @author Chris Wang
+ */
+class Migrate {
+
+    /** Rewrite the repository in the current directory to the
+     *  id-based commit format. Does nothing if it is already in it. */
+    static void migrate() {
+        if (!Main.MAIN_FOLDER.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            Main.exit();
+        }
+        File current = Utils.join(Commit.CURRENT_FOLDER, "current");
+        if (!isLegacy(current)) {
+            System.out.println("Repository is already up to date.");
+            return;
+        }
+        List<String> oldCommits =
+                Utils.plainFilenamesIn(Commit.COMMIT_FOLDER);
+        List<String> oldBlobs = Utils.plainFilenamesIn(Blob.BLOB_FOLDER);
+        HashMap<String, String> converted = new HashMap<String, String>();
+        HashSet<String> written = new HashSet<String>();
+
+        for (String id : oldCommits) {
+            convert(read(Utils.join(Commit.COMMIT_FOLDER, id)),
+                    converted, written);
+        }
+        for (String name : Utils.plainFilenamesIn(Main.BRANCH)) {
+            if (name.equals("active")) {
+                continue;
+            }
+            File branch = Utils.join(Main.BRANCH, name);
+            Durable.writeRef(branch, convert(read(branch),
+                    converted, written));
+        }
+        Durable.writeRef(current, convert(read(current),
+                converted, written));
+        for (String id : oldCommits) {
+            if (!written.contains(id)) {
+                Utils.join(Commit.COMMIT_FOLDER, id).delete();
+            }
+        }
+        CommitIndex.rebuild();
+        CommitGraph.rebuild();
+        MessageIndex.rebuild();
+        for (String name : Utils.plainFilenamesIn(Main.STAGING_ADD)) {
+            File file = Utils.join(Main.STAGING_ADD, name);
+            Blob blob = read(file, LegacyBlob.class).toBlob();
+            blob.saveBlob();
+            written.add(blob.getSha1());
+            Utils.writeContents(file, blob.getSha1());
+        }
+        for (String id : oldBlobs) {
+            if (!written.contains(id)) {
+                Utils.join(Blob.BLOB_FOLDER, id).delete();
+            }
+        }
+        for (String name : Utils.plainFilenamesIn(Main.STAGING_REMOVE)) {
+            File file = Utils.join(Main.STAGING_REMOVE, name);
+            if (isLegacy(file)) {
+                Utils.writeContents(file, read(file, LegacyBlob.class)
+                        .toBlob().getSha1());
+            }
+        }
+    }
+
+    /** Return true if FILE holds a serialized object rather than
+     *  a plain id. */
+    private static boolean isLegacy(File file) {
+        byte[] contents = Utils.readContents(file);
+        return contents.length >= 2
+                && (contents[0] & 0xff) == 0xac
+                && (contents[1] & 0xff) == 0xed;
+    }
+
+    /** Write COMMIT and all its ancestors in the new format, returning
+     *  the id of the rewritten COMMIT. CONVERTED maps old commit ids to
+     *  new ones and WRITTEN collects the names of every object written.
+     *  Ancestors are walked with an explicit stack so that long
+     *  histories do not overflow the call stack. */
+    private static String convert(LegacyCommit commit,
+                                  Map<String, String> converted,
+                                  HashSet<String> written) {
+        ArrayList<LegacyCommit> stack = new ArrayList<LegacyCommit>();
+        stack.add(commit);
+        while (!stack.isEmpty()) {
+            LegacyCommit c = stack.get(stack.size() - 1);
+            if (converted.containsKey(c._sha1)) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            boolean ready = true;
+            for (LegacyCommit p : new LegacyCommit[] {
+                c._parent, c._mergeInParent }) {
+                if (p != null && !converted.containsKey(p._sha1)) {
+                    stack.add(p);
+                    ready = false;
+                }
+            }
+            if (!ready) {
+                continue;
+            }
+            HashMap<String, String> reference = new HashMap<String, String>();
+            for (Map.Entry<String, LegacyBlob> e
+                     : c._reference.entrySet()) {
+                Blob blob = e.getValue().toBlob();
+                if (written.add(blob.getSha1())) {
+                    blob.saveBlob();
+                }
+                reference.put(e.getKey(), blob.getSha1());
+            }
+            Commit result = new Commit(c._message, reference,
+                    c._parent == null ? null
+                            : converted.get(c._parent._sha1),
+                    c._mergeInParent == null ? null
+                            : converted.get(c._mergeInParent._sha1),
+                    c._time);
+            result.saveObject();
+            written.add(result.getSha1());
+            converted.put(c._sha1, result.getSha1());
+            stack.remove(stack.size() - 1);
+        }
+        return converted.get(commit._sha1);
+    }
+
+    /** Return the old-format commit stored in FILE. */
+    private static LegacyCommit read(File file) {
+        return read(file, LegacyCommit.class);
+    }
+
+    /** Return the old-format object of type EXPECTEDCLASS stored
+     *  in FILE. */
+    private static <T> T read(File file, Class<T> expectedClass) {
+        try (ObjectInputStream in =
+                 new LegacyInputStream(new FileInputStream(file))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** An ObjectInputStream that reads the old Commit and Blob classes
+     *  into their legacy stand-ins. The legacy classes use the same
+     *  field names, so the serialized field layout lines up. */
+    private static class LegacyInputStream extends ObjectInputStream {
+
+        /** A stream reading from IN. */
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+            throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            switch (desc.getName()) {
+            case "gitlet.Commit":
+                return ObjectStreamClass.lookup(LegacyCommit.class);
+            case "gitlet.Blob":
+                return ObjectStreamClass.lookup(LegacyBlob.class);
+            default:
+                return desc;
+            }
+        }
+    }
+
+    /** Commit as it was stored before parents became ids. */
+    private static class LegacyCommit implements Serializable {
+        /** message of the commit. */
+        private String _message;
+        /** reference of the commit. */
+        private HashMap<String, LegacyBlob> _reference;
+        /** time of this commit. */
+        private Date _time;
+        /** Parent of this commit. */
+        private LegacyCommit _parent;
+        /** SHA-1 value of this commit .*/
+        private String _sha1;
+        /** If it's is initial commit. */
+        private Boolean _isInitial;
+        /** merge-in parent. */
+        private LegacyCommit _mergeInParent;
+    }
+
+    /** Blob as it was stored before the id-based format. */
+    private static class LegacyBlob implements Serializable {
+        /** contents of the blob stored in byte array type.*/
+        private byte[] _content;
+        /** sha1 value of the blob.*/
+        private String _sha1;
+
+        /** Return a current-format blob with the same contents. */
+        Blob toBlob() {
+            return new Blob(_content);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** The objects of the repository already decoded in this process, by
+ *  id, so that a command that comes back to a commit or blob, as merge
+ *  does to the heads of both branches and their common ancestor, reads
+ *  and decodes it only once. Objects are named by the SHA-1 of their
+ *  contents and never change, so an entry never goes stale. Each entry
+ *  is weighed by roughly the bytes it holds, and when the total passes
+ *  the capacity the entries least recently asked for are dropped.
+ *  Hits, misses and evictions are counted for tracing. Blobs are read
+ *  from the threads that check out files in parallel, so every method
+ *  locks the cache.
+ *  @author Chris Wang
+ */
+class ObjectCache {
+
+    /** Capacity of the repository's cache, in bytes: 64 MiB, or an
+     *  eighth of the heap if that is less. */
+    static final long CAPACITY =
+        Math.min(64L << 20, Runtime.getRuntime().maxMemory() / 8);
+    /** Weight of an entry beyond the bytes its object holds. */
+    static final long OVERHEAD = 96;
+
+    /** An empty cache holding up to CAPACITY bytes. */
+    ObjectCache(long capacity) {
+        _capacity = capacity;
+    }
+
+    /** Return the cache of the repository. */
+    static ObjectCache get() {
+        return CACHE;
+    }
+
+    /** Return the object ID if it is cached and of class TYPE, making
+     *  it the most recently used, or else null. */
+    synchronized <T> T find(String id, Class<T> type) {
+        Entry e = _entries.get(id);
+        if (e == null || !type.isInstance(e._value)) {
+            _misses += 1;
+            return null;
+        }
+        _hits += 1;
+        return type.cast(e._value);
+    }
+
+    /** Cache VALUE, the object ID, which holds about WEIGHT bytes,
+     *  replacing any object cached for ID, and drop the least recently
+     *  used entries while the cache holds too much. An object heavier
+     *  than the whole cache is not kept, and leaves the others be. */
+    synchronized void put(String id, Object value, long weight) {
+        Entry e = new Entry(value, weight + OVERHEAD);
+        if (e._weight > _capacity) {
+            Entry old = _entries.remove(id);
+            _weight -= old == null ? 0 : old._weight;
+            return;
+        }
+        Entry old = _entries.put(id, e);
+        _weight += e._weight - (old == null ? 0 : old._weight);
+        Iterator<Map.Entry<String, Entry>> it =
+            _entries.entrySet().iterator();
+        while (_weight > _capacity && it.hasNext()) {
+            _weight -= it.next().getValue()._weight;
+            it.remove();
+            _evictions += 1;
+        }
+    }
+
+    /** Record that VALUE, the object ID, now holds about WEIGHT bytes,
+     *  if it is the object cached for ID. */
+    synchronized void reweigh(String id, Object value, long weight) {
+        Entry e = _entries.get(id);
+        if (e != null && e._value == value) {
+            put(id, value, weight);
+        }
+    }
+
+    /** Drop every entry. */
+    synchronized void clear() {
+        _entries.clear();
+        _weight = 0;
+    }
+
+    /** Return the number of objects cached. */
+    synchronized int size() {
+        return _entries.size();
+    }
+
+    /** Return the total weight of the objects cached, in bytes. */
+    synchronized long weight() {
+        return _weight;
+    }
+
+    /** Return the number of lookups that found their object. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that did not. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Return the number of entries dropped to make room. */
+    synchronized long evictions() {
+        return _evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d hits, %d misses, %d evicted; %d objects,"
+                + " %d KiB cached", _hits, _misses, _evictions,
+                _entries.size(), _weight >> 10);
+    }
+
+    /** A cached object and its weight. */
+    private static class Entry {
+        /** The object VALUE, weighing WEIGHT bytes. */
+        Entry(Object value, long weight) {
+            _value = value;
+            _weight = weight;
+        }
+
+        /** The object. */
+        private final Object _value;
+        /** Its weight in bytes. */
+        private final long _weight;
+    }
+
+    /** The cache of the repository. */
+    private static final ObjectCache CACHE = new ObjectCache(CAPACITY);
+
+    /** Entries by id, least recently used first. */
+    private final LinkedHashMap<String, Entry> _entries =
+        new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    /** Most bytes the entries may weigh together. */
+    private final long _capacity;
+    /** Bytes the entries weigh together. */
+    private long _weight;
+    /** Number of lookups that found their object. */
+    private long _hits;
+    /** Number of lookups that did not. */
+    private long _misses;
+    /** Number of entries dropped to make room. */
+    private long _evictions;
+}
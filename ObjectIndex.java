@@ -0,0 +1,179 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/** A sorted table of object ids, read through a memory map. The file
+ *  is a tag and version byte, a 4-byte count, a fanout table of 256
+ *  4-byte entries, where entry B is the number of ids whose first byte
+ *  is at most B, then the ids as raw 20-byte values in ascending order.
+ *  Any per-id columns the owner of the index needs follow the ids.
+ *  Looking up a full id is a binary search within its fanout bucket;
+ *  abbreviated ids are resolved to the range of ids they prefix.
+ *  @author Chris Wang
+ */
+class ObjectIndex {
+
+    /** Size of the fixed header, up to the first id. */
+    static final int HEADER = 2 + 4 + 256 * 4;
+
+    /** The index stored in FILE, which must exist. */
+    ObjectIndex(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath())) {
+            _map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_map.limit() < HEADER || (_map.get(0) & 0xff) != TAG
+                || (_map.get(1) & 0xff) != VERSION) {
+            throw Utils.error("%s is not a gitlet index of a known "
+                    + "version.", file.getName());
+        }
+        _count = _map.getInt(2);
+    }
+
+    /** Return the bytes of an index of IDS, which must be sorted raw
+     *  ids, followed by COLUMNS. */
+    static byte[] encode(List<byte[]> ids, byte[] columns) {
+        ByteBuffer out = ByteBuffer.allocate(HEADER
+                + ids.size() * Codec.ID_BYTES + columns.length);
+        out.put((byte) TAG).put((byte) VERSION).putInt(ids.size());
+        int bucket = 0;
+        for (int i = 0; i < ids.size(); i += 1) {
+            int first = ids.get(i)[0] & 0xff;
+            while (bucket < first) {
+                out.putInt(HEADER_FANOUT + 4 * bucket, i);
+                bucket += 1;
+            }
+        }
+        while (bucket < 256) {
+            out.putInt(HEADER_FANOUT + 4 * bucket, ids.size());
+            bucket += 1;
+        }
+        out.position(HEADER);
+        for (byte[] id : ids) {
+            out.put(id, 0, Codec.ID_BYTES);
+        }
+        out.put(columns);
+        return out.array();
+    }
+
+    /** Return the number of ids in the index. */
+    int size() {
+        return _count;
+    }
+
+    /** Return the position in the file of the first byte after the
+     *  ids, where the owner's columns start. */
+    int columns() {
+        return HEADER + _count * Codec.ID_BYTES;
+    }
+
+    /** Return the mapped contents of the file. */
+    ByteBuffer map() {
+        return _map;
+    }
+
+    /** Return the position of the raw id KEY, or -1 if it is absent. */
+    int find(byte[] key) {
+        int lo = lower(key, 0);
+        return lo < upper(key[0] & 0xff) && compare(lo, key) == 0 ? lo : -1;
+    }
+
+    /** Return the full ids that begin with the hex digits PREFIX, at
+     *  most LIMIT of them. */
+    List<String> resolve(String prefix, int limit) {
+        ArrayList<String> result = new ArrayList<String>();
+        String low = pad(prefix, '0');
+        String high = pad(prefix, 'f');
+        if (low == null) {
+            return result;
+        }
+        byte[] highKey = Codec.toBytes(high);
+        for (int i = lower(Codec.toBytes(low), 0);
+             i < _count && compare(i, highKey) <= 0 && result.size() < limit;
+             i += 1) {
+            result.add(idAt(i));
+        }
+        return result;
+    }
+
+    /** Return the id at position I as 40 hex digits. */
+    String idAt(int i) {
+        byte[] id = new byte[Codec.ID_BYTES];
+        _map.get(HEADER + i * Codec.ID_BYTES, id);
+        return Utils.hex(id);
+    }
+
+    /** Return the first position whose id is not less than KEY, looking
+     *  no earlier than FROM. */
+    private int lower(byte[] key, int from) {
+        int bucket = key[0] & 0xff;
+        int lo = Math.max(from, bucket == 0 ? 0 : upper(bucket - 1));
+        int hi = upper(bucket);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the number of ids whose first byte is at most BUCKET. */
+    private int upper(int bucket) {
+        return _map.getInt(HEADER_FANOUT + 4 * bucket);
+    }
+
+    /** Compare the id at position I with the raw id KEY, as unsigned
+     *  bytes. */
+    private int compare(int i, byte[] key) {
+        int base = HEADER + i * Codec.ID_BYTES;
+        for (int k = 0; k < Codec.ID_BYTES; k += 1) {
+            int c = (_map.get(base + k) & 0xff) - (key[k] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Return PREFIX padded to a full id with copies of DIGIT, or null
+     *  if PREFIX is not made of hex digits or is too long. */
+    private static String pad(String prefix, char digit) {
+        if (prefix.isEmpty() || prefix.length() > Utils.UID_LENGTH) {
+            return null;
+        }
+        StringBuilder result = new StringBuilder(Utils.UID_LENGTH);
+        for (int i = 0; i < prefix.length(); i += 1) {
+            char c = Character.toLowerCase(prefix.charAt(i));
+            if (Character.digit(c, 16) < 0) {
+                return null;
+            }
+            result.append(c);
+        }
+        while (result.length() < Utils.UID_LENGTH) {
+            result.append(digit);
+        }
+        return result.toString();
+    }
+
+    /** Leading byte of an index. */
+    private static final int TAG = 'x';
+    /** Current format version of indexes. */
+    private static final int VERSION = 2;
+    /** Position of the fanout table. */
+    private static final int HEADER_FANOUT = 6;
+
+    /** The contents of the index file. */
+    private final MappedByteBuffer _map;
+    /** Number of ids in the index. */
+    private final int _count;
+}
@@ -0,0 +1,625 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** A packfile: many objects stored one after another in a single
+ *  file, with an index file listing their ids in sorted order. gc
+ *  moves loose objects into a new pack; Blob, Commit and Tree fall back
+ *  to the packs when an object is not loose. Within a pack a blob may be
+ *  stored as a Delta against an older or newer version of the same
+ *  file.
+ *
+ *  A pack file is a tag and version followed by entries, each a type
+ *  byte, a delta-depth byte, an 8-byte payload length and the payload:
+ *  the encoded commit or tree, the stored blob exactly as it was loose, or the
+ *  raw id of the base blob followed by the deflated delta. The index
+ *  is an ObjectIndex of the ids whose columns are a type byte for
+ *  each id followed by the 8-byte offset of each entry. Indexes
+ *  written in version 1, a flat list of records searched in memory,
+ *  are rewritten the first time they are read.
+ *  @author Chris Wang
+ */
+class Pack {
+    /** Folder that stores all packs. */
+    static final File PACK_FOLDER = Utils.join(Main.MAIN_FOLDER, "pack");
+    /** Entry type of a commit. */
+    static final int COMMIT = 1;
+    /** Entry type of a blob stored whole. */
+    static final int BLOB = 2;
+    /** Entry type of a blob stored as a delta against another blob. */
+    static final int BLOB_DELTA = 3;
+    /** Entry type of a tree. */
+    static final int TREE = 4;
+    /** Longest chain of deltas a blob may need to be rebuilt. */
+    static final int MAX_DEPTH = 10;
+    /** Largest blob that is considered for delta encoding, since both
+     *  versions must be held in memory. */
+    static final long DELTA_LIMIT = 16L << 20;
+
+    /** The pack whose entries are in PACKFILE and whose index is
+     *  mapped from INDEXFILE. */
+    private Pack(File packFile, File indexFile) {
+        _file = packFile;
+        _index = new ObjectIndex(indexFile);
+    }
+
+    /** Return true if some pack holds the object with id ID. */
+    static boolean contains(String id) {
+        return locate(id) != null;
+    }
+
+    /** Return the encoded commit with id ID from the packs, or null
+     *  if no pack holds it. */
+    static byte[] readCommit(String id) {
+        return read(id);
+    }
+
+    /** Return the encoded tree with id ID from the packs, or null if
+     *  no pack holds it. */
+    static byte[] readTree(String id) {
+        return read(id);
+    }
+
+    /** Return the payload of the entry with id ID from the packs, or
+     *  null if no pack holds it. */
+    private static byte[] read(String id) {
+        Entry e = locate(id);
+        if (e == null) {
+            return null;
+        }
+        try (FileChannel ch = FileChannel.open(e._pack._file.toPath())) {
+            return e.payload(ch);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream over the contents of the blob with id ID from
+     *  the packs, or null if no pack holds it. */
+    static InputStream openBlob(String id) throws IOException {
+        Entry e = locate(id);
+        if (e == null) {
+            return null;
+        }
+        FileChannel ch = FileChannel.open(e._pack._file.toPath());
+        byte[] payload;
+        try {
+            if (e.type(ch) == BLOB) {
+                ch.position(e.start());
+                return Blob.contents(new Limited(
+                        Channels.newInputStream(ch), e.length(ch)));
+            }
+            payload = e.payload(ch);
+        } catch (IOException | RuntimeException excp) {
+            ch.close();
+            throw excp;
+        }
+        ch.close();
+        String base = Utils.hex(Arrays.copyOf(payload, Codec.ID_BYTES));
+        return new ByteArrayInputStream(Delta.apply(
+                Blob.fromFile(base).getContent(), inflateDelta(payload)));
+    }
+
+    /** Copy the contents of the packed blob with id ID to OUT without
+     *  passing them through the heap and return true, or return false
+     *  if no pack holds it whole and uncompressed. */
+    static boolean transferBlob(String id, FileChannel out)
+        throws IOException {
+        Entry e = locate(id);
+        if (e == null) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(e._pack._file.toPath())) {
+            return e.type(ch) == BLOB
+                && Blob.transferStored(ch, e.start(), out);
+        }
+    }
+
+    /** Return the number of bytes in the contents of the blob with id
+     *  ID from the packs, or -1 if no pack holds it. */
+    static long blobSize(String id) throws IOException {
+        Entry e = locate(id);
+        if (e == null) {
+            return -1;
+        }
+        try (FileChannel ch = FileChannel.open(e._pack._file.toPath())) {
+            if (e.type(ch) == BLOB) {
+                ch.position(e.start());
+                return Blob.storedSize(Channels.newInputStream(ch));
+            }
+            Codec.Decoder in = Delta.decoder(inflateDelta(e.payload(ch)));
+            in.readVarint();
+            return in.readVarint();
+        }
+    }
+
+    /** Return the delta stored in the delta entry payload PAYLOAD. */
+    private static byte[] inflateDelta(byte[] payload) throws IOException {
+        try (InflaterInputStream z = new InflaterInputStream(
+                 new ByteArrayInputStream(payload, Codec.ID_BYTES,
+                         payload.length - Codec.ID_BYTES))) {
+            return z.readAllBytes();
+        }
+    }
+
+    /** Return the number of deltas that must be applied to rebuild the
+     *  blob with id ID, which is 0 unless it is packed as a delta. */
+    static int depth(String id) {
+        Entry e = locate(id);
+        if (e == null) {
+            return 0;
+        }
+        try (FileChannel ch = FileChannel.open(e._pack._file.toPath())) {
+            ByteBuffer buf = ByteBuffer.allocate(2);
+            ch.read(buf, e._offset);
+            return buf.get(1);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the ids of all packed objects of type TYPE, where BLOB
+     *  includes blobs stored as deltas. */
+    static List<String> ids(int type) {
+        ArrayList<String> result = new ArrayList<String>();
+        for (Pack pack : packs()) {
+            for (int i = 0; i < pack._index.size(); i += 1) {
+                int t = pack.type(i) == BLOB_DELTA ? BLOB : pack.type(i);
+                if (t == type) {
+                    result.add(pack._index.idAt(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Move every loose commit, tree and blob into a new pack, delta-encoding
+     *  blobs against other versions of the same file where that saves
+     *  at least half their size. Return the number of objects packed. */
+    static int packLoose() {
+        List<String> commits = Utils.plainFilenamesIn(Commit.COMMIT_FOLDER);
+        List<String> trees = Utils.plainFilenamesIn(Tree.TREE_FOLDER);
+        if (trees == null) {
+            trees = new ArrayList<String>();
+        }
+        ArrayList<String> blobs = new ArrayList<String>();
+        for (String name : Utils.plainFilenamesIn(Blob.BLOB_FOLDER)) {
+            if (name.length() == Utils.UID_LENGTH) {
+                blobs.add(name);
+            }
+        }
+        if (commits.isEmpty() && trees.isEmpty() && blobs.isEmpty()) {
+            return 0;
+        }
+        HashMap<String, Integer> rank = new HashMap<String, Integer>();
+        HashMap<String, String> bases =
+            deltaBases(new HashSet<String>(blobs), rank);
+        blobs.sort(Comparator.comparing(
+            (String id) -> rank.getOrDefault(id, Integer.MAX_VALUE)));
+
+        PACK_FOLDER.mkdirs();
+        File tmpPack = null;
+        File tmpIndex = null;
+        try {
+            tmpPack = File.createTempFile("tmp", null, PACK_FOLDER);
+            tmpIndex = File.createTempFile("tmp", null, PACK_FOLDER);
+            ArrayList<byte[]> records = new ArrayList<byte[]>();
+            HashMap<String, Integer> depths = new HashMap<String, Integer>();
+            try (Writer out = new Writer(tmpPack)) {
+                for (String id : commits) {
+                    records.add(out.entry(id, COMMIT, 0, Utils.readContents(
+                            Utils.join(Commit.COMMIT_FOLDER, id))));
+                }
+                for (String id : trees) {
+                    records.add(out.entry(id, TREE, 0, Utils.readContents(
+                            Utils.join(Tree.TREE_FOLDER, id))));
+                }
+                for (String id : blobs) {
+                    File loose = Utils.join(Blob.BLOB_FOLDER, id);
+                    String base = bases.get(id);
+                    byte[] payload = null;
+                    int depth = 0;
+                    if (base != null) {
+                        depth = depths.containsKey(base)
+                            ? depths.get(base) + 1 : depth(base) + 1;
+                        if (depth <= MAX_DEPTH) {
+                            payload = deltaPayload(base, id, loose.length());
+                        }
+                    }
+                    if (payload == null) {
+                        depth = 0;
+                        records.add(out.entry(id, BLOB, loose));
+                    } else {
+                        records.add(out.entry(id, BLOB_DELTA, depth,
+                                payload));
+                    }
+                    depths.put(id, depth);
+                }
+            }
+            records.sort(Pack::compareIds);
+            MessageDigest md = Utils.sha1Digest();
+            for (byte[] record : records) {
+                md.update(record, 0, Codec.ID_BYTES);
+            }
+            Utils.writeContents(tmpIndex, encodeIndex(records));
+            String base = "pack-" + Utils.hex(md.digest());
+            Durable.commit(tmpPack, Utils.join(PACK_FOLDER, base + ".pack"));
+            Durable.commit(tmpIndex, Utils.join(PACK_FOLDER, base + ".idx"));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmpPack != null) {
+                tmpPack.delete();
+            }
+            if (tmpIndex != null) {
+                tmpIndex.delete();
+            }
+        }
+        forget();
+        Durable.sync();
+        for (String id : commits) {
+            Utils.join(Commit.COMMIT_FOLDER, id).delete();
+        }
+        for (String id : trees) {
+            Utils.join(Tree.TREE_FOLDER, id).delete();
+        }
+        for (String id : blobs) {
+            Utils.join(Blob.BLOB_FOLDER, id).delete();
+        }
+        return commits.size() + trees.size() + blobs.size();
+    }
+
+    /** Return, for each blob in LOOSE, the blob it should be delta
+     *  encoded against: the next newer version of a file of the same
+     *  name in some commit. Blobs are ranked in RANK by the order in
+     *  which a newest-first walk of all commits meets them, and a base
+     *  always ranks before the blob based on it, so deltas never form
+     *  a cycle. */
+    private static HashMap<String, String> deltaBases(
+            HashSet<String> loose, Map<String, Integer> rank) {
+        ArrayList<Commit> commits = new ArrayList<Commit>();
+        for (String id : Commit.allIds()) {
+            commits.add(Commit.fromFile(id));
+        }
+        commits.sort(Comparator.comparing(Commit::getTime)
+                .thenComparing(Commit::getSha1).reversed());
+        HashMap<String, String> newest = new HashMap<String, String>();
+        HashMap<String, String> bases = new HashMap<String, String>();
+        for (Commit commit : commits) {
+            ArrayList<String> names =
+                new ArrayList<String>(commit.getReference().keySet());
+            Collections.sort(names);
+            for (String name : names) {
+                String blob = commit.getBlobId(name);
+                rank.putIfAbsent(blob, rank.size());
+                String newer = newest.put(name, blob);
+                if (newer != null && !newer.equals(blob)
+                        && loose.contains(blob) && !bases.containsKey(blob)
+                        && rank.get(newer) < rank.get(blob)) {
+                    bases.put(blob, newer);
+                }
+            }
+        }
+        return bases;
+    }
+
+    /** Return the pack payload storing blob ID, whose loose object
+     *  takes LOOSESIZE bytes, as a delta against blob BASE, or null if
+     *  that would not save at least half the space. */
+    private static byte[] deltaPayload(String base, String id,
+                                       long looseSize) throws IOException {
+        Blob baseBlob = Blob.fromFile(base);
+        Blob blob = Blob.fromFile(id);
+        if (baseBlob.size() > DELTA_LIMIT || blob.size() > DELTA_LIMIT) {
+            return null;
+        }
+        byte[] delta = Delta.create(baseBlob.getContent(),
+                blob.getContent());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(Codec.toBytes(base));
+        DeflaterOutputStream z = new DeflaterOutputStream(bytes);
+        z.write(delta);
+        z.close();
+        return bytes.size() * 2 <= looseSize ? bytes.toByteArray() : null;
+    }
+
+    /** Order index records by their leading raw ids, A and B. */
+    private static int compareIds(byte[] a, byte[] b) {
+        return Arrays.compareUnsigned(a, 0, Codec.ID_BYTES,
+                b, 0, Codec.ID_BYTES);
+    }
+
+    /** Return the packed entry holding the object with id ID, or null. */
+    private static Entry locate(String id) {
+        if (id.length() != Utils.UID_LENGTH) {
+            return null;
+        }
+        byte[] key = Codec.toBytes(id);
+        for (Pack pack : packs()) {
+            int i = pack._index.find(key);
+            if (i >= 0) {
+                return new Entry(pack, pack.offset(i));
+            }
+        }
+        return null;
+    }
+
+    /** Return the type of the entry at position I of the index. */
+    private int type(int i) {
+        return _index.map().get(_index.columns() + i);
+    }
+
+    /** Return the offset of the entry at position I of the index. */
+    private long offset(int i) {
+        return _index.map().getLong(_index.columns() + _index.size()
+                + 8 * i);
+    }
+
+    /** Return the bytes of an index of the sorted index RECORDS, each
+     *  a raw id, a type byte and an 8-byte offset. */
+    private static byte[] encodeIndex(List<byte[]> records) {
+        ArrayList<byte[]> ids = new ArrayList<byte[]>();
+        ByteBuffer columns = ByteBuffer.allocate(9 * records.size());
+        for (byte[] record : records) {
+            ids.add(record);
+            columns.put(record[Codec.ID_BYTES]);
+        }
+        for (byte[] record : records) {
+            columns.put(record, Codec.ID_BYTES + 1, 8);
+        }
+        return ObjectIndex.encode(ids, columns.array());
+    }
+
+    /** Rewrite the version 1 index in FILE in the current format. */
+    private static void upgradeIndex(File file) {
+        Codec.Decoder in = new Codec.Decoder(Utils.readContents(file),
+                INDEX_TAG, VERSION);
+        int count = (in.readByte() << 24) | (in.readByte() << 16)
+            | (in.readByte() << 8) | in.readByte();
+        ArrayList<byte[]> records = new ArrayList<byte[]>();
+        for (int i = 0; i < count; i += 1) {
+            byte[] record = new byte[INDEX_RECORD];
+            in.readRaw(record, 0, INDEX_RECORD);
+            records.add(record);
+        }
+        try {
+            File tmp = File.createTempFile("tmp", null, PACK_FOLDER);
+            Utils.writeContents(tmp, encodeIndex(records));
+            Durable.commit(tmp, file);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Drop the packs held in memory, so that PACK_FOLDER is listed
+     *  afresh when they are next needed. */
+    static synchronized void forget() {
+        _packs = null;
+    }
+
+    /** Return all the packs in PACK_FOLDER, reading their indexes the
+     *  first time this is called. Checkout asks from several threads
+     *  at once, so the list is read under a lock, by one thread, and
+     *  only published once it is whole. */
+    private static List<Pack> packs() {
+        List<Pack> packs = _packs;
+        if (packs != null) {
+            return packs;
+        }
+        synchronized (Pack.class) {
+            if (_packs != null) {
+                return _packs;
+            }
+            packs = new ArrayList<Pack>();
+            List<String> names = Utils.plainFilenamesIn(PACK_FOLDER);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        String base = name.substring(0, name.length() - 4);
+                        File index = Utils.join(PACK_FOLDER, name);
+                        if (indexVersion(index) == VERSION) {
+                            upgradeIndex(index);
+                        }
+                        packs.add(new Pack(
+                                Utils.join(PACK_FOLDER, base + ".pack"),
+                                index));
+                    }
+                }
+            }
+            _packs = packs;
+            return packs;
+        }
+    }
+
+    /** Return the format version of the index in FILE. */
+    private static int indexVersion(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            in.read();
+            return in.read();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** The location of one object in a pack. */
+    private static class Entry {
+        /** The entry at OFFSET in PACK. */
+        Entry(Pack pack, long offset) {
+            _pack = pack;
+            _offset = offset;
+        }
+
+        /** Return the type of the entry, read through CH. */
+        int type(FileChannel ch) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(1);
+            ch.read(buf, _offset);
+            return buf.get(0);
+        }
+
+        /** Return the length of the payload, read through CH. */
+        long length(FileChannel ch) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(8);
+            ch.read(buf, _offset + 2);
+            return buf.getLong(0);
+        }
+
+        /** Return the position of the payload in the pack. */
+        long start() {
+            return _offset + ENTRY_HEADER;
+        }
+
+        /** Return the whole payload, read through CH. */
+        byte[] payload(FileChannel ch) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate((int) length(ch));
+            long pos = start();
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, pos);
+                if (n < 0) {
+                    throw Utils.error("Truncated pack %s.",
+                            _pack._file.getName());
+                }
+                pos += n;
+            }
+            return buf.array();
+        }
+
+        /** The pack holding the entry. */
+        private final Pack _pack;
+        /** Offset of the entry in the pack. */
+        private final long _offset;
+    }
+
+    /** Writes the entries of a new pack, recording where each starts. */
+    private static class Writer implements AutoCloseable {
+        /** A writer of a new pack in FILE. */
+        Writer(File file) throws IOException {
+            _out = new BufferedOutputStream(
+                    Files.newOutputStream(file.toPath()), Blob.CHUNK);
+            byte[] header = new Codec.Encoder(PACK_TAG, VERSION)
+                .toByteArray();
+            _out.write(header);
+            _offset = header.length;
+        }
+
+        /** Append an entry for object ID of type TYPE and delta depth
+         *  DEPTH whose payload is PAYLOAD. Return its index record. */
+        byte[] entry(String id, int type, int depth, byte[] payload)
+            throws IOException {
+            byte[] record = start(id, type, depth, payload.length);
+            _out.write(payload);
+            _offset += payload.length;
+            return record;
+        }
+
+        /** Append an entry for object ID of type TYPE whose payload is
+         *  the contents of FILE. Return its index record. */
+        byte[] entry(String id, int type, File file) throws IOException {
+            byte[] record = start(id, type, 0, file.length());
+            long copied = Files.copy(file.toPath(), _out);
+            _offset += copied;
+            return record;
+        }
+
+        /** Write the header of an entry for object ID of type TYPE and
+         *  delta depth DEPTH with a payload of LENGTH bytes. Return its
+         *  index record. */
+        private byte[] start(String id, int type, int depth, long length)
+            throws IOException {
+            ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD);
+            record.put(Codec.toBytes(id)).put((byte) type).putLong(_offset);
+            ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER);
+            header.put((byte) type).put((byte) depth).putLong(length);
+            _out.write(header.array());
+            _offset += ENTRY_HEADER;
+            return record.array();
+        }
+
+        @Override
+        public void close() throws IOException {
+            _out.close();
+        }
+
+        /** Stream the pack is written to. */
+        private final OutputStream _out;
+        /** Number of bytes written so far. */
+        private long _offset;
+    }
+
+    /** A stream over the first few bytes of another stream. */
+    private static class Limited extends FilterInputStream {
+        /** A stream over the first LIMIT bytes of IN. */
+        Limited(InputStream in, long limit) {
+            super(in);
+            _left = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (_left <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                _left -= 1;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_left <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, _left));
+            if (n > 0) {
+                _left -= n;
+            }
+            return n;
+        }
+
+        /** Number of bytes still to be read. */
+        private long _left;
+    }
+
+    /** Leading byte of a pack file. */
+    private static final int PACK_TAG = 'p';
+    /** Leading byte of a pack index. */
+    private static final int INDEX_TAG = 'x';
+    /** Format version of packs, and of the indexes that predate
+     *  ObjectIndex. */
+    private static final int VERSION = 1;
+    /** Size of the header of an entry in a pack. */
+    private static final int ENTRY_HEADER = 10;
+    /** Size of a record in a pack index. */
+    private static final int INDEX_RECORD = Codec.ID_BYTES + 9;
+
+    /** All the packs, or null if they have not been read yet. */
+    private static volatile List<Pack> _packs;
+
+    /** The file holding the entries. */
+    private final File _file;
+    /** The index of the entries. */
+    private final ObjectIndex _index;
+}
@@ -0,0 +1,206 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/** Reachability bitmaps: for each branch, the set of the positions in
+ *  the CommitGraph of its head and every ancestor of its head. Ancestor
+ *  tests become a single bit lookup and merge bases a walk that stops
+ *  at the first bit set.
+ *
+ *  Each bitmap is kept in BITMAP_FOLDER under the name of its branch,
+ *  as a tag and version, the raw id and graph position of the head it
+ *  was computed for, and the set bits as runs: a varint count, then
+ *  for each run the varint gap since the end of the previous run and
+ *  the varint length. Ancestors are numbered before their descendants,
+ *  so a history is mostly a few long runs. A bitmap whose head is no
+ *  longer its branch's head is stale; it is brought up to date by
+ *  walking back from the new head until the walk meets the head of
+ *  some stored bitmap, whose bits are then taken whole. Bitmaps are
+ *  only a cache: each is replaced whole by Durable.write, and one that
+ *  cannot be decoded, as a crash of an older version could leave, is
+ *  deleted and computed afresh.
+ *  @author Chris Wang
+ */
+class Reachability {
+    /** Folder that stores the bitmaps of the branches. */
+    static final File BITMAP_FOLDER =
+        Utils.join(Main.MAIN_FOLDER, "bitmaps");
+
+    /** Return the commits reachable from the head of BRANCH, updating
+     *  its stored bitmap if it is stale. */
+    static BitSet of(String branch) {
+        String head = Utils.readContentsAsString(
+                Utils.join(Main.BRANCH, branch));
+        int position = CommitGraph.position(head);
+        CommitGraph graph = CommitGraph.get();
+        File file = Utils.join(BITMAP_FOLDER, branch);
+        byte[] bytes = read(file);
+        if (bytes != null && headOf(bytes, graph) == position) {
+            return decode(bytes);
+        }
+        BitSet result = reach(graph, position, load(graph));
+        BITMAP_FOLDER.mkdirs();
+        Durable.write(file, encode(graph, position, result));
+        return result;
+    }
+
+    /** Bring the bitmap of BRANCH up to date with its head. */
+    static void update(String branch) {
+        of(branch);
+    }
+
+    /** Forget the bitmap of BRANCH, which has been removed. */
+    static void remove(String branch) {
+        Utils.join(BITMAP_FOLDER, branch).delete();
+    }
+
+    /** Forget all bitmaps, as the commit graph has been renumbered. */
+    static void clear() {
+        List<String> names = Utils.plainFilenamesIn(BITMAP_FOLDER);
+        if (names != null) {
+            for (String name : names) {
+                Utils.join(BITMAP_FOLDER, name).delete();
+            }
+        }
+    }
+
+    /** Return true if commit ANCESTOR is an ancestor of, or is, the
+     *  head of BRANCH. */
+    static boolean isAncestor(String ancestor, String branch) {
+        BitSet reachable = of(branch);
+        return reachable.get(CommitGraph.position(ancestor));
+    }
+
+    /** Return the id of the merge base of the heads of branches CURRENT
+     *  and OTHER, as CommitGraph.mergeBase defines it. */
+    static String mergeBase(String current, String other) {
+        BitSet ancestors = of(other);
+        int head = CommitGraph.position(Utils.readContentsAsString(
+                Utils.join(Main.BRANCH, current)));
+        CommitGraph graph = CommitGraph.get();
+        int base = graph.mergeBase(head, ancestors);
+        return base < 0 ? null : graph.id(base);
+    }
+
+    /** Return the set of commit HEAD and its ancestors in GRAPH, taking
+     *  the bits of any commit in KNOWN, a map from a head to its set,
+     *  without walking past it. */
+    static BitSet reach(CommitGraph graph, int head,
+                        HashMap<Integer, BitSet> known) {
+        BitSet result = new BitSet(graph.size());
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = head;
+        while (top > 0) {
+            int c = stack[--top];
+            if (c < 0 || result.get(c)) {
+                continue;
+            }
+            BitSet bits = known.get(c);
+            if (bits != null) {
+                result.or(bits);
+                continue;
+            }
+            result.set(c);
+            if (top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top++] = graph.parent(c);
+            stack[top++] = graph.merge(c);
+        }
+        return result;
+    }
+
+    /** Return the bytes of the bitmap BITS of the commit at position
+     *  HEAD of GRAPH. */
+    static byte[] encode(CommitGraph graph, int head, BitSet bits) {
+        Codec.Encoder out = new Codec.Encoder(TAG, VERSION);
+        out.writeId(graph.id(head));
+        out.writeVarint(head);
+        int runs = 0;
+        for (int i = bits.nextSetBit(0); i >= 0;
+             i = bits.nextSetBit(bits.nextClearBit(i))) {
+            runs += 1;
+        }
+        out.writeVarint(runs);
+        int end = 0;
+        for (int i = bits.nextSetBit(0); i >= 0;
+             i = bits.nextSetBit(end)) {
+            int next = bits.nextClearBit(i);
+            out.writeVarint(i - end);
+            out.writeVarint(next - i);
+            end = next;
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the set of bits in the bitmap BYTES. */
+    static BitSet decode(byte[] bytes) {
+        Codec.Decoder in = new Codec.Decoder(bytes, TAG, VERSION);
+        in.readId();
+        in.readLength();
+        int runs = in.readLength();
+        BitSet result = new BitSet();
+        int end = 0;
+        for (int r = 0; r < runs; r += 1) {
+            int start = end + in.readLength();
+            end = start + in.readLength();
+            result.set(start, end);
+        }
+        return result;
+    }
+
+    /** Return the graph position of the head of the bitmap BYTES, or
+     *  -1 if that position does not hold the same commit in GRAPH. */
+    private static int headOf(byte[] bytes, CommitGraph graph) {
+        Codec.Decoder in = new Codec.Decoder(bytes, TAG, VERSION);
+        String id = in.readId();
+        int head = in.readLength();
+        return head < graph.size() && graph.id(head).equals(id) ? head : -1;
+    }
+
+    /** Return the stored bitmaps that still match GRAPH, keyed by the
+     *  position of their heads. */
+    private static HashMap<Integer, BitSet> load(CommitGraph graph) {
+        HashMap<Integer, BitSet> result = new HashMap<Integer, BitSet>();
+        List<String> names = Utils.plainFilenamesIn(BITMAP_FOLDER);
+        if (names == null) {
+            return result;
+        }
+        for (String name : names) {
+            byte[] bytes = read(Utils.join(BITMAP_FOLDER, name));
+            int head = bytes == null ? -1 : headOf(bytes, graph);
+            if (head >= 0) {
+                result.put(head, decode(bytes));
+            }
+        }
+        return result;
+    }
+
+    /** Return the bitmap stored in FILE, or null if there is none or it
+     *  cannot be decoded, in which case FILE is deleted. */
+    private static byte[] read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] bytes = Utils.readContents(file);
+        try {
+            decode(bytes);
+            return bytes;
+        } catch (GitletException | IndexOutOfBoundsException excp) {
+            Main.trace("bitmaps: %s is damaged: %s", file.getName(),
+                       excp.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    /** Leading byte of a bitmap. */
+    private static final int TAG = 'm';
+    /** Current format version of bitmaps. */
+    private static final int VERSION = 1;
+}
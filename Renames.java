@@ -0,0 +1,273 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Function;
+
+/** Finds the files of a diff that were moved or copied rather than
+ *  removed and written anew. A file that vanished with the same id as
+ *  one that appeared was renamed outright. Other pairs are found by
+ *  similarity: the contents of each file are cut into chunks, lines or
+ *  pieces of long lines, and summed up by a MinHash sketch, the least
+ *  value of each of HASHES hash functions over its chunks. The share of
+ *  positions at which two sketches agree estimates the share of chunks
+ *  the files have in common. Sketches are indexed by bands of BAND
+ *  positions, and only files that agree on a whole band are compared,
+ *  so the work grows with the number of files, not with its square.
+ *  @author Chris Wang
+ */
+class Renames {
+
+    /** Least similarity, in percent, for two files to be paired. */
+    static final int MIN_SCORE = 50;
+    /** Number of hash functions in a sketch. */
+    static final int HASHES = 32;
+    /** Number of sketch positions in each band of the index. */
+    static final int BAND = 2;
+    /** Longest chunk; longer lines are cut into pieces this long. */
+    static final int CHUNK_MAX = 64;
+    /** Buckets of the index holding more files than this are ignored:
+     *  they stand for chunks, such as licence headers, that many files
+     *  share and that say little about which file became which. */
+    static final int BUCKET_MAX = 100;
+
+    /** A file of a diff found to come from another. */
+    static class Rename {
+        /** The pair of FROM, the change that removed or modified the
+         *  source, and TO, the change that added the target, whose
+         *  contents are SCORE percent alike. The source was copied if
+         *  COPY, and moved otherwise. */
+        Rename(TreeDiff.Change from, TreeDiff.Change to, int score,
+               boolean copy) {
+            _from = from;
+            _to = to;
+            _score = score;
+            _copy = copy;
+        }
+
+        /** Return the change of the source. */
+        TreeDiff.Change from() {
+            return _from;
+        }
+
+        /** Return the change that added the target. */
+        TreeDiff.Change to() {
+            return _to;
+        }
+
+        /** Return the similarity of source and target, in percent. */
+        int score() {
+            return _score;
+        }
+
+        /** Return true if the source was kept, so that the target is a
+         *  copy of it. */
+        boolean copy() {
+            return _copy;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s -> %s (%d%%)", _copy ? "C" : "R",
+                    _from.path(), _to.path(), _score);
+        }
+
+        /** Change of the source. */
+        private final TreeDiff.Change _from;
+        /** Change that added the target. */
+        private final TreeDiff.Change _to;
+        /** Similarity in percent. */
+        private final int _score;
+        /** True for a copy. */
+        private final boolean _copy;
+    }
+
+    /** Return the renames among CHANGES, and the copies too if COPIES,
+     *  whose files are stored as blobs, in the order of their targets'
+     *  paths. */
+    static List<Rename> detect(List<TreeDiff.Change> changes,
+                               boolean copies) {
+        return detect(changes, copies, c -> Main.content(c.oldId()),
+                      c -> Main.content(c.newId()));
+    }
+
+    /** Return the renames among CHANGES, and the copies too if COPIES,
+     *  in the order of their targets' paths. BEFORE gives the old
+     *  contents of a removed or modified file and AFTER the contents
+     *  of an added one. Each removed file is the source of at most one
+     *  rename; modified files may be the sources of copies. Each added
+     *  file has at most one source, the most similar. */
+    static List<Rename> detect(List<TreeDiff.Change> changes,
+                               boolean copies,
+                               Function<TreeDiff.Change, byte[]> before,
+                               Function<TreeDiff.Change, byte[]> after) {
+        ArrayList<TreeDiff.Change> sources = new ArrayList<TreeDiff.Change>();
+        ArrayList<TreeDiff.Change> targets = new ArrayList<TreeDiff.Change>();
+        HashMap<String, TreeDiff.Change> removedIds =
+            new HashMap<String, TreeDiff.Change>();
+        for (TreeDiff.Change change : changes) {
+            if (change.newId() == null) {
+                removedIds.putIfAbsent(change.oldId(), change);
+            }
+        }
+        ArrayList<Rename> result = new ArrayList<Rename>();
+        HashSet<TreeDiff.Change> used = new HashSet<TreeDiff.Change>();
+        for (TreeDiff.Change change : changes) {
+            if (change.oldId() == null) {
+                TreeDiff.Change same = removedIds.get(change.newId());
+                if (same != null && used.add(same)) {
+                    result.add(new Rename(same, change, 100, false));
+                } else {
+                    targets.add(change);
+                }
+            }
+        }
+        for (TreeDiff.Change change : changes) {
+            if (change.oldId() != null && !used.contains(change)
+                    && (copies || change.newId() == null)) {
+                sources.add(change);
+            }
+        }
+        if (!targets.isEmpty() && !sources.isEmpty()) {
+            similar(sources, targets, before, after, used, result);
+        }
+        result.sort(Comparator.comparing(r -> r.to().path()));
+        return result;
+    }
+
+    /** Add to RESULT the pairs of SOURCES and TARGETS at least
+     *  MIN_SCORE percent alike, best first, skipping sources of
+     *  renames in USED. BEFORE and AFTER give their contents. */
+    private static void similar(List<TreeDiff.Change> sources,
+                                List<TreeDiff.Change> targets,
+                                Function<TreeDiff.Change, byte[]> before,
+                                Function<TreeDiff.Change, byte[]> after,
+                                HashSet<TreeDiff.Change> used,
+                                List<Rename> result) {
+        int[][] a = new int[sources.size()][];
+        int[][] b = new int[targets.size()][];
+        HashMap<Long, ArrayList<Integer>> index =
+            new HashMap<Long, ArrayList<Integer>>();
+        for (int i = 0; i < a.length; i += 1) {
+            a[i] = sketch(before.apply(sources.get(i)));
+            for (int band = 0; a[i] != null && band < HASHES / BAND;
+                 band += 1) {
+                index.computeIfAbsent(bandKey(a[i], band),
+                        k -> new ArrayList<Integer>()).add(i);
+            }
+        }
+        ArrayList<long[]> pairs = new ArrayList<long[]>();
+        HashSet<Integer> seen = new HashSet<Integer>();
+        for (int j = 0; j < b.length; j += 1) {
+            b[j] = sketch(after.apply(targets.get(j)));
+            seen.clear();
+            for (int band = 0; b[j] != null && band < HASHES / BAND;
+                 band += 1) {
+                ArrayList<Integer> bucket = index.get(bandKey(b[j], band));
+                if (bucket == null || bucket.size() > BUCKET_MAX) {
+                    continue;
+                }
+                for (int i : bucket) {
+                    if (!seen.add(i)) {
+                        continue;
+                    }
+                    int score = score(a[i], b[j]);
+                    if (score >= MIN_SCORE) {
+                        pairs.add(new long[] {score, i, j});
+                    }
+                }
+            }
+        }
+        pairs.sort((p, q) -> p[0] != q[0] ? Long.compare(q[0], p[0])
+                : p[2] != q[2] ? Long.compare(p[2], q[2])
+                : Long.compare(p[1], q[1]));
+        boolean[] paired = new boolean[b.length];
+        for (long[] pair : pairs) {
+            TreeDiff.Change from = sources.get((int) pair[1]);
+            int j = (int) pair[2];
+            boolean copy = from.newId() != null;
+            if (paired[j] || !copy && used.contains(from)) {
+                continue;
+            }
+            paired[j] = true;
+            if (!copy) {
+                used.add(from);
+            }
+            result.add(new Rename(from, targets.get(j), (int) pair[0], copy));
+        }
+    }
+
+    /** Return the MinHash sketch of DATA, or null if DATA is empty. */
+    static int[] sketch(byte[] data) {
+        if (data.length == 0) {
+            return null;
+        }
+        int[] sketch = new int[HASHES];
+        Arrays.fill(sketch, Integer.MAX_VALUE);
+        int start = 0;
+        for (int i = 0; i < data.length; i += 1) {
+            if (data[i] == '\n' || i - start + 1 == CHUNK_MAX
+                    || i == data.length - 1) {
+                long h = chunkHash(data, start, i + 1);
+                for (int k = 0; k < HASHES; k += 1) {
+                    int v = (int) (mix(h + SEEDS[k]) >>> 33);
+                    if (v < sketch[k]) {
+                        sketch[k] = v;
+                    }
+                }
+                start = i + 1;
+            }
+        }
+        return sketch;
+    }
+
+    /** Return the estimated similarity, in percent, of the files with
+     *  sketches A and B. */
+    static int score(int[] a, int[] b) {
+        int same = 0;
+        for (int k = 0; k < HASHES; k += 1) {
+            if (a[k] == b[k]) {
+                same += 1;
+            }
+        }
+        return same * 100 / HASHES;
+    }
+
+    /** Return the index key of band BAND of SKETCH. */
+    private static long bandKey(int[] sketch, int band) {
+        long h = band;
+        for (int k = band * BAND; k < (band + 1) * BAND; k += 1) {
+            h = mix(h * 31 + sketch[k]);
+        }
+        return h;
+    }
+
+    /** Return a hash of the bytes of DATA from START up to END. */
+    private static long chunkHash(byte[] data, int start, int end) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i += 1) {
+            h = (h ^ data[i]) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Return X with its bits well mixed, as in SplitMix64. */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /** Offsets that make the hash functions of a sketch differ. */
+    private static final long[] SEEDS = new long[HASHES];
+
+    static {
+        for (int k = 0; k < HASHES; k += 1) {
+            SEEDS[k] = mix(0x9e3779b97f4a7c15L * (k + 1));
+        }
+    }
+}
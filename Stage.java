@@ -0,0 +1,176 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** The staging area: the files staged for addition, with the ids of
+ *  the blobs to commit, and those staged for removal, with the ids
+ *  they were tracked with. The whole area is one file, a tag and
+ *  version byte, the number of entries, and for each, in order of
+ *  path, the path, whether it is a removal, and the blob id. It is
+ *  read whole and replaced whole by an atomic rename, so a command
+ *  that dies half way leaves either the old area or the new. The blobs
+ *  themselves are stored once, by add, in the object store.
+ *
+ *  Repositories made before this file staged each file as a file of
+ *  its own in the directories Main.STAGING_ADD and STAGING_REMOVE;
+ *  those are read in when there is no stage file yet, and removed
+ *  when it is first written.
+ *  @author Chris Wang
+ */
+class Stage {
+    /** File holding the staging area. */
+    static final File STAGE_FILE = Utils.join(Main.MAIN_FOLDER, "stage");
+
+    /** An empty staging area. */
+    private Stage() {
+    }
+
+    /** Return the staging area of the repository. */
+    static Stage read() {
+        Stage stage = new Stage();
+        if (!STAGE_FILE.exists()) {
+            stage.readLegacy();
+            return stage;
+        }
+        Codec.Decoder in = new Codec.Decoder(
+                Utils.readContents(STAGE_FILE), TAG, VERSION);
+        int n = in.readLength();
+        for (int i = 0; i < n; i += 1) {
+            String path = in.readString();
+            boolean removal = in.readByte() == REMOVAL;
+            (removal ? stage._removed : stage._added).put(path, in.readId());
+        }
+        return stage;
+    }
+
+    /** Return the files staged for addition, by path, mapped to the
+     *  ids of their blobs. */
+    SortedMap<String, String> added() {
+        return Collections.unmodifiableSortedMap(_added);
+    }
+
+    /** Return the files staged for removal, by path, mapped to the ids
+     *  they were tracked with. */
+    SortedMap<String, String> removed() {
+        return Collections.unmodifiableSortedMap(_removed);
+    }
+
+    /** Return true if nothing is staged. */
+    boolean isEmpty() {
+        return _added.isEmpty() && _removed.isEmpty();
+    }
+
+    /** Stage the file PATH for addition with the blob ID. */
+    void add(String path, String id) {
+        _removed.remove(path);
+        if (!id.equals(_added.put(path, id))) {
+            _changed = true;
+        }
+    }
+
+    /** Stage the file PATH, tracked with the blob ID, for removal. */
+    void remove(String path, String id) {
+        _added.remove(path);
+        if (!id.equals(_removed.put(path, id))) {
+            _changed = true;
+        }
+    }
+
+    /** Unstage the file PATH, if it is staged. */
+    void unstage(String path) {
+        if (_added.remove(path) != null | _removed.remove(path) != null) {
+            _changed = true;
+        }
+    }
+
+    /** Unstage everything. */
+    void clear() {
+        if (!isEmpty()) {
+            _added.clear();
+            _removed.clear();
+            _changed = true;
+        }
+    }
+
+    /** Write the staging area back if it has changed. */
+    void write() {
+        if (!_changed) {
+            return;
+        }
+        TreeMap<String, Boolean> paths = new TreeMap<String, Boolean>();
+        for (String path : _added.keySet()) {
+            paths.put(path, false);
+        }
+        for (String path : _removed.keySet()) {
+            paths.put(path, true);
+        }
+        Codec.Encoder out = new Codec.Encoder(TAG, VERSION);
+        out.writeVarint(paths.size());
+        for (Map.Entry<String, Boolean> e : paths.entrySet()) {
+            String path = e.getKey();
+            out.writeString(path);
+            out.writeByte(e.getValue() ? REMOVAL : ADDITION);
+            out.writeId(e.getValue() ? _removed.get(path)
+                        : _added.get(path));
+        }
+        Durable.write(STAGE_FILE, out.toByteArray());
+        _changed = false;
+        deleteLegacy();
+    }
+
+    /** Read in the files staged in the directories of old
+     *  repositories. */
+    private void readLegacy() {
+        for (File area : new File[] {Main.STAGING_ADD,
+                                     Main.STAGING_REMOVE}) {
+            List<String> names = Utils.plainFilenamesIn(area);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                String path = name.replace("%2F", "/").replace("%25", "%");
+                (area == Main.STAGING_ADD ? _added : _removed).put(path,
+                        Utils.readContentsAsString(Utils.join(area, name)));
+                _changed = true;
+            }
+        }
+    }
+
+    /** Remove the staging directories of old repositories. */
+    private static void deleteLegacy() {
+        for (File area : new File[] {Main.STAGING_ADD,
+                                     Main.STAGING_REMOVE}) {
+            List<String> names = Utils.plainFilenamesIn(area);
+            if (names != null) {
+                for (String name : names) {
+                    Utils.join(area, name).delete();
+                }
+                area.delete();
+            }
+        }
+        Main.STAGING_AREA.delete();
+    }
+
+    /** Leading byte of the stage file. */
+    private static final int TAG = 'S';
+    /** Current format version of the stage file. */
+    private static final int VERSION = 1;
+    /** Flag of an entry staged for addition. */
+    private static final int ADDITION = 0;
+    /** Flag of an entry staged for removal. */
+    private static final int REMOVAL = 1;
+
+    /** Files staged for addition, by path, to blob ids. */
+    private final TreeMap<String, String> _added =
+        new TreeMap<String, String>();
+    /** Files staged for removal, by path, to tracked blob ids. */
+    private final TreeMap<String, String> _removed =
+        new TreeMap<String, String>();
+    /** True if the staging area differs from the file. */
+    private boolean _changed;
+}
@@ -0,0 +1,267 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/** A cache of the blob ids of the files in the working directory,
+ *  keyed by what a stat of each file returns: its size, modification
+ *  time, device and inode number. A file whose stat data has not
+ *  changed since it was hashed is assumed to have the same contents,
+ *  so status and add only read the files that have been touched.
+ *
+ *  A file changed within the same tick of the clock as it was hashed
+ *  would keep its modification time, so an entry is only trusted if the
+ *  file was last modified before the cache itself was written; others
+ *  are hashed again. As git does with its index, the cache leaves out,
+ *  when it is written, the entries of files modified at or after the
+ *  time it is written, which a later write would otherwise make look
+ *  older than the cache, and those read in but not trusted and not
+ *  hashed since. The cache is a tag and version, a varint count,
+ *  then per file its path, varint size, varint modification time in
+ *  nanoseconds, varint hash of its device and inode and raw blob id,
+ *  in order of name.
+ *  @author Chris Wang
+ */
+class StatCache {
+    /** File holding the cache. */
+    static final File CACHE_FILE = Utils.join(Main.MAIN_FOLDER, "stat-cache");
+
+    /** What a stat of a file returns, and its blob id if known. */
+    static class Entry {
+        /** Size of the file in bytes. */
+        private long _size;
+        /** Modification time of the file in nanoseconds. */
+        private long _mtime;
+        /** Hash of the device and inode number of the file, or 0 if
+         *  the system has no such thing. */
+        private long _inode;
+        /** Blob id of the contents, or null. */
+        private String _id;
+        /** True if the id was computed by this process, and so can be
+         *  trusted however recently the file was modified. */
+        private boolean _fresh;
+
+        /** Return true if this and STAT describe the same file version. */
+        boolean sameStat(Entry stat) {
+            return _size == stat._size && _mtime == stat._mtime
+                && _inode == stat._inode;
+        }
+    }
+
+    /** An empty cache. */
+    private StatCache() {
+        _entries = new TreeMap<String, Entry>();
+    }
+
+    /** Return the cache of the repository, which is empty if it has
+     *  not been written yet or cannot be read. */
+    static StatCache read() {
+        StatCache cache = new StatCache();
+        if (!CACHE_FILE.exists()) {
+            return cache;
+        }
+        try {
+            cache._written = Files.getLastModifiedTime(CACHE_FILE.toPath())
+                .to(TimeUnit.NANOSECONDS);
+            Codec.Decoder in = new Codec.Decoder(
+                    Utils.readContents(CACHE_FILE), TAG, VERSION);
+            int n = in.readLength();
+            for (int i = 0; i < n; i += 1) {
+                String name = in.readString();
+                Entry e = new Entry();
+                e._size = in.readVarint();
+                e._mtime = in.readVarint();
+                e._inode = in.readVarint();
+                e._id = in.readId();
+                cache._entries.put(name, e);
+            }
+        } catch (IOException | GitletException excp) {
+            cache._entries.clear();
+        }
+        return cache;
+    }
+
+    /** Return the stat data of FILE, or null if it is not a regular
+     *  file. */
+    static Entry stat(File file) {
+        return stat(file.toPath());
+    }
+
+    /** Return the stat data of every regular file under DIR, keyed
+     *  by its path from DIR with '/' between names, in one pass over
+     *  each directory. The repository folder is skipped and symbolic
+     *  links are not followed. */
+    static TreeMap<String, Entry> scan(File dir) {
+        TreeMap<String, Entry> result = new TreeMap<String, Entry>();
+        scan(dir.toPath(), "", result);
+        return result;
+    }
+
+    /** Add the stat data of every regular file under DIR to RESULT,
+     *  keyed by its path from DIR with PREFIX before it. */
+    private static void scan(Path dir, String prefix,
+                             TreeMap<String, Entry> result) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path path : files) {
+                String name = prefix + path.getFileName();
+                BasicFileAttributes attrs = Files.readAttributes(path,
+                        BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attrs.isDirectory()) {
+                    if (!name.equals(Main.MAIN_FOLDER.getName())) {
+                        scan(path, name + "/", result);
+                    }
+                } else if (attrs.isRegularFile()) {
+                    result.put(name, entry(attrs));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the blob id of the file NAME in DIR, whose stat data is
+     *  STAT, hashing it only if the cached id cannot be trusted. */
+    String id(File dir, String name, Entry stat) {
+        String id = cachedId(name, stat);
+        if (id == null) {
+            id = Hasher.hash(Utils.join(dir, name));
+            put(name, stat, id);
+        }
+        return id;
+    }
+
+    /** Return the cached blob id of NAME if STAT shows that it can be
+     *  trusted, or else null. */
+    String cachedId(String name, Entry stat) {
+        Entry cached = _entries.get(name);
+        return cached != null && cached.sameStat(stat)
+            && (cached._fresh || cached._mtime < _written)
+            ? cached._id : null;
+    }
+
+    /** Record that the file NAME, whose stat data is STAT, has blob
+     *  id ID. */
+    void put(String name, Entry stat, String id) {
+        Entry e = new Entry();
+        e._size = stat._size;
+        e._mtime = stat._mtime;
+        e._inode = stat._inode;
+        e._id = id;
+        e._fresh = true;
+        _entries.put(name, e);
+        _changed = true;
+    }
+
+    /** Make sure that the id of each file in DIR named in STATS, a
+     *  map from name to stat data, can be had without hashing, by
+     *  hashing in parallel those whose cached ids cannot be trusted. */
+    void hashAll(File dir, Map<String, Entry> stats) {
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<File> files = new ArrayList<File>();
+        for (Map.Entry<String, Entry> e : stats.entrySet()) {
+            if (cachedId(e.getKey(), e.getValue()) == null) {
+                names.add(e.getKey());
+                files.add(Utils.join(dir, e.getKey()));
+            }
+        }
+        String[] ids = Hasher.hashAll(files);
+        for (int i = 0; i < ids.length; i += 1) {
+            put(names.get(i), stats.get(names.get(i)), ids[i]);
+        }
+    }
+
+    /** Forget every file not in NAMES. */
+    void retainAll(Map<String, ?> names) {
+        if (_entries.keySet().retainAll(names.keySet())) {
+            _changed = true;
+        }
+    }
+
+    /** Write the cache back if it has changed. */
+    void write() {
+        if (!_changed) {
+            return;
+        }
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp", null, Main.MAIN_FOLDER);
+            long now = Files.getLastModifiedTime(tmp.toPath())
+                .to(TimeUnit.NANOSECONDS);
+            ArrayList<Map.Entry<String, Entry>> kept =
+                new ArrayList<Map.Entry<String, Entry>>();
+            for (Map.Entry<String, Entry> entry : _entries.entrySet()) {
+                Entry e = entry.getValue();
+                if ((e._fresh || e._mtime < _written) && e._mtime < now) {
+                    kept.add(entry);
+                }
+            }
+            Codec.Encoder out = new Codec.Encoder(TAG, VERSION);
+            out.writeVarint(kept.size());
+            for (Map.Entry<String, Entry> entry : kept) {
+                Entry e = entry.getValue();
+                out.writeString(entry.getKey());
+                out.writeVarint(e._size);
+                out.writeVarint(e._mtime);
+                out.writeVarint(e._inode);
+                out.writeId(e._id);
+            }
+            Utils.writeContents(tmp, out.toByteArray());
+            Files.move(tmp.toPath(), CACHE_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+        _changed = false;
+    }
+
+    /** Return the stat data of PATH, or null if it is not a regular
+     *  file. */
+    private static Entry stat(Path path) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path,
+                    BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return attrs.isRegularFile() ? entry(attrs) : null;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Return the stat data in ATTRS. */
+    private static Entry entry(BasicFileAttributes attrs) {
+        Entry e = new Entry();
+        e._size = attrs.size();
+        e._mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        Object key = attrs.fileKey();
+        e._inode = key == null ? 0 : key.hashCode() & 0xffffffffL;
+        return e;
+    }
+
+    /** Leading byte of the cache. */
+    private static final int TAG = 's';
+    /** Current format version of the cache. */
+    private static final int VERSION = 1;
+
+    /** Cached files, by name. */
+    private final TreeMap<String, Entry> _entries;
+    /** Modification time of the cache file in nanoseconds, before
+     *  which files must have been modified for their entries to be
+     *  trusted. */
+    private long _written;
+    /** True if the cache differs from the file. */
+    private boolean _changed;
+}
@@ -0,0 +1,195 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A directory of a commit: a map from names to the ids of the blobs
+ *  of the files in it and of the trees of its subdirectories. Trees
+ *  are stored by the SHA-1 of their encoding, so a directory whose
+ *  contents did not change between two commits is the same object in
+ *  both, and a new commit only writes the trees on the paths it
+ *  changes. Paths of files within a tree are their names in each
+ *  directory joined by '/'.
+ *
+ *  A tree is encoded as a tag and version, a varint count, then for
+ *  each entry in order of name the name, a kind byte, BLOB or TREE,
+ *  and the raw id.
+ *  @author Chris Wang
+ */
+class Tree {
+    /** Folder that stores loose trees. */
+    static final File TREE_FOLDER = Utils.join(Main.MAIN_FOLDER, "trees");
+    /** Kind of an entry naming a file. */
+    static final int BLOB = 0;
+    /** Kind of an entry naming a subdirectory. */
+    static final int TREE = 1;
+
+    /** An empty tree. */
+    Tree() {
+        _entries = new TreeMap<String, String>();
+        _kinds = new TreeMap<String, Integer>();
+    }
+
+    /** Return the tree with id SHA1. */
+    static Tree fromFile(String sha1) {
+        if (sha1.equals(EMPTY)) {
+            return new Tree();
+        }
+        File file = Utils.join(TREE_FOLDER, sha1);
+        byte[] bytes = file.exists() ? Utils.readContents(file)
+            : Pack.readTree(sha1);
+        if (bytes == null) {
+            throw new IllegalArgumentException(
+                    "No tree with that sha1 value found ;(");
+        }
+        return decode(bytes);
+    }
+
+    /** Return the tree whose encoding is BYTES. */
+    static Tree decode(byte[] bytes) {
+        Codec.Decoder in = new Codec.Decoder(bytes, TAG, VERSION);
+        Tree tree = new Tree();
+        int n = in.readLength();
+        for (int i = 0; i < n; i += 1) {
+            String name = in.readString();
+            int kind = in.readByte();
+            tree._entries.put(name, in.readId());
+            tree._kinds.put(name, kind);
+        }
+        return tree;
+    }
+
+    /** Return the encoding of this tree. */
+    byte[] encode() {
+        Codec.Encoder out = new Codec.Encoder(TAG, VERSION);
+        out.writeVarint(_entries.size());
+        for (Map.Entry<String, String> e : _entries.entrySet()) {
+            out.writeString(e.getKey());
+            out.writeByte(_kinds.get(e.getKey()));
+            out.writeId(e.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    /** Store this tree unless it is stored already, and return its id. */
+    String save() {
+        byte[] bytes = encode();
+        String id = Utils.sha1(bytes);
+        File file = Utils.join(TREE_FOLDER, id);
+        if (!file.exists() && !Pack.contains(id)) {
+            TREE_FOLDER.mkdirs();
+            Durable.write(file, bytes);
+        }
+        return id;
+    }
+
+    /** Return the names in this tree, in order, mapped to their ids. */
+    Map<String, String> entries() {
+        return _entries;
+    }
+
+    /** Return the kind of the entry NAME, BLOB or TREE. */
+    int kind(String name) {
+        return _kinds.get(name);
+    }
+
+    /** Set the entry NAME to the object of kind KIND with id ID, or
+     *  remove it if ID is null. */
+    void put(String name, int kind, String id) {
+        if (id == null) {
+            _entries.remove(name);
+            _kinds.remove(name);
+        } else {
+            _entries.put(name, id);
+            _kinds.put(name, kind);
+        }
+    }
+
+    /** Store the trees of the files in FILES, a map from path to blob
+     *  id, and return the id of the root. */
+    static String write(Map<String, String> files) {
+        return update(null, files);
+    }
+
+    /** Return the id of the root of the tree ROOT, or of an empty tree
+     *  if ROOT is null, after applying CHANGES, a map from path to the
+     *  new blob id of the file, or to null if it is removed. Only the
+     *  trees on the paths of the changes are read and written; a
+     *  directory left empty is removed. The empty tree is never
+     *  stored. */
+    static String update(String root, Map<String, String> changes) {
+        Tree tree = root == null ? new Tree() : fromFile(root);
+        TreeMap<String, TreeMap<String, String>> below =
+            new TreeMap<String, TreeMap<String, String>>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                tree.put(path, BLOB, change.getValue());
+            } else {
+                below.computeIfAbsent(path.substring(0, slash),
+                        k -> new TreeMap<String, String>())
+                    .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> dir
+                 : below.entrySet()) {
+            String name = dir.getKey();
+            String old = tree._entries.get(name);
+            if (old != null && tree.kind(name) != TREE) {
+                old = null;
+            }
+            String sub = update(old, dir.getValue());
+            tree.put(name, TREE, sub.equals(EMPTY) ? null : sub);
+        }
+        return tree._entries.isEmpty() ? EMPTY : tree.save();
+    }
+
+    /** Add every file under the tree ROOT to FILES, a map from path to
+     *  blob id, with PREFIX before each path. */
+    static void flatten(String root, String prefix,
+                        Map<String, String> files) {
+        Tree tree = fromFile(root);
+        for (Map.Entry<String, String> e : tree._entries.entrySet()) {
+            String path = prefix + e.getKey();
+            if (tree.kind(e.getKey()) == TREE) {
+                flatten(e.getValue(), path + "/", files);
+            } else {
+                files.put(path, e.getValue());
+            }
+        }
+    }
+
+    /** Return the id of the blob of the file PATH under the tree ROOT,
+     *  reading only the trees on its path, or null if there is none. */
+    static String lookup(String root, String path) {
+        Tree tree = fromFile(root);
+        int start = 0;
+        for (int slash = path.indexOf('/'); slash >= 0;
+             slash = path.indexOf('/', start)) {
+            String name = path.substring(start, slash);
+            String id = tree._entries.get(name);
+            if (id == null || tree.kind(name) != TREE) {
+                return null;
+            }
+            tree = fromFile(id);
+            start = slash + 1;
+        }
+        String name = path.substring(start);
+        String id = tree._entries.get(name);
+        return id != null && tree.kind(name) == BLOB ? id : null;
+    }
+
+    /** Leading byte of an encoded tree. */
+    private static final int TAG = 't';
+    /** Current format version of an encoded tree. */
+    private static final int VERSION = 1;
+    /** Id of the empty tree. */
+    static final String EMPTY = Utils.sha1(new Tree().encode());
+
+    /** Ids of the entries, by name. */
+    private final TreeMap<String, String> _entries;
+    /** Kinds of the entries, by name. */
+    private final TreeMap<String, Integer> _kinds;
+}
@@ -0,0 +1,132 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/** The differences between two snapshots, found by comparing ids
+ *  alone: two entries with the same id hold the same contents, so a
+ *  subtree whose id is the same on both sides is skipped without being
+ *  read. The work done is proportional to the number of trees on the
+ *  changed paths, not to the size of the snapshots.
+ *  @author Chris Wang
+ */
+class TreeDiff {
+
+    /** A file that differs between two snapshots. */
+    static class Change {
+        /** The change of the file PATH from the blob OLDID to the blob
+         *  NEWID, either of which is null if the file is absent. */
+        Change(String path, String oldId, String newId) {
+            _path = path;
+            _oldId = oldId;
+            _newId = newId;
+        }
+
+        /** Return the path of the file. */
+        String path() {
+            return _path;
+        }
+
+        /** Return the blob id of the file in the old snapshot, or null
+         *  if it was added. */
+        String oldId() {
+            return _oldId;
+        }
+
+        /** Return the blob id of the file in the new snapshot, or null
+         *  if it was removed. */
+        String newId() {
+            return _newId;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s",
+                    _oldId == null ? "A" : _newId == null ? "D" : "M", _path);
+        }
+
+        /** Path of the file. */
+        private final String _path;
+        /** Blob id in the old snapshot, or null. */
+        private final String _oldId;
+        /** Blob id in the new snapshot, or null. */
+        private final String _newId;
+    }
+
+    /** Pass each file that differs between the trees OLDROOT and
+     *  NEWROOT to VISITOR as it is found, in tree order: within a
+     *  directory, entries in order of name, each subdirectory's files
+     *  just after it. A null root is an empty snapshot. */
+    static void diff(String oldRoot, String newRoot,
+                     Consumer<Change> visitor) {
+        diff(oldRoot == null ? Tree.EMPTY : oldRoot,
+             newRoot == null ? Tree.EMPTY : newRoot, "", visitor);
+    }
+
+    /** Return the files that differ between the trees OLDROOT and
+     *  NEWROOT, in the order diff finds them. */
+    static List<Change> changes(String oldRoot, String newRoot) {
+        ArrayList<Change> result = new ArrayList<Change>();
+        diff(oldRoot, newRoot, result::add);
+        return result;
+    }
+
+    /** Return the files that differ between the trees OLDROOT and
+     *  NEWROOT, keyed by path. */
+    static TreeMap<String, Change> byPath(String oldRoot, String newRoot) {
+        TreeMap<String, Change> result = new TreeMap<String, Change>();
+        diff(oldRoot, newRoot, c -> result.put(c.path(), c));
+        return result;
+    }
+
+    /** Pass the differences between the trees OLDTREE and NEWTREE,
+     *  whose paths start with PREFIX, to VISITOR. */
+    private static void diff(String oldTree, String newTree, String prefix,
+                             Consumer<Change> visitor) {
+        if (oldTree.equals(newTree)) {
+            return;
+        }
+        Tree a = Tree.fromFile(oldTree);
+        Tree b = Tree.fromFile(newTree);
+        Map<String, String> left = a.entries();
+        Map<String, String> right = b.entries();
+        TreeSet<String> names = new TreeSet<String>(left.keySet());
+        names.addAll(right.keySet());
+        for (String name : names) {
+            String oldId = left.get(name);
+            String newId = right.get(name);
+            if (oldId != null && oldId.equals(newId)
+                    && a.kind(name) == b.kind(name)) {
+                continue;
+            }
+            String oldBlob = blob(a, name);
+            String newBlob = blob(b, name);
+            String path = prefix + name;
+            if (oldBlob == null ? newBlob != null
+                    : !oldBlob.equals(newBlob)) {
+                visitor.accept(new Change(path, oldBlob, newBlob));
+            }
+            String oldSub = subtree(a, name);
+            String newSub = subtree(b, name);
+            diff(oldSub, newSub, path + "/", visitor);
+        }
+    }
+
+    /** Return the blob id of the file NAME in TREE, or null if TREE
+     *  has no file of that name. */
+    private static String blob(Tree tree, String name) {
+        String id = tree.entries().get(name);
+        return id != null && tree.kind(name) == Tree.BLOB ? id : null;
+    }
+
+    /** Return the id of the subdirectory NAME in TREE, or of the empty
+     *  tree if TREE has no subdirectory of that name. */
+    private static String subtree(Tree tree, String name) {
+        String id = tree.entries().get(name);
+        return id != null && tree.kind(name) == Tree.TREE ? id : Tree.EMPTY;
+    }
+}
@@ -0,0 +1,130 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/** Writes the differences between two versions of a file in the
+ *  unified format of diff -u and git diff: a header naming the file,
+ *  then hunks of changed lines, each with up to CONTEXT unchanged
+ *  lines around it. Lines are copied from the two versions as ranges
+ *  of bytes, so files need not be text in any one encoding. Files with
+ *  a NUL byte near the start are only reported as differing.
+ *  @author Chris Wang
+ */
+class UnifiedDiff {
+
+    /** Number of unchanged lines shown around each change. */
+    static final int CONTEXT = 3;
+
+    /** Append to OUT the differences for the file PATH between the
+     *  contents OLD and NEW, either of which is null if the file is
+     *  absent on that side. Nothing is written if they are equal. */
+    static void write(ByteArrayOutputStream out, String path,
+                      byte[] old, byte[] now) {
+        if (old != null && now != null && Arrays.equals(old, now)) {
+            return;
+        }
+        text(out, "diff --git a/" + path + " b/" + path + "\n");
+        if (old == null) {
+            text(out, "new file\n");
+        } else if (now == null) {
+            text(out, "deleted file\n");
+        }
+        body(out, old == null ? "/dev/null" : "a/" + path,
+             now == null ? "/dev/null" : "b/" + path, old, now);
+    }
+
+    /** Append to OUT the differences for the rename or copy R, from
+     *  the contents OLD of its source to NEW of its target. */
+    static void write(ByteArrayOutputStream out, Renames.Rename r,
+                      byte[] old, byte[] now) {
+        String from = r.from().path();
+        String to = r.to().path();
+        String how = r.copy() ? "copy" : "rename";
+        text(out, String.format("diff --git a/%s b/%s\n"
+                + "similarity index %d%%\n%s from %s\n%s to %s\n",
+                from, to, r.score(), how, from, how, to));
+        if (!Arrays.equals(old, now)) {
+            body(out, "a/" + from, "b/" + to, old, now);
+        }
+    }
+
+    /** Append to OUT the hunks that turn OLD, labelled FROM, into NEW,
+     *  labelled TO, either absent if null. */
+    private static void body(ByteArrayOutputStream out, String from,
+                             String to, byte[] old, byte[] now) {
+        LineDiff.Lines a = new LineDiff.Lines(old == null ? EMPTY : old);
+        LineDiff.Lines b = new LineDiff.Lines(now == null ? EMPTY : now);
+        if (Merge3.binary(a.data()) || Merge3.binary(b.data())) {
+            text(out, "Binary files " + from + " and " + to + " differ\n");
+            return;
+        }
+        text(out, "--- " + from + "\n+++ " + to + "\n");
+        List<LineDiff.Edit> edits = LineDiff.diff(a, b);
+        for (int i = 0; i < edits.size(); ) {
+            int j = i + 1;
+            while (j < edits.size() && edits.get(j).aStart()
+                   - edits.get(j - 1).aEnd() <= 2 * CONTEXT) {
+                j += 1;
+            }
+            hunk(out, a, b, edits.subList(i, j));
+            i = j;
+        }
+    }
+
+    /** Append to OUT the hunk of the lines of A and B around EDITS,
+     *  which lie close enough together to share their context. */
+    private static void hunk(ByteArrayOutputStream out, LineDiff.Lines a,
+                             LineDiff.Lines b, List<LineDiff.Edit> edits) {
+        LineDiff.Edit first = edits.get(0);
+        LineDiff.Edit last = edits.get(edits.size() - 1);
+        int lead = Math.min(CONTEXT, first.aStart());
+        int trail = Math.min(CONTEXT, a.size() - last.aEnd());
+        int aLo = first.aStart() - lead;
+        int bLo = first.bStart() - lead;
+        int aHi = last.aEnd() + trail;
+        int bHi = last.bEnd() + trail;
+        text(out, String.format("@@ -%s +%s @@\n",
+                range(aLo, aHi - aLo), range(bLo, bHi - bLo)));
+        int at = aLo;
+        for (LineDiff.Edit e : edits) {
+            lines(out, ' ', a, at, e.aStart());
+            lines(out, '-', a, e.aStart(), e.aEnd());
+            lines(out, '+', b, e.bStart(), e.bEnd());
+            at = e.aEnd();
+        }
+        lines(out, ' ', a, at, aHi);
+    }
+
+    /** Return the range of a hunk header for COUNT lines from line
+     *  START, counting from 0. */
+    private static String range(int start, int count) {
+        if (count == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    /** Append to OUT the lines FROM up to TO of LINES, each after
+     *  PREFIX, noting a last line with no newline. */
+    private static void lines(ByteArrayOutputStream out, char prefix,
+                              LineDiff.Lines lines, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            out.write(prefix);
+            lines.write(out, i, i + 1);
+            if (!lines.endsLine(i, i + 1)) {
+                text(out, "\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    /** Append the UTF-8 bytes of S to OUT. */
+    private static void text(ByteArrayOutputStream out, String s) {
+        out.writeBytes(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Contents of an absent file. */
+    private static final byte[] EMPTY = new byte[0];
+}
@@ -4,6 +4,31 @@ import ucb.junit.textui;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
 /** The suite of all JUnit tests for the gitlet package.
  *  @author
  */
@@ -20,6 +45,1196 @@ public class UnitTest {
     public void placeholderTest() {
     }
 
-}
+    /** Commits survive a round trip through the binary codec. */
+    @Test
+    public void commitCodecTest() {
+        HashMap<String, String> reference = new HashMap<String, String>();
+        reference.put("a.txt", Utils.sha1("a"));
+        reference.put("\u00e9t\u00e9.txt", Utils.sha1("b"));
+        Commit commit = new Commit("message", reference,
+                Utils.sha1("parent"), null, new Date(12345));
+        Commit copy = Commit.decode(commit.encode());
+        assertEquals(commit.getMessage(), copy.getMessage());
+        assertEquals(commit.getReference(), copy.getReference());
+        assertEquals(commit.getParentId(), copy.getParentId());
+        assertNull(copy.getMergeId());
+        assertEquals(commit.getTime(), copy.getTime());
+        assertEquals(commit.getSha1(), Utils.sha1(copy.encode()));
+    }
+
+    /** Blobs survive a round trip through the binary codec. */
+    @Test
+    public void blobCodecTest() {
+        byte[] content = new byte[300];
+        for (int i = 0; i < content.length; i += 1) {
+            content[i] = (byte) i;
+        }
+        Blob blob = new Blob(content);
+        Blob copy = Blob.decode(blob.encode());
+        assertArrayEquals(content, copy.getContent());
+        assertEquals(blob.getSha1(), copy.getSha1());
+    }
+
+    /** Blobs are deflated only if a trial deflate of their start
+     *  shrinks it by a tenth, and never if they start with the
+     *  signature of a compressed format. */
+    @Test
+    public void chooseCodecTest() {
+        byte[] text = text(20000);
+        assertEquals(Blob.DEFLATE, Blob.chooseCodec(text, text.length));
+        assertEquals(Blob.DEFLATE, new Blob(text).encode()[2]);
+        byte[] random = new byte[20000];
+        new Random(4).nextBytes(random);
+        assertEquals(Blob.STORE, Blob.chooseCodec(random, random.length));
+        assertEquals(Blob.STORE, new Blob(random).encode()[2]);
+        byte[] gzip = text.clone();
+        gzip[0] = 0x1f;
+        gzip[1] = (byte) 0x8b;
+        assertEquals(Blob.STORE, Blob.chooseCodec(gzip, gzip.length));
+        byte[] png = text.clone();
+        System.arraycopy(new byte[] {(byte) 0x89, 'P', 'N', 'G'}, 0,
+                png, 0, 4);
+        assertEquals(Blob.STORE, Blob.chooseCodec(png, png.length));
+        assertEquals(Blob.STORE, Blob.chooseCodec(new byte[0], 0));
+        byte[] mixed = new byte[3 * Blob.SAMPLE];
+        new Random(5).nextBytes(mixed);
+        System.arraycopy(text, 0, mixed, 0, Blob.SAMPLE);
+        assertEquals(Blob.DEFLATE, Blob.chooseCodec(mixed, mixed.length));
+    }
+
+    /** A file larger than a chunk is stored under the id of its
+     *  contents and written back whole, compressed or not; contents
+     *  stored uncompressed are copied out by the system. */
+    @Test
+    public void streamedBlobTest() throws IOException {
+        Blob.BLOB_FOLDER.mkdirs();
+        byte[] text = text(3 * Blob.CHUNK + 17);
+        byte[] random = new byte[3 * Blob.CHUNK + 17];
+        new Random(7).nextBytes(random);
+        File source = File.createTempFile("source", null);
+        File copy = File.createTempFile("copy", null);
+        source.deleteOnExit();
+        copy.deleteOnExit();
+        for (byte[] contents : new byte[][] {text, random}) {
+            Files.write(source.toPath(), contents);
+            Blob blob = Blob.store(source);
+            String id = Utils.sha1(contents);
+            assertEquals(id, blob.getSha1());
+            File stored = Utils.join(Blob.BLOB_FOLDER, id);
+            int codec = Utils.readContents(stored)[2];
+            assertEquals(contents == text ? Blob.DEFLATE : Blob.STORE,
+                         codec);
+            try (FileChannel in = FileChannel.open(stored.toPath());
+                 FileChannel out = FileChannel.open(copy.toPath(),
+                     StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+                assertEquals(codec == Blob.STORE,
+                             Blob.transferStored(in, 0, out));
+            }
+            if (codec == Blob.STORE) {
+                assertArrayEquals(contents, Files.readAllBytes(copy.toPath()));
+            }
+            Files.write(copy.toPath(), new byte[0]);
+            Blob.fromFile(id).copyTo(copy);
+            assertArrayEquals(contents, Files.readAllBytes(copy.toPath()));
+            stored.delete();
+        }
+    }
+
+    /** Recompressing a stored blob keeps its contents and id, moves
+     *  it to the codec its contents call for, and refuses a blob whose
+     *  contents do not match its id. */
+    @Test
+    public void recompressTest() {
+        Blob.BLOB_FOLDER.mkdirs();
+        byte[] text = text(20000);
+        byte[] random = new byte[20000];
+        new Random(6).nextBytes(random);
+        for (byte[] contents : new byte[][] {text, random}) {
+            String id = Utils.sha1(contents);
+            File file = Utils.join(Blob.BLOB_FOLDER, id);
+            Codec.Encoder old = new Codec.Encoder(Blob.TAG, 1);
+            old.writeBytes(contents);
+            Utils.writeContents(file, old.toByteArray());
+            long before = file.length();
+            long change = Blob.recompress(id);
+            assertEquals(before + change, file.length());
+            byte[] stored = Utils.readContents(file);
+            assertEquals(Blob.VERSION, stored[1]);
+            assertEquals(Blob.chooseCodec(contents, contents.length),
+                    stored[2]);
+            assertArrayEquals(contents, Blob.decode(stored).getContent());
+            assertEquals(0, Blob.recompress(id));
+            file.delete();
+        }
+        File wrong = Utils.join(Blob.BLOB_FOLDER, Utils.sha1("other"));
+        byte[] encoded = new Blob(text).encode();
+        Utils.writeContents(wrong, encoded);
+        try {
+            Blob.recompress(Utils.sha1("other"));
+            fail("recompressed a corrupt blob");
+        } catch (GitletException excp) {
+            assertArrayEquals(encoded, Utils.readContents(wrong));
+        }
+        wrong.delete();
+    }
+
+    /** Return N bytes of text that deflates well. */
+    private static byte[] text(int n) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < n; i += 1) {
+            text.append("line ").append(i).append(" of the text\n");
+        }
+        return text.substring(0, n).getBytes();
+    }
+
+    /** Applying a delta to its base rebuilds the target. */
+    @Test
+    public void deltaTest() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i += 1) {
+            text.append("line ").append(i).append('\n');
+        }
+        byte[] base = text.toString().getBytes();
+        text.insert(5000, "an inserted line\n");
+        text.delete(12000, 12400);
+        byte[] target = text.toString().getBytes();
+        byte[] delta = Delta.create(base, target);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        assertTrue(delta.length < target.length / 20);
+        byte[] empty = new byte[0];
+        assertArrayEquals(empty, Delta.apply(base,
+                Delta.create(base, empty)));
+        assertArrayEquals(target, Delta.apply(empty,
+                Delta.create(empty, target)));
+    }
+
+    /** An ObjectIndex finds full ids and the ids an abbreviation
+     *  matches. */
+    @Test
+    public void objectIndexTest() throws IOException {
+        ArrayList<byte[]> ids = new ArrayList<byte[]>();
+        for (int i = 0; i < 300; i += 1) {
+            ids.add(Codec.toBytes(Utils.sha1("" + i)));
+        }
+        ids.add(Codec.toBytes("00" + Utils.sha1("x").substring(2)));
+        ids.add(Codec.toBytes("ff" + Utils.sha1("y").substring(2)));
+        ids.sort(Arrays::compareUnsigned);
+        File file = File.createTempFile("index", null);
+        file.deleteOnExit();
+        Utils.writeContents(file, ObjectIndex.encode(ids, new byte[0]));
+        ObjectIndex index = new ObjectIndex(file);
+        assertEquals(ids.size(), index.size());
+        for (int i = 0; i < ids.size(); i += 1) {
+            assertEquals(i, index.find(ids.get(i)));
+        }
+        assertEquals(-1, index.find(Codec.toBytes(Utils.sha1("absent"))));
+        String id = Utils.sha1("7");
+        assertEquals(Arrays.asList(id),
+                index.resolve(id.substring(0, 6), 2));
+        assertEquals(Arrays.asList(id),
+                index.resolve(id.toUpperCase(), 2));
+        assertEquals(2, index.resolve(id.substring(0, 1), 2).size());
+        assertTrue(index.resolve("xyz", 2).isEmpty());
+    }
+
+    /** Merge bases and reachability bitmaps found through a CommitGraph
+     *  agree with a plain breadth-first search over a random history. */
+    @Test
+    public void commitGraphTest() throws IOException {
+        Random random = new Random(61);
+        int n = 400;
+        int[] parent = new int[n];
+        int[] merge = new int[n];
+        int[] generation = new int[n];
+        File file = File.createTempFile("graph", null);
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(CommitGraph.header());
+            for (int i = 0; i < n; i += 1) {
+                parent[i] = i == 0 ? -1 : i - 1 - random.nextInt(
+                        Math.min(i, 5));
+                merge[i] = i < 2 || random.nextInt(4) != 0 ? -1
+                    : random.nextInt(i);
+                generation[i] = 1 + Math.max(
+                        parent[i] < 0 ? 0 : generation[parent[i]],
+                        merge[i] < 0 ? 0 : generation[merge[i]]);
+                out.write(CommitGraph.record(Utils.sha1("" + i),
+                        parent[i], merge[i], generation[i], i));
+            }
+        }
+        CommitGraph graph = new CommitGraph(file);
+        assertEquals(n, graph.size());
+        assertEquals(37, graph.find(Utils.sha1("37")));
+        File ids = File.createTempFile("ids", null);
+        ids.deleteOnExit();
+        Files.write(ids.toPath(), graph.ids());
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(CommitGraph.record(Utils.sha1("" + n), n - 1, -1,
+                    generation[n - 1] + 1, n));
+        }
+        CommitGraph indexed = new CommitGraph(file, ids);
+        for (int i = 0; i <= n; i += 1) {
+            assertEquals(i, indexed.find(Utils.sha1("" + i)));
+        }
+        assertEquals(-1, indexed.find(Utils.sha1("absent")));
+        assertEquals(-1, indexed.find(null));
+        Files.write(ids.toPath(), Arrays.copyOf(graph.ids(), 100));
+        assertEquals(37, new CommitGraph(file, ids).find(Utils.sha1("37")));
+        for (int t = 0; t < 200; t += 1) {
+            int a = random.nextInt(n);
+            int b = random.nextInt(n);
+            HashSet<Integer> ancestors = new HashSet<Integer>();
+            ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+            work.add(b);
+            while (!work.isEmpty()) {
+                int c = work.poll();
+                if (c >= 0 && ancestors.add(c)) {
+                    work.add(parent[c]);
+                    work.add(merge[c]);
+                }
+            }
+            work.add(a);
+            int expected = -1;
+            while (expected < 0) {
+                int c = work.poll();
+                if (ancestors.contains(c)) {
+                    expected = c;
+                } else {
+                    for (int p : new int[] {parent[c], merge[c]}) {
+                        if (p >= 0) {
+                            work.add(p);
+                        }
+                    }
+                }
+            }
+            assertEquals(expected, graph.mergeBase(a, b));
+            BitSet bits = Reachability.reach(graph, b,
+                    new HashMap<Integer, BitSet>());
+            assertEquals(ancestors.size(), bits.cardinality());
+            assertEquals(bits, Reachability.decode(
+                    Reachability.encode(graph, b, bits)));
+            assertEquals(expected, graph.mergeBase(a, bits));
+        }
+    }
+
+    /** Trees built whole and by updates agree, and an update only
+     *  replaces the trees on the changed paths. */
+    @Test
+    public void treeTest() {
+        HashMap<String, String> files = new HashMap<String, String>();
+        for (int i = 0; i < 50; i += 1) {
+            files.put("d" + (i % 5) + "/e" + (i % 3) + "/f" + i,
+                    Utils.sha1("" + i));
+        }
+        files.put("top", Utils.sha1("top"));
+        String root = Tree.write(files);
+        HashMap<String, String> copy = new HashMap<String, String>();
+        Tree.flatten(root, "", copy);
+        assertEquals(files, copy);
+        assertEquals(files.get("d3/e1/f13"), Tree.lookup(root, "d3/e1/f13"));
+        assertNull(Tree.lookup(root, "d3/e1"));
+        assertNull(Tree.lookup(root, "top/f"));
+
+        TreeMap<String, String> changes = new TreeMap<String, String>();
+        changes.put("d3/e1/f13", Utils.sha1("new"));
+        changes.put("d4/e2/f14", null);
+        changes.put("n/m", Utils.sha1("m"));
+        String updated = Tree.update(root, changes);
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            if (e.getValue() == null) {
+                files.remove(e.getKey());
+            } else {
+                files.put(e.getKey(), e.getValue());
+            }
+        }
+        assertEquals(Tree.write(files), updated);
+        Map<String, String> before = Tree.fromFile(root).entries();
+        Map<String, String> after = Tree.fromFile(updated).entries();
+        assertEquals(before.get("d0"), after.get("d0"));
+        assertFalse(before.get("d3").equals(after.get("d3")));
+
+        changes.clear();
+        changes.put("n/m", null);
+        assertFalse(Tree.fromFile(Tree.update(updated, changes))
+                .entries().containsKey("n"));
+        assertEquals(Tree.EMPTY, Tree.write(new HashMap<String, String>()));
+    }
+
+    /** Diffing two trees finds exactly the files that differ, including
+     *  a file replaced by a directory of the same name. */
+    @Test
+    public void treeDiffTest() {
+        HashMap<String, String> before = new HashMap<String, String>();
+        for (int i = 0; i < 30; i += 1) {
+            before.put("d" + (i % 3) + "/f" + i, Utils.sha1("" + i));
+        }
+        before.put("x", Utils.sha1("x"));
+        HashMap<String, String> after = new HashMap<String, String>(before);
+        after.put("d1/f4", Utils.sha1("changed"));
+        after.remove("d2/f5");
+        after.remove("x");
+        after.put("x/y", Utils.sha1("y"));
+        after.put("e/f", Utils.sha1("f"));
+        String a = Tree.write(before);
+        String b = Tree.write(after);
+        ArrayList<String> found = new ArrayList<String>();
+        TreeDiff.diff(a, b, c -> found.add(c.toString()));
+        assertEquals(new HashSet<String>(Arrays.asList("A e/f", "M d1/f4",
+                "D d2/f5", "D x", "A x/y")), new HashSet<String>(found));
+        TreeMap<String, TreeDiff.Change> changes = TreeDiff.byPath(a, b);
+        assertEquals(5, changes.size());
+        assertNull(changes.get("e/f").oldId());
+        assertEquals(Utils.sha1("changed"), changes.get("d1/f4").newId());
+        assertNull(changes.get("d2/f5").newId());
+        assertNull(changes.get("x").newId());
+        assertEquals(Utils.sha1("y"), changes.get("x/y").newId());
+        assertTrue(TreeDiff.changes(a, a).isEmpty());
+        assertEquals(before.size(), TreeDiff.changes(null, a).size());
+    }
+
+    /** The hunks of a line diff turn one side into the other, and
+     *  those of a minimal diff change as few lines as a longest common
+     *  subsequence allows. */
+    @Test
+    public void lineDiffTest() {
+        Random random = new Random(15);
+        for (int trial = 0; trial < 300; trial += 1) {
+            int[] a = new int[random.nextInt(40)];
+            int[] b = new int[random.nextInt(40)];
+            for (int i = 0; i < a.length; i += 1) {
+                a[i] = random.nextInt(5);
+            }
+            for (int i = 0; i < b.length; i += 1) {
+                b[i] = random.nextInt(5);
+            }
+            int[][] lcs = new int[a.length + 1][b.length + 1];
+            for (int i = a.length - 1; i >= 0; i -= 1) {
+                for (int j = b.length - 1; j >= 0; j -= 1) {
+                    lcs[i][j] = a[i] == b[j] ? lcs[i + 1][j + 1] + 1
+                        : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+                }
+            }
+            assertEquals(a.length + b.length - 2 * lcs[0][0],
+                         checkEdits(a, b, LineDiff.minimal(a, b)));
+            assertTrue(checkEdits(a, b, LineDiff.diff(a, b))
+                       >= a.length + b.length - 2 * lcs[0][0]);
+        }
+    }
+
+    /** Check that EDITS turn A into B, and return the number of
+     *  elements they delete or insert. */
+    private static int checkEdits(int[] a, int[] b,
+                                  List<LineDiff.Edit> edits) {
+        ArrayList<Integer> rebuilt = new ArrayList<Integer>();
+        int changed = 0;
+        int at = 0;
+        for (LineDiff.Edit e : edits) {
+            for (; at < e.aStart(); at += 1) {
+                rebuilt.add(a[at]);
+            }
+            for (int j = e.bStart(); j < e.bEnd(); j += 1) {
+                rebuilt.add(b[j]);
+            }
+            changed += e.aEnd() - e.aStart() + e.bEnd() - e.bStart();
+            at = e.aEnd();
+        }
+        for (; at < a.length; at += 1) {
+            rebuilt.add(a[at]);
+        }
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int x : b) {
+            expected.add(x);
+        }
+        assertEquals(expected, rebuilt);
+        return changed;
+    }
+
+    /** Line diffs find the changed lines, and three-way merges take
+     *  changes to different lines cleanly and wrap only the lines both
+     *  sides changed in conflict markers. */
+    @Test
+    public void merge3Test() {
+        byte[] base = "a\nb\nc\nd\ne\nf\n".getBytes();
+        byte[] ours = "a\nB\nc\nd\ne\nf\ng\n".getBytes();
+        List<LineDiff.Edit> edits = LineDiff.diff(
+                new LineDiff.Lines(base), new LineDiff.Lines(ours));
+        assertEquals("[1,2 -> 1,2, 6,6 -> 6,7]", edits.toString());
+
+        Merge3 clean = new Merge3(base, ours,
+                "a\nb\nc\nd\nE\nf\n".getBytes());
+        assertEquals(0, clean.conflicts());
+        assertEquals("a\nB\nc\nd\nE\nf\ng\n", new String(clean.result()));
+
+        Merge3 conflict = new Merge3(base, ours,
+                "a\nb2\nc\nd\ne\nf\n".getBytes());
+        assertEquals(1, conflict.conflicts());
+        assertEquals("a\n<<<<<<< HEAD\nB\n=======\nb2\n>>>>>>>\n"
+                + "c\nd\ne\nf\ng\n", new String(conflict.result()));
+
+        Merge3 same = new Merge3(base, ours, ours);
+        assertEquals(0, same.conflicts());
+        assertArrayEquals(ours, same.result());
+
+        Merge3 deleted = new Merge3(base, new byte[0], ours);
+        assertEquals(1, deleted.conflicts());
+        assertEquals("<<<<<<< HEAD\n=======\n" + new String(ours)
+                + ">>>>>>>\n", new String(deleted.result()));
+
+        Merge3 noNewline = new Merge3("x".getBytes(), "y".getBytes(),
+                "z".getBytes());
+        assertEquals("<<<<<<< HEAD\ny\n=======\nz\n>>>>>>>\n",
+                new String(noNewline.result()));
+    }
+
+    /** Unified diffs show each change with three lines of context,
+     *  joining changes whose context would overlap, and note a last
+     *  line with no newline. */
+    @Test
+    public void unifiedDiffTest() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        UnifiedDiff.write(out, "f", "1\n2\n3\n4\n5\n6\n7\n8\n9\n".getBytes(),
+                "1\nB\n3\n4\n5\n6\n7\n8\n9".getBytes());
+        assertEquals("diff --git a/f b/f\n--- a/f\n+++ b/f\n"
+                + "@@ -1,9 +1,9 @@\n 1\n-2\n+B\n 3\n 4\n 5\n 6\n 7\n 8\n"
+                + "-9\n+9\n\\ No newline at end of file\n", out.toString());
+        out.reset();
+        UnifiedDiff.write(out, "g", null, "x\n".getBytes());
+        assertEquals("diff --git a/g b/g\nnew file\n--- /dev/null\n"
+                + "+++ b/g\n@@ -0,0 +1 @@\n+x\n", out.toString());
+        out.reset();
+        UnifiedDiff.write(out, "g", "x\n".getBytes(), "x\n".getBytes());
+        assertEquals("", out.toString());
+    }
+
+    /** Renames pair removed files with the added files most like them,
+     *  exactly equal ones first, and leave unrelated files alone. */
+    @Test
+    public void renamesTest() {
+        HashMap<String, byte[]> blobs = new HashMap<String, byte[]>();
+        ArrayList<TreeDiff.Change> changes = new ArrayList<TreeDiff.Change>();
+        Random random = new Random(17);
+        for (int i = 0; i < 200; i += 1) {
+            StringBuilder text = new StringBuilder();
+            for (int line = 0; line < 40; line += 1) {
+                text.append(random.nextLong()).append('\n');
+            }
+            String old = text.toString();
+            String now = i % 3 == 0 ? old
+                : old.replaceFirst("\n[^\n]*\n", "\nedited\n");
+            blobs.put("o" + i, old.getBytes());
+            blobs.put("n" + i, now.getBytes());
+            changes.add(new TreeDiff.Change("old/" + i, "o" + i, null));
+            changes.add(new TreeDiff.Change("new/" + i, null,
+                    i % 3 == 0 ? "o" + i : "n" + i));
+        }
+        blobs.put("u", "unrelated\n".getBytes());
+        changes.add(new TreeDiff.Change("u", null, "u"));
+        List<Renames.Rename> renames = Renames.detect(changes, true,
+                c -> blobs.get(c.oldId()), c -> blobs.get(c.newId()));
+        assertEquals(200, renames.size());
+        for (Renames.Rename r : renames) {
+            assertEquals(r.from().path().substring(4),
+                    r.to().path().substring(4));
+            assertFalse(r.copy());
+            assertTrue(r.score() >= Renames.MIN_SCORE);
+        }
+    }
+
+    /** Blame credits each line to the commit that wrote it, through
+     *  merges and past commits that left the file alone. */
+    @Test
+    public void blameTest() {
+        Blob.BLOB_FOLDER.mkdirs();
+        Commit.COMMIT_FOLDER.mkdirs();
+        String[] versions = {"a\nb\nc\n", "a\nB\nc\n", "a\nb\nc\nd\n",
+                             "a\nB\nc\nd\n", "a\nB\nc\nd\n",
+                             "x\na\nB\nc\nd\n"};
+        int[][] parents = {{}, {0}, {0}, {1, 2}, {3}, {4}};
+        Commit[] commits = new Commit[versions.length];
+        for (int i = 0; i < versions.length; i += 1) {
+            Blob blob = new Blob(versions[i].getBytes());
+            blob.saveBlob();
+            HashMap<String, String> files = new HashMap<String, String>();
+            files.put("d/f", blob.getSha1());
+            int[] p = parents[i];
+            commits[i] = new Commit("c" + i, files,
+                    p.length > 0 ? commits[p[0]].getSha1() : null,
+                    p.length > 1 ? commits[p[1]].getSha1() : null,
+                    new Date(1000 * i));
+            Utils.writeContents(Utils.join(Commit.COMMIT_FOLDER,
+                    commits[i].getSha1()), commits[i].encode());
+        }
+        Blame blame = new Blame(commits[5].getSha1(), "d/f");
+        int[] expected = {5, 0, 1, 0, 2};
+        for (int i = 0; i < expected.length; i += 1) {
+            assertEquals(commits[expected[i]].getSha1(),
+                    blame.owner(i).getSha1());
+        }
+        assertEquals(5, blame.numbered());
+    }
+
+    /** The message index finds commits by exact message, prefix,
+     *  substring and regular expression, both among the messages it
+     *  has indexed and those added since, and lists what it holds of
+     *  every commit in order of id. */
+    @Test
+    public void messageIndexTest() {
+        Commit.COMMIT_FOLDER.mkdirs();
+        String[] messages = {"Fix parser", "fix lexer", "Add feature",
+                             "Add feature", "Prefixed"};
+        String[] ids = new String[messages.length];
+        for (int i = 0; i < messages.length; i += 1) {
+            Commit commit = new Commit(messages[i],
+                    new HashMap<String, String>(), null, null,
+                    new Date(i * 7));
+            Utils.writeContents(Utils.join(Commit.COMMIT_FOLDER,
+                    commit.getSha1()), commit.encode());
+            MessageIndex.add(commit);
+            ids[i] = commit.getSha1();
+            if (i == 2) {
+                assertEquals(Arrays.asList(ids[0]),
+                        MessageIndex.exact("Fix parser"));
+            }
+        }
+        assertEquals(new TreeSet<String>(Arrays.asList(ids[2], ids[3])),
+                new TreeSet<String>(MessageIndex.exact("Add feature")));
+        assertEquals(2, MessageIndex.prefix("Add").size());
+        assertEquals(new TreeSet<String>(Arrays.asList(ids[0], ids[1],
+                ids[4])), new TreeSet<String>(MessageIndex.contains("FIX")));
+        assertEquals(Arrays.asList(ids[1]),
+                MessageIndex.grep("^f\\w+ l"));
+        assertTrue(MessageIndex.exact("Add").isEmpty());
+        ArrayList<String> seen = new ArrayList<String>();
+        MessageIndex.each(e -> {
+            seen.add(e.id());
+            if (e.id().equals(ids[4])) {
+                assertEquals("Prefixed", e.message());
+                assertEquals(28, e.time());
+                assertNull(e.parent());
+            }
+            return true;
+        });
+        assertTrue(seen.containsAll(Arrays.asList(ids)));
+        assertEquals(new ArrayList<String>(new TreeSet<String>(seen)), seen);
+    }
+
+    /** The object cache drops the least recently used objects once
+     *  they weigh too much, counts its hits and misses, and hands out
+     *  the same commit each time it is read. */
+    @Test
+    public void objectCacheTest() throws InterruptedException {
+        long entry = 100 + ObjectCache.OVERHEAD;
+        ObjectCache cache = new ObjectCache(3 * entry);
+        cache.put("a", "A", 100);
+        cache.put("b", "B", 100);
+        cache.put("c", "C", 100);
+        assertEquals("A", cache.find("a", String.class));
+        cache.put("d", "D", 100);
+        assertNull(cache.find("b", String.class));
+        assertEquals("C", cache.find("c", String.class));
+        assertNull(cache.find("d", Commit.class));
+        assertEquals(3, cache.size());
+        assertEquals(3 * entry, cache.weight());
+        assertEquals(2, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(1, cache.evictions());
+        cache.reweigh("a", "other", 4 * entry);
+        assertEquals("A", cache.find("a", String.class));
+        cache.reweigh("a", "A", 4 * entry);
+        assertNull(cache.find("a", String.class));
+        assertEquals(2, cache.size());
+
+        ObjectCache shared = new ObjectCache(100 * entry);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t += 1) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 20000; i += 1) {
+                    String id = "id" + random.nextInt(500);
+                    if (shared.find(id, String.class) == null) {
+                        shared.put(id, id, 100);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, shared.size());
+        assertEquals(100 * entry, shared.weight());
 
+        Commit.COMMIT_FOLDER.mkdirs();
+        Commit commit = new Commit("cached", new HashMap<String, String>(),
+                null, null, new Date(5));
+        Utils.writeContents(Utils.join(Commit.COMMIT_FOLDER,
+                commit.getSha1()), commit.encode());
+        long hits = ObjectCache.get().hits();
+        Commit read = Commit.fromFile(commit.getSha1());
+        assertTrue(read == Commit.fromFile(commit.getSha1()));
+        assertEquals(hits + 1, ObjectCache.get().hits());
+    }
+
+    /** The daemon runs the commands a client sends, returns what they
+     *  print when they end early, and stops when told to. */
+    @Test
+    public void daemonTest() throws InterruptedException {
+        Main.MAIN_FOLDER.mkdirs();
+        Thread daemon = new Thread(() -> Daemon.main("daemon"));
+        daemon.start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        while (Client.run(new String[0], out, err) == Client.REFUSED) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, Client.run(new String[] {"nosuch"}, out, err));
+        assertEquals("No command with that name exists."
+                + System.lineSeparator(), out.toString());
+        assertEquals(0, Client.run(new String[] {"daemon", "stop"},
+                out, err));
+        daemon.join();
+        assertFalse(Daemon.serving());
+        assertFalse(Client.SOCKET.toFile().exists());
+        assertEquals(Client.REFUSED, Client.run(new String[] {"nosuch"},
+                out, err));
+    }
+
+    /** The daemon runs each command at the level of durability and
+     *  with the tracing its client asks for, and then goes back to its
+     *  own. */
+    @Test
+    public void daemonSettingsTest() throws InterruptedException {
+        Thread daemon = serveNewRepository();
+        int level = Durable.level();
+        boolean trace = Main.tracing();
+        try {
+            write("a.txt", "a\n");
+            gitlet("add", "a.txt");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            long files = Durable.fileSyncs();
+            assertEquals(0, Client.run(new String[] {"commit", "a"},
+                    "none", true, out, err));
+            assertEquals(files, Durable.fileSyncs());
+            assertTrue(err.toString().contains("synced: " + files + " files"));
+            assertEquals(level, Durable.level());
+            assertEquals(trace, Main.tracing());
+            write("a.txt", "b\n");
+            gitlet("add", "a.txt");
+            err.reset();
+            assertEquals(0, Client.run(new String[] {"commit", "b"},
+                    "strict", false, out, err));
+            assertTrue(Durable.fileSyncs() > files);
+            assertEquals("", err.toString());
+            assertEquals(level, Durable.level());
+        } finally {
+            stop(daemon);
+        }
+    }
+
+    /** Status lists files changed since they were committed or staged
+     *  and files not tracked, and sees a change that keeps the size
+     *  and modification time of a file hashed in the same tick as it
+     *  was last changed. */
+    @Test
+    public void statusTest() throws InterruptedException {
+        Thread daemon = serveNewRepository();
+        try {
+            write("a.txt", "a\n");
+            write("b.txt", "b\n");
+            write("racy.txt", "one\n");
+            long future = System.currentTimeMillis() + 3_600_000;
+            Utils.join(Main.CWD, "racy.txt").setLastModified(future);
+            gitlet("add", ".");
+            gitlet("commit", "one");
+            write("a.txt", "a2\n");
+            Utils.join(Main.CWD, "b.txt").delete();
+            write("d/u.txt", "u\n");
+            write("s.txt", "s\n");
+            gitlet("add", "s.txt");
+            write("s.txt", "s2\n");
+            write("racy.txt", "two\n");
+            Utils.join(Main.CWD, "racy.txt").setLastModified(future);
+            String n = System.lineSeparator();
+            assertEquals("=== Branches ===" + n + "*master" + n + n
+                    + "=== Staged Files ===" + n + "s.txt" + n + n
+                    + "=== Removed Files ===" + n + n
+                    + "=== Modifications Not Staged For Commit ===" + n
+                    + "a.txt (modified)" + n + "b.txt (deleted)" + n
+                    + "racy.txt (modified)" + n + "s.txt (modified)" + n
+                    + n + "=== Untracked Files ===" + n + "d/u.txt" + n
+                    + n, gitlet("status"));
+        } finally {
+            stop(daemon);
+        }
+    }
+
+    /** Checkout and reset write only the files that differ between
+     *  the two commits and do not already hold their new contents,
+     *  and delete the files the target does not track. */
+    @Test
+    public void incrementalCheckoutTest() throws InterruptedException {
+        Thread daemon = serveNewRepository();
+        try {
+            for (int i = 0; i < 20; i += 1) {
+                write("d" + i % 4 + "/f" + i, "file " + i + "\n");
+            }
+            gitlet("add", ".");
+            gitlet("commit", "base");
+            String base = ref("master");
+            gitlet("branch", "other");
+            gitlet("checkout", "other");
+            write("d1/f1", "changed\n");
+            write("d2/f2", "also changed\n");
+            Utils.join(Main.CWD, "d3/f3").delete();
+            write("e/new", "new\n");
+            gitlet("add", ".");
+            gitlet("rm", "d3/f3");
+            gitlet("commit", "other");
+            gitlet("checkout", "master");
+            assertEquals("file 1\n", read("d1/f1"));
+            assertFalse(Utils.join(Main.CWD, "e").exists());
+
+            write("d2/f2", "also changed\n");
+            long past = System.currentTimeMillis() - 600_000;
+            for (int i = 0; i < 20; i += 1) {
+                Utils.join(Main.CWD, "d" + i % 4 + "/f" + i)
+                    .setLastModified(past);
+            }
+            gitlet("checkout", "other");
+            assertEquals("changed\n", read("d1/f1"));
+            assertEquals("new\n", read("e/new"));
+            assertFalse(Utils.join(Main.CWD, "d3/f3").exists());
+            for (int i = 0; i < 20; i += 1) {
+                File file = Utils.join(Main.CWD, "d" + i % 4 + "/f" + i);
+                if (i == 1) {
+                    assertTrue(file.lastModified() > past);
+                } else if (i != 3) {
+                    assertEquals(past, file.lastModified());
+                }
+            }
+
+            Utils.join(Main.CWD, "d1/f1").setLastModified(past);
+            gitlet("reset", base);
+            assertEquals("file 1\n", read("d1/f1"));
+            assertEquals("file 2\n", read("d2/f2"));
+            assertEquals("file 3\n", read("d3/f3"));
+            assertFalse(Utils.join(Main.CWD, "e/new").exists());
+            assertEquals(past, Utils.join(Main.CWD, "d0/f0").lastModified());
+            assertTrue(Utils.join(Main.CWD, "d1/f1").lastModified() > past);
+        } finally {
+            stop(daemon);
+        }
+    }
+
+    /** Blobs, packed whole or as deltas and stored deflated or as
+     *  they are, are written in parallel to nested files with their
+     *  contents, and the stat data returned is that of the files. */
+    @Test
+    public void materializerTest() throws IOException, InterruptedException {
+        byte[] one = text(20000);
+        byte[] two = (new String(one) + "one more line\n").getBytes();
+        byte[] random = new byte[50000];
+        new Random(8).nextBytes(random);
+        Thread daemon = serveNewRepository();
+        try {
+            Utils.writeContents(Utils.join(Main.CWD, "big.txt"), one);
+            Utils.writeContents(Utils.join(Main.CWD, "random"), random);
+            gitlet("add", ".");
+            gitlet("commit", "one");
+            Utils.writeContents(Utils.join(Main.CWD, "big.txt"), two);
+            gitlet("add", "big.txt");
+            gitlet("commit", "two");
+            gitlet("gc");
+        } finally {
+            stop(daemon);
+        }
+        byte[][] contents = {one, two, random, new byte[0]};
+        Utils.writeContents(Utils.join(Blob.BLOB_FOLDER,
+                Utils.sha1(contents[3])), new Blob(contents[3]).encode());
+        assertTrue(Pack.depth(Utils.sha1(one)) > 0
+                   || Pack.depth(Utils.sha1(two)) > 0);
+        assertFalse(Utils.join(Blob.BLOB_FOLDER, Utils.sha1(random))
+                    .exists());
+        ArrayList<String> paths = new ArrayList<String>();
+        ArrayList<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 40; i += 1) {
+            paths.add("d" + i % 3 + "/e" + i % 5 + "/f" + i);
+            ids.add(Utils.sha1(contents[i % contents.length]));
+        }
+        File out = Files.createTempDirectory("materialize").toFile();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Pack.forget();
+            ObjectCache.get().clear();
+            StatCache.Entry[] stats =
+                Materializer.writeAll(out, paths, ids, pool);
+            for (int i = 0; i < paths.size(); i += 1) {
+                File file = Utils.join(out, paths.get(i));
+                assertArrayEquals(contents[i % contents.length],
+                        Utils.readContents(file));
+                assertTrue(stats[i].sameStat(StatCache.stat(file)));
+            }
+        } finally {
+            pool.shutdown();
+            deleteUnder(out);
+            out.delete();
+        }
+    }
+
+    /** A damaged reachability bitmap is recomputed rather than failing
+     *  the commit, branch or merge that reads it. */
+    @Test
+    public void damagedBitmapTest() throws IOException, InterruptedException {
+        Thread daemon = serveNewRepository();
+        try {
+            write("a.txt", "a\n");
+            gitlet("add", "a.txt");
+            gitlet("commit", "a");
+            gitlet("branch", "other");
+            gitlet("checkout", "other");
+            write("b.txt", "b\n");
+            gitlet("add", "b.txt");
+            gitlet("commit", "b");
+            gitlet("checkout", "master");
+            for (String branch : new String[] {"master", "other"}) {
+                Reachability.of(branch);
+                Path bitmap = Utils.join(Reachability.BITMAP_FOLDER,
+                                         branch).toPath();
+                Files.write(bitmap, Arrays.copyOf(Files.readAllBytes(bitmap),
+                                                  5));
+            }
+            write("c.txt", "c\n");
+            gitlet("add", "c.txt");
+            assertEquals("", gitlet("commit", "c"));
+            String head = ref("master");
+            assertEquals("", gitlet("branch", "third"));
+            assertEquals(head, ref("third"));
+            Utils.writeContents(Utils.join(Reachability.BITMAP_FOLDER,
+                    "other"), "m");
+            assertEquals("", gitlet("merge", "other"));
+            assertEquals("b\n", read("b.txt"));
+            assertTrue(Reachability.isAncestor(ref("other"), "master"));
+            assertTrue(Reachability.isAncestor(head, "master"));
+        } finally {
+            stop(daemon);
+        }
+    }
+
+    /** A column of messages torn in the middle of an append is rebuilt
+     *  rather than read past its end. */
+    @Test
+    public void tornMessagesTest() throws IOException, InterruptedException {
+        Thread daemon = serveNewRepository();
+        try {
+            write("a.txt", "a\n");
+            gitlet("add", "a.txt");
+            gitlet("commit", "first");
+            gitlet("find", "first");
+            write("a.txt", "b\n");
+            gitlet("add", "a.txt");
+            gitlet("commit", "second");
+            String head = ref("master");
+            Path column = MessageIndex.COLUMN_FILE.toPath();
+            byte[] bytes = Files.readAllBytes(column);
+            Files.write(column, Arrays.copyOf(bytes, bytes.length - 3));
+            MessageIndex.forget();
+            assertEquals(head + "\n", gitlet("find", "second"));
+            assertTrue(gitlet("global-log").contains("commit " + head));
+            assertEquals(bytes.length, Files.size(column));
+        } finally {
+            stop(daemon);
+        }
+    }
+
+    /** A fast-forward merge refuses, before it moves the branch, to
+     *  overwrite an untracked file, and otherwise moves the branch and
+     *  checks out the files of its new head. */
+    @Test
+    public void fastForwardTest() throws InterruptedException {
+        Thread daemon = serveNewRepository();
+        try {
+            write("a.txt", "a\n");
+            gitlet("add", "a.txt");
+            gitlet("commit", "a");
+            String base = ref("master");
+            gitlet("branch", "other");
+            gitlet("checkout", "other");
+            write("b.txt", "b\n");
+            gitlet("add", "b.txt");
+            gitlet("commit", "b");
+            String tip = ref("other");
+            gitlet("checkout", "master");
+            write("b.txt", "untracked\n");
+            assertEquals("There is an untracked file in the way; delete it"
+                    + " or add it first." + System.lineSeparator(),
+                    gitlet("merge", "other"));
+            assertEquals(base, ref("master"));
+            assertEquals("untracked\n", read("b.txt"));
+            Utils.join(Main.CWD, "b.txt").delete();
+            assertEquals("Current branch fast-forwarded."
+                    + System.lineSeparator(), gitlet("merge", "other"));
+            assertEquals(tip, ref("master"));
+            assertEquals("b\n", read("b.txt"));
+        } finally {
+            stop(daemon);
+        }
+    }
+
+    /** The staging area keeps additions and removals in one file,
+     *  reads in the staging directories of old repositories, and
+     *  removes them once it has written its own file. */
+    @Test
+    public void stageTest() {
+        Main.MAIN_FOLDER.mkdirs();
+        Stage.STAGE_FILE.delete();
+        Main.STAGING_ADD.mkdirs();
+        Utils.writeContents(Utils.join(Main.STAGING_ADD, "d%2Fa%25.txt"),
+                Utils.sha1("a"));
+        Stage stage = Stage.read();
+        assertEquals(Utils.sha1("a"), stage.added().get("d/a%.txt"));
+        stage.remove("b.txt", Utils.sha1("b"));
+        stage.add("c.txt", Utils.sha1("c"));
+        stage.remove("c.txt", Utils.sha1("c0"));
+        stage.add("e.txt", Utils.sha1("e"));
+        stage.unstage("e.txt");
+        stage.write();
+        assertFalse(Main.STAGING_AREA.exists());
+        Stage again = Stage.read();
+        assertEquals(stage.added(), again.added());
+        assertEquals(new TreeSet<String>(Arrays.asList("b.txt", "c.txt")),
+                again.removed().keySet());
+        assertEquals(Utils.sha1("c0"), again.removed().get("c.txt"));
+        again.clear();
+        again.write();
+        assertTrue(Stage.read().isEmpty());
+        Stage.STAGE_FILE.delete();
+    }
+
+    /** The stat cache trusts an entry only if its file was modified
+     *  before the cache was written, rehashes a file changed without
+     *  a change to its stat data, and never writes out an entry it
+     *  could not trust as one it can. */
+    @Test
+    public void statCacheTest() {
+        Main.MAIN_FOLDER.mkdirs();
+        StatCache.CACHE_FILE.delete();
+        File old = Utils.join(Main.CWD, "old.txt");
+        File racy = Utils.join(Main.CWD, "racy.txt");
+        Utils.writeContents(old, "old\n");
+        Utils.writeContents(racy, "one\n");
+        long now = System.currentTimeMillis();
+        old.setLastModified(now - 60_000);
+        racy.setLastModified(now + 3_600_000);
+        StatCache cache = StatCache.read();
+        StatCache.Entry oldStat = StatCache.stat(old);
+        StatCache.Entry racyStat = StatCache.stat(racy);
+        cache.id(Main.CWD, "old.txt", oldStat);
+        cache.id(Main.CWD, "racy.txt", racyStat);
+        cache.write();
 
+        cache = StatCache.read();
+        assertEquals(Hasher.hash(old), cache.cachedId("old.txt", oldStat));
+        assertNull(cache.cachedId("racy.txt", racyStat));
+        Utils.writeContents(racy, "two\n");
+        racy.setLastModified(now + 3_600_000);
+        assertTrue(racyStat.sameStat(StatCache.stat(racy)));
+        assertEquals(Hasher.hash(racy),
+                     cache.id(Main.CWD, "racy.txt", racyStat));
+
+        Utils.join(Main.MAIN_FOLDER, "stat-cache")
+            .setLastModified(now - 120_000);
+        cache = StatCache.read();
+        assertNull(cache.cachedId("old.txt", oldStat));
+        cache.put("other.txt", oldStat, Utils.sha1("other"));
+        cache.write();
+        assertNull(StatCache.read().cachedId("old.txt", oldStat));
+        StatCache.CACHE_FILE.delete();
+        old.delete();
+        racy.delete();
+    }
+
+    /** The arguments of add and rm name a path, the files under a
+     *  directory, every file, or the files matching a glob. */
+    @Test
+    public void matchingTest() {
+        TreeSet<String> paths = new TreeSet<String>(Arrays.asList(
+                "a.txt", "b.java", "src/c.java", "src/d/e.java", "src0",
+                "srcx/f.txt"));
+        assertEquals(paths, Main.matching(".", paths));
+        assertEquals(new TreeSet<String>(Arrays.asList("src/c.java",
+                "src/d/e.java")), Main.matching("src", paths));
+        assertEquals(new TreeSet<String>(Arrays.asList("src/d/e.java")),
+                Main.matching("./src/d/", paths));
+        assertEquals(new TreeSet<String>(Arrays.asList("a.txt")),
+                Main.matching("*.txt", paths));
+        assertEquals(new TreeSet<String>(Arrays.asList("src/c.java",
+                "src/d/e.java")), Main.matching("src/**.java", paths));
+        assertEquals(new TreeSet<String>(Arrays.asList("a.txt",
+                "srcx/f.txt")), Main.matching("{*,*/*}.txt", paths));
+        assertTrue(Main.matching("nosuch", paths).isEmpty());
+        assertTrue(Main.matching("../a.txt", paths).isEmpty());
+    }
+
+    /** Hashing files in parallel gives the ids of their contents. */
+    @Test
+    public void hasherTest() throws IOException {
+        ArrayList<File> files = new ArrayList<File>();
+        ArrayList<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 20; i += 1) {
+            byte[] data = new byte[i * 10000];
+            new Random(i).nextBytes(data);
+            File file = File.createTempFile("hash", null);
+            file.deleteOnExit();
+            Utils.writeContents(file, data);
+            files.add(file);
+            expected.add(Utils.sha1(data));
+        }
+        assertEquals(expected, Arrays.asList(Hasher.hashAll(files)));
+        assertEquals(expected.get(3), Hasher.hash(files.get(3)));
+    }
+
+    /** Objects and refs are renamed into place whole, each file only
+     *  once its data is synced, and the directories of a batch of
+     *  objects are synced once each before the ref that follows them
+     *  is written. */
+    @Test
+    public void durableTest() throws IOException {
+        File dir = Files.createTempDirectory("durable").toFile();
+        File refs = Utils.join(dir, "refs");
+        refs.mkdirs();
+        try {
+            Durable.setLevel(Durable.BATCH);
+            long files = Durable.fileSyncs();
+            long dirs = Durable.dirSyncs();
+            for (int i = 0; i < 3; i += 1) {
+                Durable.write(Utils.join(dir, "object" + i),
+                              new byte[] {(byte) i});
+            }
+            Durable.write(Utils.join(dir, "object0"), new byte[] {9});
+            assertEquals(files + 4, Durable.fileSyncs());
+            assertEquals(dirs, Durable.dirSyncs());
+            Durable.writeRef(Utils.join(refs, "master"), "object0");
+            assertEquals(files + 5, Durable.fileSyncs());
+            assertEquals(dirs + 1, Durable.dirSyncs());
+            Durable.sync();
+            assertEquals(dirs + 2, Durable.dirSyncs());
+            assertArrayEquals(new byte[] {9},
+                    Utils.readContents(Utils.join(dir, "object0")));
+            assertEquals("object0", Utils.readContentsAsString(
+                    Utils.join(refs, "master")));
+
+            Durable.setLevel(Durable.STRICT);
+            Durable.write(Utils.join(dir, "object3"), new byte[] {3});
+            assertEquals(files + 6, Durable.fileSyncs());
+            assertEquals(dirs + 3, Durable.dirSyncs());
+
+            Durable.setLevel(Durable.NONE);
+            Durable.write(Utils.join(dir, "object4"), new byte[] {4});
+            Durable.writeRef(Utils.join(refs, "master"), "object4");
+            Durable.sync();
+            assertEquals(files + 6, Durable.fileSyncs());
+            assertEquals(dirs + 3, Durable.dirSyncs());
+            assertEquals(5, Utils.plainFilenamesIn(dir).size());
+        } finally {
+            Durable.setLevel(Durable.level(System.getenv("GITLET_FSYNC")));
+            for (File file : refs.listFiles()) {
+                file.delete();
+            }
+            refs.delete();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /** Return a new directory for gitlet to work in in place of the
+     *  current one, so that the tests never touch the repository they
+     *  are run in, and delete it when the tests end. */
+    private static File scratch() {
+        File dir;
+        try {
+            dir = Files.createTempDirectory("gitlet-test").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        System.setProperty("gitlet.dir", dir.getPath());
+        if (!Main.CWD.equals(dir)) {
+            throw new IllegalStateException("gitlet.Main was loaded before"
+                    + " the tests chose their directory.");
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            deleteUnder(dir);
+            dir.delete();
+        }));
+        return dir;
+    }
+
+    /** Delete everything under DIR. */
+    private static void deleteUnder(File dir) {
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            files.sorted(Comparator.reverseOrder())
+                .filter(f -> !f.equals(dir.toPath()))
+                .forEach(f -> f.toFile().delete());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a daemon, once it is up, serving a new repository made in
+     *  the emptied scratch directory, with nothing of the old one left
+     *  in memory. */
+    private static Thread serveNewRepository() throws InterruptedException {
+        Durable.sync();
+        deleteUnder(SCRATCH);
+        CommitGraph.forget();
+        MessageIndex.forget();
+        Pack.forget();
+        ObjectCache.get().clear();
+        Main.init();
+        Thread daemon = new Thread(() -> Daemon.main("daemon"));
+        daemon.start();
+        OutputStream none = OutputStream.nullOutputStream();
+        while (Client.run(new String[0], none, none) == Client.REFUSED) {
+            Thread.sleep(20);
+        }
+        return daemon;
+    }
+
+    /** Stop DAEMON, made by serveNewRepository. */
+    private static void stop(Thread daemon) throws InterruptedException {
+        gitlet("daemon", "stop");
+        daemon.join();
+    }
+
+    /** Run the gitlet command ARGS through the daemon and return what
+     *  it prints. */
+    private static String gitlet(String... args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(0, Client.run(args, out, out));
+        return out.toString();
+    }
+
+    /** Write CONTENTS to the working file NAME. */
+    private static void write(String name, String contents) {
+        File file = Utils.join(Main.CWD, name);
+        file.getParentFile().mkdirs();
+        Utils.writeContents(file, contents);
+    }
+
+    /** Return the contents of the working file NAME. */
+    private static String read(String name) {
+        return Utils.readContentsAsString(Utils.join(Main.CWD, name));
+    }
+
+    /** Return the id of the head of BRANCH. */
+    private static String ref(String branch) {
+        return Utils.readContentsAsString(Utils.join(Main.BRANCH, branch));
+    }
+
+    /** The directory gitlet works in during the tests. */
+    private static final File SCRATCH = scratch();
+}
@@ -15,7 +15,6 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -32,27 +31,42 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+        MessageDigest md = sha1Digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+        }
+        return hex(md.digest());
+    }
+
+    /** Returns a fresh SHA-1 MessageDigest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** Returns BYTES as a lower-case hexadecimal numeral. */
+    static String hex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Digits used by hex. */
+    private static final char[] HEX_DIGITS =
+        "0123456789abcdef".toCharArray();
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {